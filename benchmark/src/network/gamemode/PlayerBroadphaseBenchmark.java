@@ -0,0 +1,138 @@
+package network.gamemode;
+
+import com.jme3.app.LegacyApplication;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Node;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import world.GameObjectControl;
+import world.World;
+
+/**
+ * Measures one GameModeManager tick with many players.
+ *
+ * The tick runs the TriggerSystem (PlayerBroadphase, trigger volumes, event
+ * diff) and hands the events to a game mode which only counts them, so the
+ * time is the collision work of a tick without any game logic. The old test
+ * of every pair of players is measured on the same positions for comparison.
+ * Run with the number of players as argument (default 1000) or with
+ * "ant benchmark".
+ *
+ * @author Marco Klein
+ */
+public class PlayerBroadphaseBenchmark {
+
+    private static final int WARMUP_TICKS = 2000;
+    private static final int TICKS = 1000;
+    private static final float TICK_TIME = 1f / 30;
+
+    public static void main(String[] args) {
+        int playerCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        Logger.getLogger("world").setLevel(Level.WARNING);
+
+        // headless world, the app is never started
+        World world = new World(new LegacyApplication(), new Node("World"));
+        GameModeManager manager = new GameModeManager(null, world);
+        CountingGameMode gameMode = new CountingGameMode();
+        manager.changeGameMode(gameMode);
+
+        // players spread over the tag world (60 x 10 x 60), moving every tick
+        Random random = new Random(42);
+        ArrayList<Vector3f> locations = new ArrayList<>();
+        for (int i = 0; i < playerCount; i++) {
+            GameObjectControl player = new GameObjectControl(world);
+            world.addGameObject(player);
+            player.getGameObject().setLocalTranslation(random.nextFloat() * 120 - 60,
+                    random.nextFloat() * 10, random.nextFloat() * 120 - 60);
+            manager.addPlayer(player);
+            locations.add(player.getGameObject().getLocalTranslation());
+        }
+
+        long tickTime = 0;
+        for (int tick = 0; tick < WARMUP_TICKS + TICKS; tick++) {
+            move(locations, random);
+            long start = System.nanoTime();
+            manager.tick(tick, TICK_TIME);
+            if (tick >= WARMUP_TICKS) {
+                tickTime += System.nanoTime() - start;
+            }
+        }
+
+        long bruteForceTime = 0;
+        long pairCount = 0;
+        float distanceSquared = GameModeManager.PLAYER_COLLISION_DISTANCE * GameModeManager.PLAYER_COLLISION_DISTANCE;
+        for (int tick = 0; tick < WARMUP_TICKS + TICKS; tick++) {
+            move(locations, random);
+            long start = System.nanoTime();
+            for (int i = 0; i < playerCount; i++) {
+                Vector3f a = locations.get(i);
+                for (int j = i + 1; j < playerCount; j++) {
+                    Vector3f b = locations.get(j);
+                    float dx = a.x - b.x;
+                    float dy = a.y - b.y;
+                    float dz = a.z - b.z;
+                    if (dx * dx + dy * dy + dz * dz < distanceSquared) {
+                        pairCount++;
+                    }
+                }
+            }
+            if (tick >= WARMUP_TICKS) {
+                bruteForceTime += System.nanoTime() - start;
+            }
+        }
+
+        System.out.println("Players:                " + playerCount);
+        System.out.println("GameModeManager tick:   " + (tickTime / TICKS / 1000f) + " us per tick");
+        System.out.println("Every pair (old test):  " + (bruteForceTime / TICKS / 1000f) + " us per tick");
+        System.out.println("(" + gameMode.events + " trigger events, " + pairCount + " pairs found)");
+    }
+
+    private static void move(ArrayList<Vector3f> locations, Random random) {
+        for (int i = 0; i < locations.size(); i++) {
+            Vector3f location = locations.get(i);
+            location.x += random.nextFloat() * 0.2f - 0.1f;
+            location.z += random.nextFloat() * 0.2f - 0.1f;
+        }
+    }
+
+    /**
+     * Game mode without game logic which counts the events of every tick.
+     */
+    private static class CountingGameMode extends GameMode {
+
+        private long events;
+
+        @Override
+        public void initialize(GameModeManager manager) {
+        }
+
+        @Override
+        public void update(float tpf) {
+        }
+
+        @Override
+        public void triggerEvents(TriggerEvents events) {
+            this.events += events.size();
+            super.triggerEvents(events);
+        }
+
+        @Override
+        public void playerJoined(GameObjectControl player) {
+        }
+
+        @Override
+        public void playerLeft(GameObjectControl player) {
+        }
+
+        @Override
+        public void playerCollision(GameObjectControl playerA, GameObjectControl playerB) {
+        }
+
+        @Override
+        public void playerLeftWorldBoundaries(GameObjectControl player) {
+        }
+    }
+
+}
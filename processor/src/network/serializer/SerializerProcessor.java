@@ -0,0 +1,398 @@
+package network.serializer;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a reflection-free Serializer for every class annotated with
+ * com.jme3.network.serializing.Serializable in the message, logic and model
+ * packages.
+ *
+ * For a class X a public class XSerializer is generated in the same package,
+ * so it can read and write all non-static, non-transient fields (including the
+ * ones of its superclasses) directly. Therefore these fields must not be
+ * private. Additionally the class GeneratedSerializers is generated which
+ * registers all serializers with ids which only depend on the set of classes.
+ *
+ * If the class has a static field POOL (a network.message.MessagePool) the
+ * serializer obtains the objects it reads from the pool and reuses their
+ * arrays and math objects.
+ *
+ * @author Marco Klein
+ */
+@SupportedAnnotationTypes("com.jme3.network.serializing.Serializable")
+public class SerializerProcessor extends AbstractProcessor {
+
+    /**
+     * Packages (including their subpackages) of the classes which get a
+     * serializer.
+     */
+    public static final String[] PACKAGES = {"network.message", "world.gameobject.logic", "world.gameobject.model", "world.builder"};
+    public static final String REGISTRY_PACKAGE = "network.serializer";
+    public static final String REGISTRY_NAME = "GeneratedSerializers";
+    /**
+     * Id of the first registered class. Ids of jME's own serializers are
+     * negative.
+     */
+    public static final int FIRST_ID = 1000;
+    public static final String POOL_FIELD = "POOL";
+    public static final String POOL_TYPE = "network.message.MessagePool";
+
+    private List<TypeElement> generated = new ArrayList<TypeElement>();
+    private boolean registryWritten;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS
+                        || element.getModifiers().contains(Modifier.ABSTRACT)
+                        || !isIncluded(element)) {
+                    continue;
+                }
+                TypeElement type = (TypeElement) element;
+                if (generateSerializer(type)) {
+                    generated.add(type);
+                }
+            }
+        }
+        if (!registryWritten && !generated.isEmpty()) {
+            writeRegistry();
+            registryWritten = true;
+        }
+        return false;
+    }
+
+    private boolean isIncluded(Element element) {
+        String packageName = getPackage(element).getQualifiedName().toString();
+        for (String included : PACKAGES) {
+            if (packageName.equals(included) || packageName.startsWith(included + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private PackageElement getPackage(Element element) {
+        return processingEnv.getElementUtils().getPackageOf(element);
+    }
+
+    private String getSerializerName(TypeElement type) {
+        String packageName = getPackage(type).getQualifiedName().toString();
+        String name = type.getQualifiedName().toString().substring(packageName.length() + 1);
+        return name.replace('.', '_') + "Serializer";
+    }
+
+    /**
+     * @return fields of the type and all its superclasses which are
+     * serialized, fields of the superclasses first
+     */
+    private List<VariableElement> getFields(TypeElement type) {
+        List<VariableElement> fields = new ArrayList<VariableElement>();
+        TypeElement current = type;
+        while (current != null) {
+            List<VariableElement> declared = new ArrayList<VariableElement>();
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (!modifiers.contains(Modifier.STATIC) && !modifiers.contains(Modifier.TRANSIENT)) {
+                    declared.add(field);
+                }
+            }
+            fields.addAll(0, declared);
+            TypeMirror superclass = current.getSuperclass();
+            current = superclass.getKind() == TypeKind.DECLARED
+                    ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+        }
+        return fields;
+    }
+
+    /**
+     * @return false if a field can not be accessed from the generated class
+     */
+    private boolean checkAccess(TypeElement type, List<VariableElement> fields) {
+        boolean accessible = true;
+        for (VariableElement field : fields) {
+            Set<Modifier> modifiers = field.getModifiers();
+            boolean samePackage = getPackage(field).equals(getPackage(type));
+            if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL)
+                    || (!samePackage && !modifiers.contains(Modifier.PUBLIC))) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Serialized field must not be private or final and must be visible in package "
+                        + getPackage(type).getQualifiedName() + ".", field);
+                accessible = false;
+            }
+        }
+        return accessible;
+    }
+
+    /**
+     * @return true if the type has a static MessagePool named POOL
+     */
+    private boolean isPooled(TypeElement type) {
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            if (field.getSimpleName().contentEquals(POOL_FIELD)
+                    && field.getModifiers().contains(Modifier.STATIC)
+                    && getErasure(field.asType()).equals(POOL_TYPE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean generateSerializer(TypeElement type) {
+        List<VariableElement> fields = getFields(type);
+        if (!checkAccess(type, fields)) {
+            return false;
+        }
+        String packageName = getPackage(type).getQualifiedName().toString();
+        String serializerName = getSerializerName(type);
+        String typeName = type.getQualifiedName().toString();
+        boolean pooled = isPooled(type);
+        try {
+            PrintWriter out = new PrintWriter(processingEnv.getFiler()
+                    .createSourceFile(packageName + "." + serializerName, type).openWriter());
+            try {
+                out.println("package " + packageName + ";");
+                out.println();
+                out.println("/**");
+                out.println(" * Serializer of " + type.getSimpleName() + ". Generated by the SerializerProcessor, do not edit.");
+                out.println(" */");
+                out.println("public class " + serializerName + " extends network.serializer.GeneratedSerializer {");
+                out.println();
+                out.println("    @Override");
+                out.println("    @SuppressWarnings(\"unchecked\")");
+                out.println("    public <T> T readObject(java.nio.ByteBuffer buffer, Class<T> c) throws java.io.IOException {");
+                if (pooled) {
+                    out.println("        " + typeName + " object = " + typeName + "." + POOL_FIELD + ".obtain();");
+                } else {
+                    out.println("        " + typeName + " object = new " + typeName + "();");
+                }
+                for (VariableElement field : fields) {
+                    writeRead(out, field, pooled);
+                }
+                out.println("        return (T) object;");
+                out.println("    }");
+                out.println();
+                out.println("    @Override");
+                out.println("    public void writeObject(java.nio.ByteBuffer buffer, Object o) throws java.io.IOException {");
+                out.println("        " + typeName + " object = (" + typeName + ") o;");
+                for (VariableElement field : fields) {
+                    writeWrite(out, field);
+                }
+                out.println("    }");
+                out.println();
+                out.println("}");
+            } finally {
+                out.close();
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Could not write serializer: " + ex.getMessage(), type);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param reuse true to pass the current value of the field to the helpers
+     * (pooled objects)
+     */
+    private void writeRead(PrintWriter out, VariableElement field, boolean reuse) {
+        String target = "        object." + field.getSimpleName() + " = ";
+        String store = reuse ? ", object." + field.getSimpleName() : "";
+        TypeMirror type = field.asType();
+        switch (type.getKind()) {
+            case BOOLEAN:
+                out.println(target + "buffer.get() != 0;");
+                return;
+            case BYTE:
+                out.println(target + "buffer.get();");
+                return;
+            case ARRAY:
+                TypeMirror component = ((ArrayType) type).getComponentType();
+                if (component.getKind().isPrimitive()) {
+                    out.println(target + "read" + getPrimitiveName(component) + "Array(buffer" + store + ");");
+                } else if (component.getKind() == TypeKind.DECLARED) {
+                    String componentName = getErasure(component);
+                    out.println("        {");
+                    out.println("            int length = buffer.getInt();");
+                    out.println("            " + componentName + "[] values = length < 0 ? null : new " + componentName + "[length];");
+                    out.println("            for (int i = 0; i < length; i++) {");
+                    out.println("                values[i] = (" + componentName + ") readClassAndObject(buffer);");
+                    out.println("            }");
+                    out.println("            object." + field.getSimpleName() + " = values;");
+                    out.println("        }");
+                } else {
+                    out.println(target + "(" + getErasure(type) + ") readClassAndObject(buffer);");
+                }
+                return;
+            case DECLARED:
+                String helper = getHelper(type);
+                if (helper != null && helper.equals("String")) {
+                    out.println(target + "readString(buffer);");
+                } else if (helper != null) {
+                    out.println(target + "read" + helper + "(buffer" + store + ");");
+                } else {
+                    out.println(target + "(" + getErasure(type) + ") readClassAndObject(buffer);");
+                }
+                return;
+            default:
+                if (type.getKind().isPrimitive()) {
+                    out.println(target + "buffer.get" + getPrimitiveName(type) + "();");
+                } else {
+                    out.println(target + "(" + getErasure(type) + ") readClassAndObject(buffer);");
+                }
+        }
+    }
+
+    private void writeWrite(PrintWriter out, VariableElement field) {
+        String value = "object." + field.getSimpleName();
+        TypeMirror type = field.asType();
+        switch (type.getKind()) {
+            case BOOLEAN:
+                out.println("        buffer.put((byte) (" + value + " ? 1 : 0));");
+                return;
+            case BYTE:
+                out.println("        buffer.put(" + value + ");");
+                return;
+            case ARRAY:
+                TypeMirror component = ((ArrayType) type).getComponentType();
+                if (component.getKind().isPrimitive()) {
+                    out.println("        write" + getPrimitiveName(component) + "Array(buffer, " + value + ");");
+                } else if (component.getKind() == TypeKind.DECLARED) {
+                    out.println("        if (" + value + " == null) {");
+                    out.println("            buffer.putInt(-1);");
+                    out.println("        } else {");
+                    out.println("            buffer.putInt(" + value + ".length);");
+                    out.println("            for (Object element : " + value + ") {");
+                    out.println("                writeClassAndObject(buffer, element);");
+                    out.println("            }");
+                    out.println("        }");
+                } else {
+                    out.println("        writeClassAndObject(buffer, " + value + ");");
+                }
+                return;
+            case DECLARED:
+                String helper = getHelper(type);
+                if (helper != null) {
+                    out.println("        write" + helper + "(buffer, " + value + ");");
+                } else {
+                    out.println("        writeClassAndObject(buffer, " + value + ");");
+                }
+                return;
+            default:
+                if (type.getKind().isPrimitive()) {
+                    out.println("        buffer.put" + getPrimitiveName(type) + "(" + value + ");");
+                } else {
+                    out.println("        writeClassAndObject(buffer, " + value + ");");
+                }
+        }
+    }
+
+    /**
+     * @return name of the helper in GeneratedSerializer for the type or null
+     */
+    private String getHelper(TypeMirror type) {
+        String name = getErasure(type);
+        if (name.equals("java.lang.String")) {
+            return "String";
+        } else if (name.equals("com.jme3.math.Vector3f")) {
+            return "Vector3f";
+        } else if (name.equals("com.jme3.math.Quaternion")) {
+            return "Quaternion";
+        } else if (name.equals("com.jme3.math.ColorRGBA")) {
+            return "ColorRGBA";
+        }
+        return null;
+    }
+
+    /**
+     * @return name of the primitive type as used in the methods of ByteBuffer
+     * (Int for int)
+     */
+    private String getPrimitiveName(TypeMirror type) {
+        String name = type.getKind().name().toLowerCase();
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private String getErasure(TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+
+    /**
+     * Writes the class which registers all generated serializers. The classes
+     * are sorted by name, so client and server built from the same sources
+     * use the same ids.
+     */
+    private void writeRegistry() {
+        List<TypeElement> sorted = new ArrayList<TypeElement>(generated);
+        Collections.sort(sorted, new Comparator<TypeElement>() {
+
+            @Override
+            public int compare(TypeElement a, TypeElement b) {
+                return a.getQualifiedName().toString().compareTo(b.getQualifiedName().toString());
+            }
+        });
+        try {
+            PrintWriter out = new PrintWriter(processingEnv.getFiler()
+                    .createSourceFile(REGISTRY_PACKAGE + "." + REGISTRY_NAME,
+                            sorted.toArray(new Element[sorted.size()])).openWriter());
+            try {
+                out.println("package " + REGISTRY_PACKAGE + ";");
+                out.println();
+                out.println("import com.jme3.network.serializing.Serializer;");
+                out.println();
+                out.println("/**");
+                out.println(" * Registers all serializers generated by the SerializerProcessor, do not edit.");
+                out.println(" */");
+                out.println("public class " + REGISTRY_NAME + " {");
+                out.println();
+                out.println("    public static final int COUNT = " + sorted.size() + ";");
+                out.println();
+                out.println("    public static void registerAll() {");
+                for (int i = 0; i < sorted.size(); i++) {
+                    TypeElement type = sorted.get(i);
+                    String packageName = getPackage(type).getQualifiedName().toString();
+                    out.println("        Serializer.registerClassForId((short) " + (FIRST_ID + i) + ", "
+                            + type.getQualifiedName() + ".class, new "
+                            + packageName + "." + getSerializerName(type) + "());");
+                }
+                out.println("    }");
+                out.println();
+                out.println("}");
+            } finally {
+                out.close();
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Could not write serializer registry: " + ex.getMessage());
+        }
+    }
+
+}
@@ -1,16 +1,31 @@
 package network;
 
 import com.jme3.network.serializing.Serializer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import network.message.IdentificationMessage;
 import network.message.NewPlayerMessage;
+import network.message.PlayerInputMessage;
+import network.message.PlayerStateMessage;
 import network.message.SetPlayerMessage;
+import network.message.SnapshotAckMessage;
+import network.message.SnapshotMessage;
 import network.message.world.AddGameObjectMessage;
+import network.message.world.AddGameObjectsMessage;
+import network.message.world.GenerateWorldMessage;
+import network.message.world.InitWorldChunkMessage;
 import network.message.world.InitWorldMessage;
 import network.message.world.RemoveGameObjectMessage;
+import network.message.world.RemoveGameObjectsMessage;
 import network.message.world.SetGameObjectLocationMessage;
 import network.message.world.UpdateGameObjectPositionMessage;
 import network.message.world.UpdateLogicMessage;
 import network.message.world.UpdateModelMessage;
+import network.message.world.WorldMessageBundle;
+import network.serializer.SerializedMessage;
+import network.serializer.SerializedMessageSerializer;
+import world.builder.RandomWorldBuilder;
+import world.builder.WorldRecipe;
 import world.gameobject.logic.AttachLogic;
 import world.gameobject.logic.ObstacleLogic;
 import world.gameobject.logic.PlayerLogic;
@@ -23,17 +38,53 @@ import world.gameobject.model.PlayerModel;
 /**
  * Used to serialize all Messages which will be used for server-client communication.
  *
+ * Messages, Logics, Models and world recipes use the serializers generated by the
+ * SerializerProcessor at compile time (see network.serializer). If the
+ * processor did not run (the generated GeneratedSerializers class is missing)
+ * they are registered with the reflective FieldSerializer of jME instead.
+ *
  * @author Marco Klein
  */
 public class NetworkSerializer {
+
+    private static final Logger LOGGER = Logger.getLogger(NetworkSerializer.class.getName());
+    private static final String GENERATED_SERIALIZERS = "network.serializer.GeneratedSerializers";
+
     public static void registerClasses() {
+        if (!registerGeneratedSerializers()) {
+            registerReflectiveSerializers();
+        }
+        // messages which are serialized once and sent to several clients
+        Serializer.registerClass(SerializedMessage.class, new SerializedMessageSerializer());
+    }
+
+    /**
+     * @return false if the generated serializers are not available
+     */
+    private static boolean registerGeneratedSerializers() {
+        try {
+            Class.forName(GENERATED_SERIALIZERS).getMethod("registerAll").invoke(null);
+            return true;
+        } catch (ClassNotFoundException ex) {
+            LOGGER.warning("Generated serializers not found, falling back to reflection.");
+        } catch (ReflectiveOperationException ex) {
+            LOGGER.log(Level.SEVERE, "Could not register the generated serializers.", ex);
+        }
+        return false;
+    }
+
+    private static void registerReflectiveSerializers() {
         Serializer.registerClass(IdentificationMessage.class);
         
         Serializer.registerClass(InitWorldMessage.class);
+        Serializer.registerClass(InitWorldChunkMessage.class);
+        Serializer.registerClass(GenerateWorldMessage.class);
         Serializer.registerClass(SetPlayerMessage.class);
         Serializer.registerClass(NewPlayerMessage.class);
         Serializer.registerClass(AddGameObjectMessage.class);
         Serializer.registerClass(RemoveGameObjectMessage.class);
+        Serializer.registerClass(AddGameObjectsMessage.class);
+        Serializer.registerClass(RemoveGameObjectsMessage.class);
         
         
         Serializer.registerClass(UpdateLogicMessage.class);
@@ -41,6 +92,12 @@ public class NetworkSerializer {
         Serializer.registerClass(UpdateGameObjectPositionMessage.class);
         
         Serializer.registerClass(SetGameObjectLocationMessage.class);
+        Serializer.registerClass(WorldMessageBundle.class);
+        
+        Serializer.registerClass(SnapshotMessage.class);
+        Serializer.registerClass(SnapshotAckMessage.class);
+        Serializer.registerClass(PlayerInputMessage.class);
+        Serializer.registerClass(PlayerStateMessage.class);
         
         
         // model
@@ -57,6 +114,9 @@ public class NetworkSerializer {
         Serializer.registerClass(AttachLogic.class);
         
         
+        // world generation
+        Serializer.registerClass(WorldRecipe.class);
+        Serializer.registerClass(RandomWorldBuilder.class);
     }
     
 }
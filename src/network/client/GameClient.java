@@ -8,31 +8,96 @@ import com.jme3.network.MessageListener;
 import com.jme3.network.Network;
 import com.jme3.scene.Spatial;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import network.NetworkAppState;
 import network.NetworkSerializer;
 import network.message.IdentificationMessage;
+import network.message.MessagePool;
 import network.message.NewPlayerMessage;
+import network.message.PlayerStateMessage;
 import network.message.SetPlayerMessage;
+import network.message.SnapshotAckMessage;
+import network.message.SnapshotMessage;
+import network.message.world.InitWorldChunkMessage;
+import network.message.world.InitWorldMessage;
 import network.message.world.WorldMessage;
+import network.stats.TrafficStats;
+import simulator.PlayerSimulationControl;
+import simulator.Simulator;
+import world.PooledCommand;
 import world.World;
+import world.WorldCommand;
 
 /**
  * Added to the client to enable network stuff.
  *
+ * The traffic of the client is counted by TrafficStats (the connection is
+ * named "Server") and is available over JMX as
+ * "network:type=Traffic,name=Client" while the client is attached. Messages
+ * are sent with send() so they can be counted. The client does not know the
+ * sizes of its messages, so they are only counted while measuring is enabled.
+ *
  * @author Marco Klein
  */
 public class GameClient extends NetworkAppState implements MessageListener<Client> {
     private static final Logger LOG = Logger.getLogger(GameClient.class.getName());
+    private static final String SERVER = "Server";
+    /**
+     * Time a reliable message waits for space in the world command queue
+     * before the client gives up and disconnects.
+     */
+    private static final long RELIABLE_TIMEOUT_SECONDS = 5;
 
     private Client client;
     private String host;
     private int port;
+    /**
+     * Room to join or null to join the default room.
+     */
+    private String roomName;
     
     private int playerId = -1;
     
+    /**
+     * Applies the snapshots of the server.
+     */
+    private SnapshotReceiver snapshotReceiver = new SnapshotReceiver();
+    
+    /**
+     * Predicts the movement of the own player if the server moves the players
+     * by their inputs (accessed by the update thread only).
+     */
+    private Simulator simulator;
+    private int simulatorThreads = Runtime.getRuntime().availableProcessors();
+    private PredictionControl predictionControl;
+    
+    /**
+     * Progress of loading the world (accessed by the update thread only).
+     */
+    private int loadedGameObjects;
+    private int totalGameObjects;
+    private boolean worldLoaded;
+    private ArrayList<WorldLoadingListener> loadingListeners = new ArrayList<>();
+    
+    private TrafficStats traffic = new TrafficStats();
+    
+    /**
+     * Commands which apply the frequent snapshot and player state messages on
+     * the update thread - recycled like the messages themselves.
+     */
+    private MessagePool<ReceivedMessageCommand> receivedCommands = new MessagePool<ReceivedMessageCommand>() {
+
+        @Override
+        protected ReceivedMessageCommand create() {
+            return new ReceivedMessageCommand();
+        }
+
+    };
+    
     /**
      * Creates a Game Client which will - if attached - connect to a Game Server
      * and handle network traffic.
@@ -42,9 +107,23 @@ public class GameClient extends NetworkAppState implements MessageListener<Clien
      * @param world 
      */
     public GameClient(String host, int port, World world) {
+        this(host, port, null, world);
+    }
+    
+    /**
+     * Creates a Game Client which will - if attached - connect to a Game Server
+     * and join the given room.
+     * 
+     * @param host
+     * @param port
+     * @param roomName room to join or null for the default room
+     * @param world 
+     */
+    public GameClient(String host, int port, String roomName, World world) {
         super(world);
         this.host = host;
         this.port = port;
+        this.roomName = roomName;
         NetworkSerializer.registerClasses();
     }
 
@@ -65,7 +144,19 @@ public class GameClient extends NetworkAppState implements MessageListener<Clien
         
         // send init message
         // TODO let user pick player name
-        client.send(new IdentificationMessage("Zerstörer"));
+        traffic.register("Client");
+        send(new IdentificationMessage("Zerstörer", roomName));
+    }
+
+    /**
+     * Sends the given message to the server. The message is serialized right
+     * away.
+     *
+     * @param message
+     */
+    public void send(Message message) {
+        client.send(message);
+        traffic.messageSent(SERVER, message);
     }
 
     @Override
@@ -74,6 +165,10 @@ public class GameClient extends NetworkAppState implements MessageListener<Clien
         // cleanup
         client.removeMessageListener(this);
         client.close();
+        traffic.unregister();
+        if (simulator != null) {
+            stateManager.detach(simulator);
+        }
     }
 
     @Override
@@ -85,28 +180,51 @@ public class GameClient extends NetworkAppState implements MessageListener<Clien
 
     @Override
     public void messageReceived(final Client source, final Message m) {
-//        LOG.log(Level.INFO, "Message recieved: {0}", m);
+        LOG.log(Level.FINEST, "Message received: {0}", m);
+        traffic.messageReceived(SERVER, m);
         // handle incoming messages
         if (m instanceof WorldMessage) {
-            world.getApp().enqueue(new Callable<Void>() {
+            // applied on the update thread
+            if (m.isReliable()) {
+                enqueueReliable((WorldMessage) m);
+            } else if (!world.enqueue((WorldMessage) m) && m instanceof PooledCommand) {
+                ((PooledCommand) m).release();
+            }
+            if (m instanceof InitWorldMessage || m instanceof InitWorldChunkMessage) {
+                // report progress after the Game Objects have been added
+                enqueueReliable(new WorldCommand() {
 
-                @Override
-                public Void call() throws Exception {
-                    ((WorldMessage) m).applyToWorld(world);
-                    return null;
-                }
-                
-            });
+                    @Override
+                    public void applyToWorld(World world) {
+                        updateLoadingProgress(m);
+                    }
+
+                });
+            }
+        } else if (m instanceof SnapshotMessage || m instanceof PlayerStateMessage) {
+            // applied in order with the world messages
+            ReceivedMessageCommand command = receivedCommands.obtain().set(m);
+            if (!world.enqueue(command)) {
+                // unreliable - the next one follows soon
+                command.release();
+            }
         } else if (m instanceof SetPlayerMessage) {
             final SetPlayerMessage message = (SetPlayerMessage) m;
-            world.getApp().enqueue(new Callable<Void>() {
+            // queue with the world messages so the player has been added already
+            enqueueReliable(new WorldCommand() {
 
                 @Override
-                public Void call() throws Exception {
+                public void applyToWorld(World world) {
                     playerId = message.getId();
                     Spatial player = world.getGameObject(playerId);
-                    player.addControl(new SyncPlayerControl(client));
-                    return null;
+                    if (player.getControl(PlayerSimulationControl.class) != null) {
+                        // the server moves the player - predict its movement
+                        startSimulator();
+                        predictionControl = new PredictionControl(GameClient.this, simulator);
+                        player.addControl(predictionControl);
+                    } else {
+                        player.addControl(new SyncPlayerControl(GameClient.this));
+                    }
                 }
                 
             });
@@ -121,6 +239,162 @@ public class GameClient extends NetworkAppState implements MessageListener<Clien
         }
     }
     
+    /**
+     * Queues a command which must not be dropped, waiting for space in the
+     * command queue. If the queue stays full the worlds of client and server
+     * would differ, so the client disconnects.
+     * 
+     * @param command 
+     */
+    private void enqueueReliable(WorldCommand command) {
+        if (world.enqueue(command, RELIABLE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            return;
+        }
+        LOG.log(Level.SEVERE, "World command queue full - could not apply {0}, disconnecting.", command.getClass().getSimpleName());
+        // not on the network thread which delivered the message
+        world.getApp().enqueue(new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                world.getApp().getStateManager().detach(GameClient.this);
+                return null;
+            }
+
+        });
+    }
     
+    /**
+     * Attaches a new Simulator for the current world (the old one does not get
+     * informed about the Game Objects of a reset world).
+     */
+    private void startSimulator() {
+        if (simulator != null) {
+            world.getApp().getStateManager().detach(simulator);
+        }
+        simulator = new Simulator(world, simulatorThreads);
+        world.getApp().getStateManager().attach(simulator);
+    }
+    
+    private void updateLoadingProgress(Message m) {
+        if (m instanceof InitWorldMessage) {
+            // snapshots of the room follow this message
+            snapshotReceiver.setTickRate(((InitWorldMessage) m).getTickRate());
+            loadedGameObjects = 0;
+            totalGameObjects = ((InitWorldMessage) m).getStreamedGameObjects();
+            worldLoaded = false;
+        } else {
+            InitWorldChunkMessage chunk = (InitWorldChunkMessage) m;
+            loadedGameObjects = chunk.getLoaded();
+            totalGameObjects = chunk.getTotal();
+        }
+        for (WorldLoadingListener listener : loadingListeners) {
+            listener.worldLoading(loadedGameObjects, totalGameObjects);
+        }
+        if (loadedGameObjects == totalGameObjects && !worldLoaded) {
+            worldLoaded = true;
+            for (WorldLoadingListener listener : loadingListeners) {
+                listener.worldLoaded();
+            }
+        }
+    }
     
+    /**
+     * Adds a listener which is informed about the progress of loading the
+     * world. Must be called by the update thread.
+     * 
+     * @param listener 
+     */
+    public void addLoadingListener(WorldLoadingListener listener) {
+        loadingListeners.add(listener);
+    }
+    
+    public void removeLoadingListener(WorldLoadingListener listener) {
+        loadingListeners.remove(listener);
+    }
+    
+    /**
+     * @return number of Game Objects of the world received so far
+     */
+    public int getLoadedGameObjects() {
+        return loadedGameObjects;
+    }
+    
+    public int getTotalGameObjects() {
+        return totalGameObjects;
+    }
+    
+    /**
+     * @return receiver of the snapshots (configure the interpolation with its
+     * clock)
+     */
+    public SnapshotReceiver getSnapshotReceiver() {
+        return snapshotReceiver;
+    }
+    
+    /**
+     * @return true if the whole world has been received
+     */
+    public boolean isWorldLoaded() {
+        return worldLoaded;
+    }
+    
+    public TrafficStats getTraffic() {
+        return traffic;
+    }
+
+    public int getSimulatorThreads() {
+        return simulatorThreads;
+    }
+
+    /**
+     * Number of threads the Simulator moves the players with (default: number
+     * of processors). Takes effect with the next world.
+     *
+     * @param simulatorThreads
+     */
+    public void setSimulatorThreads(int simulatorThreads) {
+        this.simulatorThreads = simulatorThreads;
+    }
+    
+    /**
+     * Applies a received SnapshotMessage or PlayerStateMessage. The message is
+     * released together with the command.
+     */
+    private class ReceivedMessageCommand implements PooledCommand {
+
+        private Message message;
+
+        private ReceivedMessageCommand set(Message message) {
+            this.message = message;
+            return this;
+        }
+
+        @Override
+        public void applyToWorld(World world) {
+            if (message instanceof SnapshotMessage) {
+                SnapshotMessage snapshot = (SnapshotMessage) message;
+                if (snapshotReceiver.receive(world, snapshot)) {
+                    SnapshotAckMessage ack = SnapshotAckMessage.POOL.obtain().setTick(snapshot.getTick());
+                    // serialized right away
+                    send(ack);
+                    ack.release();
+                }
+            } else if (predictionControl != null) {
+                predictionControl.reconcile((PlayerStateMessage) message);
+            }
+        }
+
+        @Override
+        public void release() {
+            if (message instanceof SnapshotMessage) {
+                ((SnapshotMessage) message).release();
+            } else {
+                ((PlayerStateMessage) message).release();
+            }
+            message = null;
+            receivedCommands.release(this);
+        }
+
+    }
+
 }
@@ -0,0 +1,113 @@
+package network.client;
+
+/**
+ * Estimates the time of the server and the (delayed) time remote Game Objects
+ * are rendered at.
+ *
+ * The server time is derived from the tick of the received snapshots. The offset
+ * between the local and the server time follows the received ticks slowly, so
+ * single late or early packets do not make the remote Game Objects jump. Remote
+ * Game Objects are rendered delay seconds in the past, so there are usually two
+ * snapshots to interpolate between.
+ *
+ * @author Marco Klein
+ */
+public class InterpolationClock {
+
+    public static final float DEFAULT_DELAY = 0.1f;
+    /**
+     * The offset jumps to the new value if the estimate is off by more.
+     */
+    private static final double MAX_DRIFT = 0.25;
+    private static final double DRIFT_CORRECTION = 0.1;
+
+    private float tickTime;
+    private float delay = DEFAULT_DELAY;
+
+    private boolean synced;
+    /**
+     * Server time minus local time.
+     */
+    private double offset;
+
+    /**
+     * @param tickRate ticks per second of the server
+     */
+    public InterpolationClock(int tickRate) {
+        setTickRate(tickRate);
+    }
+
+    /**
+     * Called if a snapshot of the given tick has been received.
+     *
+     * @param tick
+     */
+    public void update(long tick) {
+        double target = getTickTime(tick) - getLocalTime();
+        if (!synced || Math.abs(target - offset) > MAX_DRIFT) {
+            offset = target;
+            synced = true;
+        } else {
+            offset += (target - offset) * DRIFT_CORRECTION;
+        }
+    }
+
+    /**
+     * @param tick
+     * @return server time of the given tick in seconds
+     */
+    public double getTickTime(long tick) {
+        return tick * (double) tickTime;
+    }
+
+    /**
+     * @return estimated current time of the server in seconds
+     */
+    public double getServerTime() {
+        return getLocalTime() + offset;
+    }
+
+    /**
+     * @return server time remote Game Objects are rendered at
+     */
+    public double getRenderTime() {
+        return getServerTime() - delay;
+    }
+
+    private double getLocalTime() {
+        return System.nanoTime() / 1e9;
+    }
+
+    /**
+     * Sets the tick rate of the server. Must match the tick rate of the room.
+     * The server time is estimated again with the next snapshot.
+     *
+     * @param tickRate
+     */
+    public final void setTickRate(int tickRate) {
+        if (tickRate <= 0) {
+            throw new IllegalArgumentException("Tick rate must be greater than 0.");
+        }
+        this.tickTime = 1f / tickRate;
+        synced = false;
+    }
+
+    public float getDelay() {
+        return delay;
+    }
+
+    /**
+     * Sets how far (in seconds) remote Game Objects are rendered in the past.
+     * Should cover the time between two snapshots plus the jitter of the
+     * network.
+     *
+     * @param delay
+     */
+    public void setDelay(float delay) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Delay must not be negative.");
+        }
+        this.delay = delay;
+    }
+
+}
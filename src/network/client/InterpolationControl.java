@@ -0,0 +1,192 @@
+package network.client;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.control.AbstractControl;
+import world.GameObjectControl;
+
+/**
+ * Moves a remotely driven Game Object smoothly along the transforms received
+ * from the server.
+ *
+ * Received transforms are stored with their server time. Every frame the Game
+ * Object is placed at the render time of the InterpolationClock (which lies a
+ * bit in the past) by interpolating between the two surrounding transforms. If
+ * no newer transform arrived in time the movement is extrapolated for at most
+ * maxExtrapolation seconds and then stopped.
+ *
+ * @author Marco Klein
+ */
+public class InterpolationControl extends AbstractControl {
+
+    public static final int DEFAULT_CAPACITY = 16;
+    public static final float DEFAULT_MAX_EXTRAPOLATION = 0.25f;
+
+    private InterpolationClock clock;
+    private float maxExtrapolation = DEFAULT_MAX_EXTRAPOLATION;
+
+    // ring buffer of samples ordered by time
+    private double[] times;
+    private Vector3f[] locations;
+    private Quaternion[] rotations;
+    private int first;
+    private int size;
+
+    private Vector3f location = new Vector3f();
+    private Quaternion rotation = new Quaternion();
+
+    public InterpolationControl(InterpolationClock clock) {
+        this(clock, DEFAULT_CAPACITY);
+    }
+
+    public InterpolationControl(InterpolationClock clock, int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2.");
+        }
+        this.clock = clock;
+        times = new double[capacity];
+        locations = new Vector3f[capacity];
+        rotations = new Quaternion[capacity];
+        for (int i = 0; i < capacity; i++) {
+            locations[i] = new Vector3f();
+            rotations[i] = new Quaternion();
+        }
+    }
+
+    /**
+     * Adds the transform of the Game Object at the given server time. Samples
+     * which are not newer than the newest one are ignored.
+     *
+     * @param time
+     * @param location
+     * @param rotation rotation of the model
+     */
+    public void addSample(double time, Vector3f location, Quaternion rotation) {
+        int index = nextIndex(time);
+        if (index >= 0) {
+            locations[index].set(location);
+            rotations[index].set(rotation);
+        }
+    }
+
+    /**
+     * Adds a sample with the same transform as the newest one (the Game Object
+     * did not move).
+     *
+     * @param time
+     */
+    public void repeatSample(double time) {
+        if (size == 0) {
+            return;
+        }
+        int last = index(size - 1);
+        int index = nextIndex(time);
+        if (index >= 0) {
+            locations[index].set(locations[last]);
+            rotations[index].set(rotations[last]);
+        }
+    }
+
+    private int nextIndex(double time) {
+        if (size > 0 && time <= times[index(size - 1)]) {
+            return -1;
+        }
+        if (size == times.length) {
+            // drop the oldest sample
+            first = index(1);
+            size--;
+        }
+        int index = index(size++);
+        times[index] = time;
+        return index;
+    }
+
+    private int index(int i) {
+        return (first + i) % times.length;
+    }
+
+    /**
+     * Removes all samples (for example after a teleport). The Game Object stays
+     * where it is until the next sample arrives.
+     */
+    public void clear() {
+        first = 0;
+        size = 0;
+    }
+
+    @Override
+    protected void controlUpdate(float tpf) {
+        if (size == 0) {
+            return;
+        }
+        double time = clock.getRenderTime();
+        // drop samples which are not needed anymore
+        while (size > 2 && times[index(1)] <= time) {
+            first = index(1);
+            size--;
+        }
+        int a = index(0);
+        if (size == 1 || time <= times[a]) {
+            apply(locations[a], rotations[a]);
+            return;
+        }
+        int b = index(1);
+        if (time > times[b]) {
+            // no newer sample - extrapolate with the last movement
+            time = Math.min(time, times[b] + maxExtrapolation);
+        }
+        float t = (float) ((time - times[a]) / (times[b] - times[a]));
+        locations[b].subtract(locations[a], location).multLocal(t).addLocal(locations[a]);
+        if (t <= 1) {
+            rotation.slerp(rotations[a], rotations[b], t);
+        } else {
+            rotation.set(rotations[b]);
+        }
+        apply(location, rotation);
+    }
+
+    private void apply(Vector3f location, Quaternion rotation) {
+        spatial.setLocalTranslation(location);
+        GameObjectControl control = spatial.getControl(GameObjectControl.class);
+        Spatial model = control == null ? null : control.getModelNode();
+        if (model != null) {
+            model.setLocalRotation(rotation);
+        }
+    }
+
+    @Override
+    protected void controlRender(RenderManager rm, ViewPort vp) {
+    }
+
+    public InterpolationClock getClock() {
+        return clock;
+    }
+
+    public float getMaxExtrapolation() {
+        return maxExtrapolation;
+    }
+
+    /**
+     * Sets how long (in seconds) the movement is continued if no newer sample
+     * arrived.
+     *
+     * @param maxExtrapolation
+     */
+    public void setMaxExtrapolation(float maxExtrapolation) {
+        if (maxExtrapolation < 0) {
+            throw new IllegalArgumentException("Max extrapolation must not be negative.");
+        }
+        this.maxExtrapolation = maxExtrapolation;
+    }
+
+    /**
+     * @return number of stored samples
+     */
+    public int getSampleCount() {
+        return size;
+    }
+
+}
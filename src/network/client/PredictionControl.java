@@ -0,0 +1,235 @@
+package network.client;
+
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.control.AbstractControl;
+import network.message.PlayerInputMessage;
+import network.message.PlayerStateMessage;
+import simulator.PlayerInput;
+import simulator.PlayerSimulationControl;
+import simulator.Simulator;
+import world.control.PlayerControl;
+
+/**
+ * Moves the own player right away by its inputs (client side prediction) while
+ * the server stays the authority.
+ *
+ * Every step the input of the player (buttons and yaw taken from the
+ * PlayerControl) is numbered, stored and applied with the Simulator. The unacknowledged inputs are sent to
+ * the server, which applies them as well and answers with the resulting state.
+ * If the state of the server differs from the prediction for the same input,
+ * the player is reset to the state of the server and all newer inputs are
+ * applied again (replay).
+ *
+ * Added to the own player instead of the SyncPlayerControl if the player has an
+ * input driven PlayerSimulationControl.
+ *
+ * @author Marco Klein
+ */
+public class PredictionControl extends AbstractControl {
+
+    /**
+     * Maximum number of inputs which are not acknowledged yet.
+     */
+    public static final int DEFAULT_CAPACITY = 128;
+    /**
+     * Number of inputs sent per message (older ones are repeated in case
+     * messages get lost).
+     */
+    public static final int DEFAULT_REDUNDANCY = 4;
+    /**
+     * Predictions closer to the state of the server are not corrected.
+     */
+    public static final float DEFAULT_TOLERANCE = 0.01f;
+
+    private GameClient client;
+    private Simulator simulator;
+    private PlayerSimulationControl player;
+    private PlayerControl playerControl;
+
+    private int redundancy = DEFAULT_REDUNDANCY;
+    private float tolerance = DEFAULT_TOLERANCE;
+
+    // ring buffer of the unacknowledged inputs and the predicted locations
+    private PlayerInput[] inputs;
+    private Vector3f[] predictedLocations;
+    private int first;
+    private int size;
+    private PlayerInput[] sendBuffer;
+
+    private int nextSequence;
+    private int acknowledgedSequence = -1;
+    private float accumulator;
+
+    private long corrections;
+
+    public PredictionControl(GameClient client, Simulator simulator) {
+        this(client, simulator, DEFAULT_CAPACITY);
+    }
+
+    public PredictionControl(GameClient client, Simulator simulator, int capacity) {
+        this.client = client;
+        this.simulator = simulator;
+        inputs = new PlayerInput[capacity];
+        predictedLocations = new Vector3f[capacity];
+        for (int i = 0; i < capacity; i++) {
+            inputs[i] = new PlayerInput();
+            predictedLocations[i] = new Vector3f();
+        }
+        sendBuffer = new PlayerInput[capacity];
+    }
+
+    @Override
+    public void setSpatial(Spatial spatial) {
+        super.setSpatial(spatial);
+        if (spatial != null) {
+            player = spatial.getControl(PlayerSimulationControl.class);
+            if (player == null || !player.isInputDriven()) {
+                throw new UnsupportedOperationException("Player needs an input driven PlayerSimulationControl.class.");
+            }
+            playerControl = spatial.getControl(PlayerControl.class);
+            if (playerControl == null) {
+                throw new UnsupportedOperationException("Player needs a PlayerControl.class.");
+            }
+        }
+    }
+
+    @Override
+    protected void controlUpdate(float tpf) {
+        if (!simulator.isInitialized()) {
+            // no obstacles yet
+            return;
+        }
+        float stepTime = simulator.getStepTime();
+        accumulator += tpf;
+        int steps = 0;
+        while (accumulator >= stepTime && steps < Simulator.MAX_STEPS_PER_UPDATE) {
+            step(stepTime);
+            accumulator -= stepTime;
+            steps++;
+        }
+        if (steps == Simulator.MAX_STEPS_PER_UPDATE) {
+            accumulator = 0;
+        }
+        if (steps > 0) {
+            send();
+        }
+    }
+
+    private void step(float stepTime) {
+        if (size == inputs.length) {
+            // the server does not answer - forget the oldest input
+            first = index(1);
+            size--;
+        }
+        int index = index(size++);
+        inputs[index].set(nextSequence++, playerControl.pollButtons(), PlayerInput.packYaw(playerControl.getYaw()));
+        simulator.simulatePlayer(player, inputs[index], stepTime);
+        predictedLocations[index].set(player.getLocation());
+    }
+
+    private void send() {
+        int count = Math.min(size, redundancy);
+        for (int i = 0; i < count; i++) {
+            sendBuffer[i] = inputs[index(size - count + i)];
+        }
+        PlayerInputMessage message = PlayerInputMessage.POOL.obtain().set(sendBuffer, count);
+        // serialized right away
+        client.send(message);
+        message.release();
+    }
+
+    private int index(int i) {
+        return (first + i) % inputs.length;
+    }
+
+    /**
+     * Compares the state of the server with the prediction and corrects the
+     * player if they differ. Must be called by the update thread.
+     *
+     * @param message
+     */
+    public void reconcile(PlayerStateMessage message) {
+        int sequence = message.getSequence();
+        if (sequence <= acknowledgedSequence) {
+            // old or reordered
+            return;
+        }
+        acknowledgedSequence = sequence;
+        // drop acknowledged inputs
+        boolean predicted = false;
+        Vector3f predictedLocation = null;
+        while (size > 0 && inputs[first].getSequence() <= sequence) {
+            if (inputs[first].getSequence() == sequence) {
+                predicted = true;
+                predictedLocation = predictedLocations[first];
+            }
+            first = index(1);
+            size--;
+        }
+        if (predicted && predictedLocation.distanceSquared(message.getLocation()) <= tolerance * tolerance) {
+            return;
+        }
+        // start at the state of the server and apply the newer inputs again
+        corrections++;
+        player.setState(message.getLocation(), message.getVelocity(), message.isOnGround(), message.isJumping());
+        float stepTime = simulator.getStepTime();
+        for (int i = 0; i < size; i++) {
+            int index = index(i);
+            simulator.simulatePlayer(player, inputs[index], stepTime);
+            predictedLocations[index].set(player.getLocation());
+        }
+        // without newer inputs the spatial follows with the next step
+    }
+
+    @Override
+    protected void controlRender(RenderManager rm, ViewPort vp) {
+    }
+
+    public int getRedundancy() {
+        return redundancy;
+    }
+
+    /**
+     * Sets how many of the newest inputs are sent with every message.
+     *
+     * @param redundancy
+     */
+    public void setRedundancy(int redundancy) {
+        if (redundancy <= 0 || redundancy > inputs.length) {
+            throw new IllegalArgumentException("Redundancy must be between 1 and " + inputs.length + ".");
+        }
+        this.redundancy = redundancy;
+    }
+
+    public float getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Sets the distance between the predicted location and the location of the
+     * server below which the prediction is not corrected.
+     *
+     * @param tolerance
+     */
+    public void setTolerance(float tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @return number of inputs which have not been acknowledged by the server
+     */
+    public int getPendingInputs() {
+        return size;
+    }
+
+    /**
+     * @return number of times the prediction was corrected
+     */
+    public long getCorrections() {
+        return corrections;
+    }
+
+}
@@ -0,0 +1,208 @@
+package network.client;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Node;
+import java.util.Arrays;
+import network.message.SnapshotMessage;
+import network.server.ServerTickState;
+import network.snapshot.Snapshot;
+import network.snapshot.SnapshotBuffer;
+import world.TransformCodec;
+import world.World;
+
+/**
+ * Rebuilds the snapshots of the server from the received deltas and applies
+ * them to the world of the client.
+ *
+ * A delta only contains the Game Objects which changed since its baseline, so
+ * the full snapshot is rebuilt from the stored baseline. Only Game Objects which
+ * differ from the last applied snapshot get a new transform. Snapshots older
+ * than the last applied one (reordered packets) are dropped.
+ *
+ * The transforms are not applied directly but handed to an InterpolationControl
+ * of each Game Object with the server time of the snapshot, so remote Game
+ * Objects move smoothly even if snapshots arrive late or rarely.
+ *
+ * Must be used by the update thread only.
+ *
+ * @author Marco Klein
+ */
+public class SnapshotReceiver {
+
+    /**
+     * Should be at least the history size of the server.
+     */
+    public static final int DEFAULT_HISTORY = 64;
+
+    private SnapshotBuffer history;
+    /**
+     * State of the world of the client. Only contains Game Objects which
+     * existed when they were applied.
+     */
+    private Snapshot applied = new Snapshot();
+    private Snapshot nextApplied = new Snapshot();
+    /**
+     * Game Objects the entries of applied were applied to. A Game Object which
+     * has been removed and added again (area of interest) is applied again.
+     */
+    private Node[] appliedNodes = new Node[16];
+    private Node[] nextAppliedNodes = new Node[16];
+
+    private InterpolationClock clock;
+
+    private Vector3f location = new Vector3f();
+    private Quaternion rotation = new Quaternion();
+
+    /**
+     * Uses the default tick rate until setTickRate() is called with the tick
+     * rate of the room.
+     */
+    public SnapshotReceiver() {
+        this(DEFAULT_HISTORY, ServerTickState.DEFAULT_TICK_RATE);
+    }
+
+    /**
+     * @param historySize
+     * @param tickRate tick rate of the room
+     */
+    public SnapshotReceiver(int historySize, int tickRate) {
+        history = new SnapshotBuffer(historySize);
+        clock = new InterpolationClock(tickRate);
+    }
+
+    /**
+     * Applies the given snapshot to the world.
+     *
+     * @param world
+     * @param message
+     * @return true if the snapshot has been applied and should be acknowledged
+     */
+    public boolean receive(World world, SnapshotMessage message) {
+        if (message.getTick() <= history.getLatestTick()) {
+            // old or duplicated
+            return false;
+        }
+        Snapshot baseline = null;
+        if (!message.isFull()) {
+            baseline = history.get(message.getBaseline());
+            if (baseline == null) {
+                // can not rebuild - the server falls back to a full snapshot
+                return false;
+            }
+        }
+        Snapshot snapshot = history.next(message.getTick());
+        clock.update(message.getTick());
+        rebuild(snapshot, baseline, message);
+        apply(world, snapshot);
+        return true;
+    }
+
+    /**
+     * Merges the baseline with the changes of the message.
+     */
+    private void rebuild(Snapshot snapshot, Snapshot baseline, SnapshotMessage message) {
+        int[] ids = message.getIds();
+        long[] locations = message.getLocations();
+        int[] rotations = message.getRotations();
+        int[] removedIds = message.getRemovedIds();
+        int baselineSize = baseline == null ? 0 : baseline.size();
+        int b = 0;
+        int r = 0;
+        for (int i = 0; i < ids.length; i++) {
+            while (b < baselineSize && baseline.getId(b) < ids[i]) {
+                r = copyUnlessRemoved(snapshot, baseline, b++, removedIds, r);
+            }
+            if (b < baselineSize && baseline.getId(b) == ids[i]) {
+                b++;
+            }
+            snapshot.add(ids[i], locations[i], rotations[i]);
+        }
+        while (b < baselineSize) {
+            r = copyUnlessRemoved(snapshot, baseline, b++, removedIds, r);
+        }
+    }
+
+    private int copyUnlessRemoved(Snapshot snapshot, Snapshot baseline, int index, int[] removedIds, int r) {
+        int id = baseline.getId(index);
+        while (r < removedIds.length && removedIds[r] < id) {
+            r++;
+        }
+        if (r < removedIds.length && removedIds[r] == id) {
+            return r + 1;
+        }
+        snapshot.add(baseline, index);
+        return r;
+    }
+
+    /**
+     * Hands the transforms of the snapshot to the Game Objects. Only transforms
+     * which differ from the last applied snapshot are decoded.
+     */
+    private void apply(World world, Snapshot snapshot) {
+        TransformCodec codec = world.getTransformCodec();
+        double time = clock.getTickTime(snapshot.getTick());
+        nextApplied.clear(snapshot.getTick());
+        int a = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            int id = snapshot.getId(i);
+            while (a < applied.size() && applied.getId(a) < id) {
+                a++;
+            }
+            Node gameObject = world.getGameObject(id);
+            if (gameObject == null) {
+                // not added yet - try again with the next snapshot
+                continue;
+            }
+            boolean unchanged = a < applied.size() && applied.getId(a) == id
+                    && appliedNodes[a] == gameObject && snapshot.equalTransform(i, applied, a);
+            InterpolationControl interpolation = gameObject.getControl(InterpolationControl.class);
+            if (interpolation == null) {
+                interpolation = new InterpolationControl(clock);
+                gameObject.addControl(interpolation);
+            }
+            if (unchanged) {
+                interpolation.repeatSample(time);
+            } else {
+                interpolation.addSample(time,
+                        codec.decodeLocation(snapshot.getLocation(i), location),
+                        codec.decodeRotation(snapshot.getRotation(i), rotation));
+            }
+            if (nextApplied.size() == nextAppliedNodes.length) {
+                nextAppliedNodes = Arrays.copyOf(nextAppliedNodes, nextAppliedNodes.length * 2);
+            }
+            nextAppliedNodes[nextApplied.size()] = gameObject;
+            nextApplied.add(snapshot, i);
+        }
+        // do not keep removed Game Objects alive
+        Arrays.fill(appliedNodes, null);
+        Snapshot swap = applied;
+        applied = nextApplied;
+        nextApplied = swap;
+        Node[] swapNodes = appliedNodes;
+        appliedNodes = nextAppliedNodes;
+        nextAppliedNodes = swapNodes;
+    }
+
+    public InterpolationClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Sets the tick rate of the room the snapshots come from (sent with the
+     * InitWorldMessage).
+     *
+     * @param tickRate
+     */
+    public void setTickRate(int tickRate) {
+        clock.setTickRate(tickRate);
+    }
+
+    /**
+     * @return tick of the newest applied snapshot or -1
+     */
+    public long getLatestTick() {
+        return history.getLatestTick();
+    }
+
+}
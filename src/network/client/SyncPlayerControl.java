@@ -1,41 +1,205 @@
 package network.client;
 
-import com.jme3.network.Client;
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
 import com.jme3.renderer.RenderManager;
 import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
 import com.jme3.scene.control.AbstractControl;
 import network.message.world.UpdateGameObjectPositionMessage;
 
 /**
  * Keeps track of the players location and rotation and sends changes to the server.
  *
+ * Updates are sent at most sendRate times per second and only if the transform
+ * differs visibly from what the receivers show. Their InterpolationControl
+ * continues the movement between the last two updates for at most
+ * maxExtrapolation seconds and keeps the last rotation, so the location is
+ * compared with the last sent location moved on with that velocity (dead
+ * reckoning) and the rotation with the last sent rotation.
+ * If nothing changes an update is still sent every keepAliveTime seconds.
+ *
  * @author Marco Klein
  */
 public class SyncPlayerControl extends AbstractControl {
-    
-    private Client client;
-    
-    private float updateTime = 0.0f;
-    private float currentUpdateTime = updateTime;
-    
-
-    public SyncPlayerControl(Client client) {
+
+    public static final float DEFAULT_SEND_RATE = 20;
+    public static final float DEFAULT_POSITION_THRESHOLD = 0.05f;
+    public static final float DEFAULT_ROTATION_THRESHOLD = 2 * FastMath.DEG_TO_RAD;
+    public static final float DEFAULT_KEEP_ALIVE_TIME = 1;
+
+    private GameClient client;
+
+    private float sendInterval;
+    private float positionThreshold = DEFAULT_POSITION_THRESHOLD;
+    private float rotationThreshold = DEFAULT_ROTATION_THRESHOLD;
+    private float keepAliveTime = DEFAULT_KEEP_ALIVE_TIME;
+    private float maxExtrapolation = InterpolationControl.DEFAULT_MAX_EXTRAPOLATION;
+
+    private float timeSinceSend;
+    private boolean sent;
+    private Vector3f sentLocation = new Vector3f();
+    private Vector3f sentVelocity = new Vector3f();
+    private Quaternion sentRotation = new Quaternion();
+
+    private Vector3f predicted = new Vector3f();
+
+    private long sentUpdates;
+    private long skippedUpdates;
+
+    public SyncPlayerControl(GameClient client) {
+        this(client, DEFAULT_SEND_RATE);
+    }
+
+    /**
+     * @param client
+     * @param sendRate maximum number of updates per second
+     */
+    public SyncPlayerControl(GameClient client, float sendRate) {
         this.client = client;
+        setSendRate(sendRate);
     }
 
     @Override
     protected void controlUpdate(float tpf) {
-        // TODO check if player has moved
-        currentUpdateTime -= tpf;
-        if (currentUpdateTime <= 0) {
-            currentUpdateTime = updateTime;
-            client.send(new UpdateGameObjectPositionMessage(
-                    spatial));
+        timeSinceSend += tpf;
+        if (sent && timeSinceSend < sendInterval) {
+            return;
+        }
+        Vector3f location = spatial.getLocalTranslation();
+        Quaternion rotation = getModelRotation();
+        if (sent && timeSinceSend < keepAliveTime && !hasChanged(location, rotation)) {
+            skippedUpdates++;
+            return;
         }
+
+        if (sent && timeSinceSend > 0) {
+            // velocity the receivers derive from the last two updates
+            location.subtract(sentLocation, sentVelocity).divideLocal(timeSinceSend);
+        } else {
+            sentVelocity.zero();
+        }
+        sentLocation.set(location);
+        sentRotation.set(rotation);
+        timeSinceSend = 0;
+        sent = true;
+        sentUpdates++;
+        UpdateGameObjectPositionMessage message = UpdateGameObjectPositionMessage.POOL.obtain().set(spatial);
+        // serialized right away
+        client.send(message);
+        message.release();
+    }
+
+    /**
+     * @return true if the transform differs from the one the receivers show
+     * by more than the thresholds
+     */
+    private boolean hasChanged(Vector3f location, Quaternion rotation) {
+        // the receivers stop extrapolating after maxExtrapolation seconds
+        sentVelocity.mult(Math.min(timeSinceSend, maxExtrapolation), predicted).addLocal(sentLocation);
+        if (predicted.distanceSquared(location) > positionThreshold * positionThreshold) {
+            return true;
+        }
+        float dot = FastMath.abs(sentRotation.dot(rotation));
+        float angle = 2 * FastMath.acos(Math.min(1, dot));
+        return angle > rotationThreshold;
+    }
+
+    private Quaternion getModelRotation() {
+        Spatial model = ((Node) spatial).getChild("Model");
+        return model == null ? Quaternion.IDENTITY : model.getLocalRotation();
     }
 
     @Override
     protected void controlRender(RenderManager rm, ViewPort vp) {
     }
-    
+
+    public float getSendRate() {
+        return 1 / sendInterval;
+    }
+
+    /**
+     * Sets the maximum number of updates per second.
+     *
+     * @param sendRate
+     */
+    public final void setSendRate(float sendRate) {
+        if (sendRate <= 0) {
+            throw new IllegalArgumentException("Send rate must be greater than 0.");
+        }
+        this.sendInterval = 1 / sendRate;
+    }
+
+    public float getPositionThreshold() {
+        return positionThreshold;
+    }
+
+    /**
+     * Sets the distance between the dead reckoned and the real location at
+     * which an update is sent.
+     *
+     * @param positionThreshold
+     */
+    public void setPositionThreshold(float positionThreshold) {
+        this.positionThreshold = positionThreshold;
+    }
+
+    public float getRotationThreshold() {
+        return rotationThreshold;
+    }
+
+    /**
+     * Sets the angle (in radians) between the sent and the real rotation at
+     * which an update is sent.
+     *
+     * @param rotationThreshold
+     */
+    public void setRotationThreshold(float rotationThreshold) {
+        this.rotationThreshold = rotationThreshold;
+    }
+
+    public float getKeepAliveTime() {
+        return keepAliveTime;
+    }
+
+    /**
+     * Sets the time after which an update is sent even if nothing changed.
+     *
+     * @param keepAliveTime
+     */
+    public void setKeepAliveTime(float keepAliveTime) {
+        this.keepAliveTime = keepAliveTime;
+    }
+
+    public float getMaxExtrapolation() {
+        return maxExtrapolation;
+    }
+
+    /**
+     * Sets how long (in seconds) the receivers continue the movement. Should
+     * match the maxExtrapolation of their InterpolationControl.
+     *
+     * @param maxExtrapolation
+     */
+    public void setMaxExtrapolation(float maxExtrapolation) {
+        if (maxExtrapolation < 0) {
+            throw new IllegalArgumentException("Max extrapolation must not be negative.");
+        }
+        this.maxExtrapolation = maxExtrapolation;
+    }
+
+    public long getSentUpdates() {
+        return sentUpdates;
+    }
+
+    /**
+     * @return number of frames in which an update could have been sent but the
+     * player did not change enough
+     */
+    public long getSkippedUpdates() {
+        return skippedUpdates;
+    }
+
 }
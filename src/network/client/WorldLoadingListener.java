@@ -0,0 +1,24 @@
+package network.client;
+
+/**
+ * Gets informed about the progress of loading the world of the server (for
+ * example to show a loading screen). Called by the update thread.
+ *
+ * @author Marco Klein
+ */
+public interface WorldLoadingListener {
+    
+    /**
+     * Called after a part of the world has been added.
+     * 
+     * @param loaded number of Game Objects received so far
+     * @param total number of Game Objects of the world
+     */
+    public void worldLoading(int loaded, int total);
+    
+    /**
+     * Called once the whole world has been received.
+     */
+    public void worldLoaded();
+    
+}
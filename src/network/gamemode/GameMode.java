@@ -1,6 +1,7 @@
 package network.gamemode;
 
-import com.jme3.network.Server;
+import com.jme3.math.Vector3f;
+import network.server.Room;
 import world.GameObjectControl;
 import world.World;
 
@@ -11,10 +12,19 @@ import world.World;
  */
 public abstract class GameMode {
     
-    protected Server server;
+    /**
+     * Room the game mode is played in. Use it to send messages to the players.
+     */
+    protected Room room;
     protected World world;
     
     protected GameModeManager manager;
+    
+    /**
+     * Location new players start at. The world is sent to joining players
+     * starting with the Game Objects closest to it.
+     */
+    protected Vector3f spawnPosition = new Vector3f(0, 50, 0);
 
     public abstract void initialize(GameModeManager manager);
     
@@ -23,16 +33,55 @@ public abstract class GameMode {
     public abstract void playerJoined(GameObjectControl player);
     public abstract void playerLeft(GameObjectControl player);
     
+    /**
+     * Called once as two players start touching each other.
+     * 
+     * @param playerA
+     * @param playerB 
+     */
     public abstract void playerCollision(GameObjectControl playerA, GameObjectControl playerB);
     
+    /**
+     * Called once as a player leaves a BOUNDS volume or enters a KILL_ZONE.
+     * 
+     * @param player 
+     */
     public abstract void playerLeftWorldBoundaries(GameObjectControl player);
     
+    /**
+     * Called once per tick with all trigger and collision events of the tick.
+     * 
+     * Reports starting contacts with playerCollision and players leaving the world
+     * with playerLeftWorldBoundaries. Override to react to other events (for
+     * example stay and exit events or TRIGGER volumes).
+     * 
+     * @param events 
+     */
+    public void triggerEvents(TriggerEvents events) {
+        for (int i = 0; i < events.size(); i++) {
+            TriggerVolume volume = events.getVolume(i);
+            TriggerEvents.Phase phase = events.getPhase(i);
+            if (volume == null) {
+                if (phase == TriggerEvents.Phase.ENTER) {
+                    playerCollision(events.getPlayer(i), events.getOther(i));
+                }
+            } else if ((volume.getKind() == TriggerVolume.Kind.KILL_ZONE && phase == TriggerEvents.Phase.ENTER)
+                    || (volume.getKind() == TriggerVolume.Kind.BOUNDS && phase == TriggerEvents.Phase.EXIT)) {
+                playerLeftWorldBoundaries(events.getPlayer(i));
+            }
+        }
+    }
+    
     
     
     
+    public Vector3f getSpawnPosition() {
+        return spawnPosition;
+    }
+    
     void setManager(GameModeManager manager) {
         this.manager = manager;
-        this.server = manager.getServer();
+        this.room = manager.getRoom();
         this.world = manager.getWorld();
         initialize(manager);
     }
@@ -2,21 +2,24 @@ package network.gamemode;
 
 import com.jme3.app.state.AbstractAppState;
 import com.jme3.bounding.BoundingSphere;
-import com.jme3.collision.CollisionResults;
 import com.jme3.math.Vector3f;
-import com.jme3.network.Server;
 import java.util.ArrayList;
+import network.server.Room;
+import network.server.TickListener;
 import world.GameObjectControl;
 import world.World;
 
 /**
  * Manages all GameModes.
+ * 
+ * Game logic runs in tick() which is called by the ServerTickState of the room
+ * with a fixed tick time.
  *
  * @author Marco Klein
  */
-public class GameModeManager extends AbstractAppState {
+public class GameModeManager extends AbstractAppState implements TickListener {
     
-    private Server server;
+    private Room room;
     private World world;
     
     /**
@@ -25,42 +28,33 @@ public class GameModeManager extends AbstractAppState {
     private GameMode gameMode;;
     
     private ArrayList<GameObjectControl> players = new ArrayList<>();
+    
+    /**
+     * Players closer than this distance collide.
+     */
+    public static final float PLAYER_COLLISION_DISTANCE = 2;
+    /**
+     * Players below this height have left the world.
+     */
+    public static final float DEFAULT_KILL_HEIGHT = -20;
+    
+    private TriggerSystem triggerSystem;
+    private TriggerEvents triggerEvents = new TriggerEvents();
 
-    public GameModeManager(Server server, World world) {
-        this.server = server;
+    public GameModeManager(Room room, World world) {
+        this.room = room;
         this.world = world;
+        triggerSystem = new TriggerSystem(world, PLAYER_COLLISION_DISTANCE);
+        triggerSystem.addVolume(TriggerVolume.below("OutOfWorld", DEFAULT_KILL_HEIGHT));
     }
 
     @Override
-    public void update(float tpf) {
-        // test for collisions
-        GameObjectControl playerA;
-        GameObjectControl playerB;
-        
-        for (int i = 0; i < players.size(); i++) {
-            playerA = players.get(i);
-            for (int j = i + 1; j < players.size(); j++) {
-                playerB = players.get(j);
-                if (playerA.getGameObject().getLocalTranslation().subtract(playerB.getGameObject().getLocalTranslation()).length() < 2) {
-                    gameMode.playerCollision(playerA, playerB);
-                }
-//                result.clear();
-//                if (playerA.getGameObject().collideWith(playerB.getGameObject(), result) > 0) {
-//                    // collision
-//                    gameMode.playerCollision(playerA, playerB);
-//                }
-                
-            }
-        }
-        
-        // check if a player fell of world
-        for (GameObjectControl player : players) {
-            if (player.getGameObject().getLocalTranslation().y < -20) {
-                gameMode.playerLeftWorldBoundaries(player);
-            }
-        }
+    public void tick(long tick, float tickTime) {
+        // find collisions and players leaving the world
+        triggerSystem.update(players, triggerEvents);
+        gameMode.triggerEvents(triggerEvents);
         
-        gameMode.update(tpf);
+        gameMode.update(tickTime);
     }
     
     public void changeGameMode(GameMode gameMode) {
@@ -86,14 +80,23 @@ public class GameModeManager extends AbstractAppState {
         }
     }
 
-    public Server getServer() {
-        return server;
+    public Room getRoom() {
+        return room;
     }
 
     public World getWorld() {
         return world;
     }
 
+    /**
+     * Add or remove TriggerVolumes here (for example kill zones or world bounds).
+     * 
+     * @return 
+     */
+    public TriggerSystem getTriggerSystem() {
+        return triggerSystem;
+    }
+
     public GameMode getGameMode() {
         return gameMode;
     }
@@ -0,0 +1,181 @@
+package network.gamemode;
+
+import java.util.Arrays;
+import world.IdList;
+
+/**
+ * Finds all pairs of players which are closer than a given distance.
+ *
+ * Players are sorted into a uniform hash grid whose cells are as big as the
+ * distance, so only players in the same or neighbouring cells have to be
+ * compared. All buffers are reused, so finding pairs does not create objects
+ * once the buffers are big enough.
+ *
+ * @author Marco Klein
+ */
+public class PlayerBroadphase {
+
+    private static final int NONE = -1;
+    private static final int COORD_BITS = 21;
+    private static final int COORD_OFFSET = 1 << (COORD_BITS - 1);
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+
+    private float[] x = new float[0];
+    private float[] y = new float[0];
+    private float[] z = new float[0];
+    private int count;
+
+    /**
+     * Next player in the same cell.
+     */
+    private int[] next = new int[0];
+
+    // hash table of cells (rebuilt every time)
+    private long[] cellKeys = new long[0];
+    private int[] cellHeads = new int[0];
+    private int[] occupied = new int[0];
+    private int occupiedCount;
+
+    /**
+     * Offsets of 13 of the 26 neighbour cells. The other 13 are the opposite
+     * ones which are visited from the other side.
+     */
+    private static final int[] HALF_NEIGHBOURS = {
+        1, 0, 0,
+        -1, 1, 0, 0, 1, 0, 1, 1, 0,
+        -1, -1, 1, 0, -1, 1, 1, -1, 1,
+        -1, 0, 1, 0, 0, 1, 1, 0, 1,
+        -1, 1, 1, 0, 1, 1, 1, 1, 1
+    };
+
+    /**
+     * Resets the positions. Call setPosition for every player afterwards.
+     *
+     * @param count number of players
+     */
+    public void reset(int count) {
+        this.count = count;
+        if (x.length < count) {
+            int capacity = Math.max(16, Integer.highestOneBit(count) << 1);
+            x = new float[capacity];
+            y = new float[capacity];
+            z = new float[capacity];
+            next = new int[capacity];
+            occupied = new int[capacity];
+        }
+        int tableSize = Math.max(16, Integer.highestOneBit(count) << 2);
+        if (cellKeys.length < tableSize) {
+            cellKeys = new long[tableSize];
+            cellHeads = new int[tableSize];
+        }
+    }
+
+    public void setPosition(int index, float px, float py, float pz) {
+        x[index] = px;
+        y[index] = py;
+        z[index] = pz;
+    }
+
+    /**
+     * Adds all pairs of players closer than distance to the given list.
+     * Each pair is added as two consecutive player indices, the smaller first.
+     *
+     * @param distance
+     * @param pairs cleared and filled with pairs of indices
+     * @return number of found pairs
+     */
+    public int findPairs(float distance, IdList pairs) {
+        pairs.clear();
+        float invCellSize = 1f / distance;
+        float distanceSquared = distance * distance;
+        Arrays.fill(cellHeads, NONE);
+        int mask = cellKeys.length - 1;
+
+        // sort players into cells
+        occupiedCount = 0;
+        for (int i = 0; i < count; i++) {
+            int cell = findOrCreateCell(key(
+                    (int) Math.floor(x[i] * invCellSize),
+                    (int) Math.floor(y[i] * invCellSize),
+                    (int) Math.floor(z[i] * invCellSize)), mask);
+            if (cellHeads[cell] == NONE) {
+                occupied[occupiedCount++] = cell;
+            }
+            next[i] = cellHeads[cell];
+            cellHeads[cell] = i;
+        }
+
+        // compare the players of every cell with each other and with the players
+        // of the neighbouring cells (only half of the neighbours so every pair
+        // of cells is visited once)
+        for (int c = 0; c < occupiedCount; c++) {
+            int cell = occupied[c];
+            for (int i = cellHeads[cell]; i != NONE; i = next[i]) {
+                for (int j = next[i]; j != NONE; j = next[j]) {
+                    testPair(i, j, distanceSquared, pairs);
+                }
+            }
+            long key = cellKeys[cell];
+            int cx = (int) (key & COORD_MASK) - COORD_OFFSET;
+            int cy = (int) ((key >>> COORD_BITS) & COORD_MASK) - COORD_OFFSET;
+            int cz = (int) ((key >>> (2 * COORD_BITS)) & COORD_MASK) - COORD_OFFSET;
+            for (int n = 0; n < HALF_NEIGHBOURS.length; n += 3) {
+                int neighbour = findCell(key(cx + HALF_NEIGHBOURS[n], cy + HALF_NEIGHBOURS[n + 1], cz + HALF_NEIGHBOURS[n + 2]), mask);
+                if (neighbour == NONE) {
+                    continue;
+                }
+                for (int i = cellHeads[cell]; i != NONE; i = next[i]) {
+                    for (int j = cellHeads[neighbour]; j != NONE; j = next[j]) {
+                        testPair(i, j, distanceSquared, pairs);
+                    }
+                }
+            }
+        }
+        return pairs.size() / 2;
+    }
+
+    private void testPair(int i, int j, float distanceSquared, IdList pairs) {
+        float ex = x[i] - x[j];
+        float ey = y[i] - y[j];
+        float ez = z[i] - z[j];
+        if (ex * ex + ey * ey + ez * ez < distanceSquared) {
+            pairs.add(Math.min(i, j));
+            pairs.add(Math.max(i, j));
+        }
+    }
+
+    private static long key(int cx, int cy, int cz) {
+        return ((cx + COORD_OFFSET) & COORD_MASK)
+                | (((cy + COORD_OFFSET) & COORD_MASK) << COORD_BITS)
+                | (((cz + COORD_OFFSET) & COORD_MASK) << (2 * COORD_BITS));
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int findCell(long key, int mask) {
+        int i = hash(key) & mask;
+        while (cellHeads[i] != NONE) {
+            if (cellKeys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return NONE;
+    }
+
+    private int findOrCreateCell(long key, int mask) {
+        int i = hash(key) & mask;
+        while (cellHeads[i] != NONE) {
+            if (cellKeys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        cellKeys[i] = key;
+        return i;
+    }
+
+}
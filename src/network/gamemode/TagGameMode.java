@@ -2,10 +2,11 @@ package network.gamemode;
 
 import com.jme3.math.Vector3f;
 import java.util.ArrayList;
+import java.util.Random;
 import network.message.world.SetGameObjectLocationMessage;
-import network.message.world.UpdateGameObjectPositionMessage;
 import world.GameObjectControl;
 import world.builder.RandomWorldBuilder;
+import world.builder.WorldRecipe;
 import world.factory.ObstacleConstellationFactory;
 import world.gameobject.logic.AttachLogic;
 import world.gameobject.model.AssetModel;
@@ -17,8 +18,6 @@ import world.gameobject.model.AssetModel;
  */
 public class TagGameMode extends GameMode {
 
-    private Vector3f spawnPosition = new Vector3f(0, 50, 0);
-    
     private GameObjectControl currentCatcherEffect;
     private GameObjectControl currentCatcher;
     
@@ -43,39 +42,35 @@ public class TagGameMode extends GameMode {
 //                .size(new Vector3f(25, 1, 25))
 //                .build(world)
 //                );
-        // set up world
-        // big obstacles
-        world.addConstellation(
-                new RandomWorldBuilder()
-                .setWorldSize(new Vector3f(60, 10, 60))
-                .setAverageObstacleSize(new Vector3f(5, 5, 5))
-                .setObstacleSizeVariance(new Vector3f(4, 4, 4))
-                .setCreateGround(false)
-                .setDensity(5)
-                .build(world));
-        
-        world.addConstellation(
-                new RandomWorldBuilder()
-                .setWorldSize(new Vector3f(40, 10, 40))
-                .setCreateGround(true)
-                .build(world));
-        
-        // air obstacles (to get on big ones)
-        world.addConstellation(
-                new RandomWorldBuilder()
-                .setWorldSize(new Vector3f(60, 10, 60))
-                .setAverageObstacleSize(new Vector3f(3, 2f, 3))
-                .setObstacleSizeVariance(new Vector3f(2, 1f, 2))
-                .setDensity(100)
-                .build(world));
-        // ground obstacles
-        world.addConstellation(
-                new RandomWorldBuilder()
-                .setWorldSize(new Vector3f(40, 2, 40))
-                .setAverageObstacleSize(new Vector3f(2, 2f, 2))
-                .setObstacleSizeVariance(new Vector3f(1.5f, 1f, 1.5f))
-                .setDensity(100)
-                .build(world));
+        // obstacles lie within -60 and 60, players spawn at a height of 50
+        world.setWorldSize(new Vector3f(60, spawnPosition.y, 60));
+        // set up world (all constellations are reported in one batch)
+        world.beginBatch();
+        // the map is generated from a recipe - clients get the recipe instead
+        // of the obstacles and generate the same map
+        world.generate(new WorldRecipe(new Random().nextLong())
+                // big obstacles
+                .add(new RandomWorldBuilder()
+                        .setWorldSize(new Vector3f(60, 10, 60))
+                        .setAverageObstacleSize(new Vector3f(5, 5, 5))
+                        .setObstacleSizeVariance(new Vector3f(4, 4, 4))
+                        .setCreateGround(false)
+                        .setDensity(5))
+                .add(new RandomWorldBuilder()
+                        .setWorldSize(new Vector3f(40, 10, 40))
+                        .setCreateGround(true))
+                // air obstacles (to get on big ones)
+                .add(new RandomWorldBuilder()
+                        .setWorldSize(new Vector3f(60, 10, 60))
+                        .setAverageObstacleSize(new Vector3f(3, 2f, 3))
+                        .setObstacleSizeVariance(new Vector3f(2, 1f, 2))
+                        .setDensity(100))
+                // ground obstacles
+                .add(new RandomWorldBuilder()
+                        .setWorldSize(new Vector3f(40, 2, 40))
+                        .setAverageObstacleSize(new Vector3f(2, 2f, 2))
+                        .setObstacleSizeVariance(new Vector3f(1.5f, 1f, 1.5f))
+                        .setDensity(100)));
         // no ground only obstacles
 //        world.addConstellation(
 //                new RandomWorldBuilder()
@@ -87,6 +82,7 @@ public class TagGameMode extends GameMode {
 //                .build(world));
         
         world.addConstellation(new ObstacleConstellationFactory(world).createCross());
+        world.commitBatch();
     }
 
     @Override
@@ -94,6 +90,31 @@ public class TagGameMode extends GameMode {
         currentCatchCooldown -= tpf;
     }
 
+    /**
+     * Also reports contacts which continue once the catch cooldown expired
+     * (they may have started during the cooldown) and players which are still
+     * inside of a KILL_ZONE (the respawn did not get them out).
+     *
+     * @param events
+     */
+    @Override
+    public void triggerEvents(TriggerEvents events) {
+        super.triggerEvents(events);
+        for (int i = 0; i < events.size(); i++) {
+            if (events.getPhase(i) != TriggerEvents.Phase.STAY) {
+                continue;
+            }
+            TriggerVolume volume = events.getVolume(i);
+            if (volume == null) {
+                if (currentCatchCooldown <= 0) {
+                    playerCollision(events.getPlayer(i), events.getOther(i));
+                }
+            } else if (volume.getKind() == TriggerVolume.Kind.KILL_ZONE) {
+                playerLeftWorldBoundaries(events.getPlayer(i));
+            }
+        }
+    }
+
     @Override
     public void playerJoined(GameObjectControl player) {
         if (players.size() == 1) {
@@ -123,9 +144,10 @@ public class TagGameMode extends GameMode {
 
     @Override
     public void playerLeftWorldBoundaries(GameObjectControl player) {
-        UpdateGameObjectPositionMessage updatePos = new UpdateGameObjectPositionMessage(null, spawnPosition, player.getId());
-        updatePos.setReliable(true);
-        server.broadcast(new SetGameObjectLocationMessage(spawnPosition, player.getId()));
+        SetGameObjectLocationMessage message = new SetGameObjectLocationMessage(world, spawnPosition, player.getId());
+        // the server moves predicted players itself
+        message.applyToWorld(world);
+        room.broadcastToInterested(player.getId(), message);
         System.out.println("Player left world boundaries.");
     }
     
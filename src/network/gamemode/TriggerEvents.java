@@ -0,0 +1,99 @@
+package network.gamemode;
+
+import java.util.Arrays;
+import world.GameObjectControl;
+
+/**
+ * All trigger and collision events of one tick.
+ * 
+ * An event is either a contact between two players (getVolume() returns null)
+ * or a player and a TriggerVolume (getOther() returns null).
+ * The buffer is reused every tick, so do not keep references to it.
+ *
+ * @author Marco Klein
+ */
+public class TriggerEvents {
+    
+    public enum Phase {
+        /**
+         * First tick of the contact.
+         */
+        ENTER,
+        /**
+         * Contact continues.
+         */
+        STAY,
+        /**
+         * Contact ended (first tick without contact).
+         */
+        EXIT
+    }
+    
+    private Phase[] phases = new Phase[16];
+    private GameObjectControl[] players = new GameObjectControl[16];
+    private GameObjectControl[] others = new GameObjectControl[16];
+    private TriggerVolume[] volumes = new TriggerVolume[16];
+    private int size;
+    
+    void addContact(Phase phase, GameObjectControl player, GameObjectControl other) {
+        add(phase, player, other, null);
+    }
+    
+    void addVolume(Phase phase, GameObjectControl player, TriggerVolume volume) {
+        add(phase, player, null, volume);
+    }
+    
+    private void add(Phase phase, GameObjectControl player, GameObjectControl other, TriggerVolume volume) {
+        if (size == phases.length) {
+            phases = Arrays.copyOf(phases, size * 2);
+            players = Arrays.copyOf(players, size * 2);
+            others = Arrays.copyOf(others, size * 2);
+            volumes = Arrays.copyOf(volumes, size * 2);
+        }
+        phases[size] = phase;
+        players[size] = player;
+        others[size] = other;
+        volumes[size] = volume;
+        size++;
+    }
+    
+    void clear() {
+        Arrays.fill(players, 0, size, null);
+        Arrays.fill(others, 0, size, null);
+        Arrays.fill(volumes, 0, size, null);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+    
+    public Phase getPhase(int index) {
+        return phases[index];
+    }
+    
+    public GameObjectControl getPlayer(int index) {
+        return players[index];
+    }
+    
+    /**
+     * The other player of a contact or null if the event belongs to a volume.
+     * 
+     * @param index
+     * @return 
+     */
+    public GameObjectControl getOther(int index) {
+        return others[index];
+    }
+    
+    /**
+     * The volume of the event or null if the event is a contact of two players.
+     * 
+     * @param index
+     * @return 
+     */
+    public TriggerVolume getVolume(int index) {
+        return volumes[index];
+    }
+    
+}
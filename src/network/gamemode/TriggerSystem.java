@@ -0,0 +1,210 @@
+package network.gamemode;
+
+import com.jme3.math.Vector3f;
+import java.util.ArrayList;
+import java.util.Arrays;
+import world.GameObjectControl;
+import world.IdList;
+import world.World;
+
+/**
+ * Detects contacts between players and players inside TriggerVolumes and turns
+ * them into enter, stay and exit events.
+ * 
+ * Player contacts are found with a PlayerBroadphase. Every contact (and every
+ * player inside a volume) is stored as a sorted key, so comparing the contacts of
+ * this tick with the ones of the last tick is a single merge without creating
+ * objects.
+ *
+ * @author Marco Klein
+ */
+public class TriggerSystem {
+    
+    private World world;
+    /**
+     * Players closer than this distance are in contact.
+     */
+    private float contactDistance;
+    
+    private ArrayList<TriggerVolume> volumes = new ArrayList<>();
+    private IdList volumeIds = new IdList();
+    private int nextVolumeId;
+    
+    private PlayerBroadphase broadphase = new PlayerBroadphase();
+    private IdList pairs = new IdList();
+    
+    private long[] contacts = new long[16];
+    private int contactCount;
+    private long[] previousContacts = new long[16];
+    private int previousContactCount;
+    
+    private long[] insides = new long[16];
+    private int insideCount;
+    private long[] previousInsides = new long[16];
+    private int previousInsideCount;
+
+    public TriggerSystem(World world, float contactDistance) {
+        this.world = world;
+        this.contactDistance = contactDistance;
+    }
+    
+    public void addVolume(TriggerVolume volume) {
+        volumes.add(volume);
+        volumeIds.add(nextVolumeId++);
+    }
+    
+    /**
+     * Removes the volume. No exit events are reported for players inside it.
+     * 
+     * @param volume 
+     */
+    public void removeVolume(TriggerVolume volume) {
+        int index = volumes.indexOf(volume);
+        if (index >= 0) {
+            volumes.remove(index);
+            // keep ids in the same order as the volumes
+            for (int i = index; i < volumeIds.size() - 1; i++) {
+                volumeIds.set(i, volumeIds.get(i + 1));
+            }
+            volumeIds.removeAt(volumeIds.size() - 1);
+        }
+    }
+
+    public ArrayList<TriggerVolume> getVolumes() {
+        return volumes;
+    }
+    
+    /**
+     * Finds all contacts and volume overlaps of the given players and fills
+     * events with the changes since the last call.
+     * 
+     * @param players
+     * @param events cleared and filled with the events of this tick
+     */
+    public void update(ArrayList<GameObjectControl> players, TriggerEvents events) {
+        events.clear();
+        swapBuffers();
+        
+        // contacts between players
+        int count = players.size();
+        broadphase.reset(count);
+        for (int i = 0; i < count; i++) {
+            Vector3f location = players.get(i).getGameObject().getLocalTranslation();
+            broadphase.setPosition(i, location.x, location.y, location.z);
+        }
+        broadphase.findPairs(contactDistance, pairs);
+        contactCount = 0;
+        for (int i = 0; i < pairs.size(); i += 2) {
+            int a = players.get(pairs.get(i)).getId();
+            int b = players.get(pairs.get(i + 1)).getId();
+            addContact(key(Math.min(a, b), Math.max(a, b)));
+        }
+        Arrays.sort(contacts, 0, contactCount);
+        
+        // players inside volumes (there are only a few volumes)
+        insideCount = 0;
+        for (int v = 0; v < volumes.size(); v++) {
+            TriggerVolume volume = volumes.get(v);
+            for (int i = 0; i < count; i++) {
+                GameObjectControl player = players.get(i);
+                Vector3f location = player.getGameObject().getLocalTranslation();
+                if (volume.contains(location.x, location.y, location.z)) {
+                    addInside(key(volumeIds.get(v), player.getId()));
+                }
+            }
+        }
+        Arrays.sort(insides, 0, insideCount);
+        
+        diffContacts(events);
+        diffInsides(events);
+    }
+    
+    private void diffContacts(TriggerEvents events) {
+        int i = 0;
+        int j = 0;
+        while (i < contactCount || j < previousContactCount) {
+            if (j >= previousContactCount || (i < contactCount && contacts[i] < previousContacts[j])) {
+                reportContact(TriggerEvents.Phase.ENTER, contacts[i++], events);
+            } else if (i >= contactCount || previousContacts[j] < contacts[i]) {
+                reportContact(TriggerEvents.Phase.EXIT, previousContacts[j++], events);
+            } else {
+                reportContact(TriggerEvents.Phase.STAY, contacts[i], events);
+                i++;
+                j++;
+            }
+        }
+    }
+    
+    private void diffInsides(TriggerEvents events) {
+        int i = 0;
+        int j = 0;
+        while (i < insideCount || j < previousInsideCount) {
+            if (j >= previousInsideCount || (i < insideCount && insides[i] < previousInsides[j])) {
+                reportVolume(TriggerEvents.Phase.ENTER, insides[i++], events);
+            } else if (i >= insideCount || previousInsides[j] < insides[i]) {
+                reportVolume(TriggerEvents.Phase.EXIT, previousInsides[j++], events);
+            } else {
+                reportVolume(TriggerEvents.Phase.STAY, insides[i], events);
+                i++;
+                j++;
+            }
+        }
+    }
+    
+    private void reportContact(TriggerEvents.Phase phase, long key, TriggerEvents events) {
+        GameObjectControl a = world.getGameObjectControl(high(key));
+        GameObjectControl b = world.getGameObjectControl(low(key));
+        // players which left the game are not reported
+        if (a != null && b != null) {
+            events.addContact(phase, a, b);
+        }
+    }
+    
+    private void reportVolume(TriggerEvents.Phase phase, long key, TriggerEvents events) {
+        int index = volumeIds.indexOf(high(key));
+        GameObjectControl player = world.getGameObjectControl(low(key));
+        // removed volumes and players which left the game are not reported
+        if (index >= 0 && player != null) {
+            events.addVolume(phase, player, volumes.get(index));
+        }
+    }
+    
+    private void swapBuffers() {
+        long[] temp = previousContacts;
+        previousContacts = contacts;
+        previousContactCount = contactCount;
+        contacts = temp;
+        
+        temp = previousInsides;
+        previousInsides = insides;
+        previousInsideCount = insideCount;
+        insides = temp;
+    }
+    
+    private void addContact(long key) {
+        if (contactCount == contacts.length) {
+            contacts = Arrays.copyOf(contacts, contactCount * 2);
+        }
+        contacts[contactCount++] = key;
+    }
+    
+    private void addInside(long key) {
+        if (insideCount == insides.length) {
+            insides = Arrays.copyOf(insides, insideCount * 2);
+        }
+        insides[insideCount++] = key;
+    }
+    
+    private static long key(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+    
+    private static int high(long key) {
+        return (int) (key >>> 32);
+    }
+    
+    private static int low(long key) {
+        return (int) key;
+    }
+    
+}
@@ -0,0 +1,69 @@
+package network.gamemode;
+
+import com.jme3.math.Vector3f;
+
+/**
+ * Axis aligned box which reports players entering, staying in and leaving it.
+ * 
+ * A volume of kind BOUNDS tells the game mode that a player left the world if
+ * the player exits it, a KILL_ZONE if the player enters it. Volumes of kind
+ * TRIGGER are only reported as trigger events.
+ *
+ * @author Marco Klein
+ */
+public class TriggerVolume {
+    
+    public enum Kind {
+        TRIGGER,
+        BOUNDS,
+        KILL_ZONE
+    }
+    
+    private String name;
+    private Kind kind;
+    private Vector3f min;
+    private Vector3f max;
+
+    public TriggerVolume(String name, Kind kind, Vector3f min, Vector3f max) {
+        this.name = name;
+        this.kind = kind;
+        this.min = min;
+        this.max = max;
+    }
+    
+    /**
+     * Creates a kill zone containing everything below the given height.
+     * 
+     * @param name
+     * @param height
+     * @return 
+     */
+    public static TriggerVolume below(String name, float height) {
+        return new TriggerVolume(name, Kind.KILL_ZONE,
+                new Vector3f(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY),
+                new Vector3f(Float.POSITIVE_INFINITY, height, Float.POSITIVE_INFINITY));
+    }
+    
+    public boolean contains(float x, float y, float z) {
+        return x >= min.x && x <= max.x
+                && y >= min.y && y <= max.y
+                && z >= min.z && z <= max.z;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Vector3f getMin() {
+        return min;
+    }
+
+    public Vector3f getMax() {
+        return max;
+    }
+    
+}
@@ -11,7 +11,11 @@ import com.jme3.network.serializing.Serializable;
 @Serializable
 public class IdentificationMessage extends AbstractMessage {
     
-    private String playerName;
+    String playerName;
+    /**
+     * Room the player wants to join. The default room is used if null.
+     */
+    String roomName;
 
     public IdentificationMessage() {
     }
@@ -20,6 +24,11 @@ public class IdentificationMessage extends AbstractMessage {
         this.playerName = playerName;
     }
 
+    public IdentificationMessage(String playerName, String roomName) {
+        this.playerName = playerName;
+        this.roomName = roomName;
+    }
+
     public String getPlayerName() {
         return playerName;
     }
@@ -27,5 +36,13 @@ public class IdentificationMessage extends AbstractMessage {
     public void setPlayerName(String playerName) {
         this.playerName = playerName;
     }
+
+    public String getRoomName() {
+        return roomName;
+    }
+
+    public void setRoomName(String roomName) {
+        this.roomName = roomName;
+    }
     
 }
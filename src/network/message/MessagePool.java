@@ -0,0 +1,101 @@
+package network.message;
+
+/**
+ * Recycles message objects of one type, so messages which are sent or
+ * received many times per second do not create garbage.
+ *
+ * obtain() returns a released message or a new one if the pool is empty. The
+ * owner of a message releases it when it is done with it: the sender after
+ * client.send() or connection.send() returned (the message is serialized
+ * right away), the receiver after it has been applied. A released message must
+ * not be used anymore and must not be released twice. A message which is never
+ * released is simply garbage collected.
+ *
+ * Messages of pooled types are obtained from their pool by the generated
+ * serializers (see network.serializer.SerializerProcessor), so received
+ * messages are recycled as well. May be used by any thread.
+ *
+ * @author Marco Klein
+ */
+public abstract class MessagePool<T> {
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final Object[] free;
+    private int size;
+
+    private long created;
+    private long reused;
+
+    public MessagePool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity maximum number of released messages which are kept
+     */
+    public MessagePool(int capacity) {
+        free = new Object[capacity];
+    }
+
+    /**
+     * @return new message of the pooled type
+     */
+    protected abstract T create();
+
+    /**
+     * @return released or new message - all fields must be set before it is
+     * used
+     */
+    @SuppressWarnings("unchecked")
+    public T obtain() {
+        synchronized (this) {
+            if (size > 0) {
+                reused++;
+                T message = (T) free[--size];
+                free[size] = null;
+                return message;
+            }
+            created++;
+        }
+        return create();
+    }
+
+    /**
+     * Returns the message to the pool. If the pool is full the message is left
+     * to the garbage collector.
+     *
+     * @param message
+     */
+    public synchronized void release(T message) {
+        if (size < free.length) {
+            free[size++] = message;
+        }
+    }
+
+    /**
+     * @return number of released messages in the pool
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return free.length;
+    }
+
+    /**
+     * @return number of messages which had to be created
+     */
+    public synchronized long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return number of released messages which were obtained again
+     */
+    public synchronized long getReused() {
+        return reused;
+    }
+
+}
@@ -11,8 +11,8 @@ import com.jme3.network.serializing.Serializable;
 @Serializable
 public class NewPlayerMessage extends AbstractMessage {
     
-    private String playerName;
-    private int playerId;
+    String playerName;
+    int playerId;
 
     public NewPlayerMessage() {
     }
@@ -0,0 +1,98 @@
+package network.message;
+
+import com.jme3.network.AbstractMessage;
+import com.jme3.network.serializing.Serializable;
+import simulator.PlayerInput;
+
+/**
+ * Sent by a client with predicted movement: the newest inputs of its player.
+ *
+ * The message is unreliable, so it contains the last few inputs the server has
+ * not acknowledged yet. Inputs are numbered consecutively, the last one has the
+ * given sequence number. Each input takes three bytes (buttons and yaw).
+ *
+ * Sent every frame, so instances are recycled with POOL. The server releases a
+ * received message after its inputs have been applied.
+ *
+ * @author Marco Klein
+ */
+@Serializable
+public class PlayerInputMessage extends AbstractMessage {
+
+    public static final MessagePool<PlayerInputMessage> POOL = new MessagePool<PlayerInputMessage>() {
+
+        @Override
+        protected PlayerInputMessage create() {
+            return new PlayerInputMessage();
+        }
+
+    };
+
+    int sequence;
+    byte[] buttons;
+    short[] yaws;
+
+    public PlayerInputMessage() {
+        super(false);
+    }
+
+    /**
+     * @param inputs consecutive inputs, oldest first
+     * @param count number of inputs to send
+     */
+    public PlayerInputMessage(PlayerInput[] inputs, int count) {
+        super(false);
+        set(inputs, count);
+    }
+
+    /**
+     * The arrays of the message are reused if they have the right size.
+     *
+     * @param inputs consecutive inputs, oldest first
+     * @param count number of inputs to send
+     * @return this
+     */
+    public final PlayerInputMessage set(PlayerInput[] inputs, int count) {
+        if (buttons == null || buttons.length != count) {
+            buttons = new byte[count];
+            yaws = new short[count];
+        }
+        for (int i = 0; i < count; i++) {
+            buttons[i] = inputs[i].getButtons();
+            yaws[i] = inputs[i].getPackedYaw();
+        }
+        sequence = count == 0 ? -1 : inputs[count - 1].getSequence();
+        return this;
+    }
+
+    /**
+     * Returns the message to POOL. It must not be used anymore.
+     */
+    public void release() {
+        POOL.release(this);
+    }
+
+    /**
+     * @return number of inputs
+     */
+    public int size() {
+        return buttons.length;
+    }
+
+    /**
+     * @return sequence number of the newest input
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @param index 0 for the oldest input
+     * @param store
+     * @return
+     */
+    public PlayerInput getInput(int index, PlayerInput store) {
+        return store.set(sequence - size() + 1 + index, buttons[index], yaws[index]);
+    }
+
+}
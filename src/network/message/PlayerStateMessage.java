@@ -0,0 +1,100 @@
+package network.message;
+
+import com.jme3.math.Vector3f;
+import com.jme3.network.AbstractMessage;
+import com.jme3.network.serializing.Serializable;
+import simulator.PlayerSimulationControl;
+
+/**
+ * Sent by the server to a client with predicted movement: the authoritative
+ * state of its player after the input with the given sequence number.
+ *
+ * The client corrects its prediction if it differs and replays its newer
+ * inputs. The state is not quantized since it is the starting point of the
+ * replay.
+ *
+ * Sent every tick, so instances are recycled with POOL. The client releases a
+ * received message after it corrected its prediction.
+ *
+ * @author Marco Klein
+ */
+@Serializable
+public class PlayerStateMessage extends AbstractMessage {
+
+    public static final MessagePool<PlayerStateMessage> POOL = new MessagePool<PlayerStateMessage>() {
+
+        @Override
+        protected PlayerStateMessage create() {
+            return new PlayerStateMessage();
+        }
+
+    };
+
+    int sequence;
+    Vector3f location;
+    Vector3f velocity;
+    boolean onGround;
+    boolean jumping;
+
+    public PlayerStateMessage() {
+        super(false);
+    }
+
+    public PlayerStateMessage(int sequence, PlayerSimulationControl player) {
+        super(false);
+        set(sequence, player);
+    }
+
+    /**
+     * Copies the state of the player into the message.
+     *
+     * @param sequence
+     * @param player
+     * @return this
+     */
+    public final PlayerStateMessage set(int sequence, PlayerSimulationControl player) {
+        if (location == null) {
+            location = new Vector3f();
+        }
+        if (velocity == null) {
+            velocity = new Vector3f();
+        }
+        this.sequence = sequence;
+        this.location.set(player.getLocation());
+        this.velocity.set(player.getVelocity());
+        this.onGround = player.isOnGround();
+        this.jumping = player.isJumping();
+        return this;
+    }
+
+    /**
+     * Returns the message to POOL. It must not be used anymore.
+     */
+    public void release() {
+        POOL.release(this);
+    }
+
+    /**
+     * @return sequence number of the last input the server applied
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    public Vector3f getLocation() {
+        return location;
+    }
+
+    public Vector3f getVelocity() {
+        return velocity;
+    }
+
+    public boolean isOnGround() {
+        return onGround;
+    }
+
+    public boolean isJumping() {
+        return jumping;
+    }
+
+}
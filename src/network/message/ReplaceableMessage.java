@@ -0,0 +1,17 @@
+package network.message;
+
+/**
+ * An unreliable message which makes an earlier message of the same class with
+ * the same key obsolete, e.g. the transform of a Game Object. A message which
+ * is still waiting to be sent is replaced by the newer one.
+ *
+ * @author Marco Klein
+ */
+public interface ReplaceableMessage {
+
+    /**
+     * @return key of the state the message contains
+     */
+    long getReplaceKey();
+
+}
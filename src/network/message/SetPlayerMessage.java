@@ -11,7 +11,7 @@ import com.jme3.network.serializing.Serializable;
 @Serializable
 public class SetPlayerMessage extends AbstractMessage {
     
-    private int id;
+    int id;
 
     public SetPlayerMessage() {
     }
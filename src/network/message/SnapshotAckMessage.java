@@ -0,0 +1,53 @@
+package network.message;
+
+import com.jme3.network.AbstractMessage;
+import com.jme3.network.serializing.Serializable;
+
+/**
+ * Sent by the client to tell the server the newest snapshot it applied.
+ * The server uses it as baseline for the next snapshots.
+ *
+ * Sent for every snapshot, so instances are recycled with POOL.
+ *
+ * @author Marco Klein
+ */
+@Serializable
+public class SnapshotAckMessage extends AbstractMessage {
+
+    public static final MessagePool<SnapshotAckMessage> POOL = new MessagePool<SnapshotAckMessage>() {
+
+        @Override
+        protected SnapshotAckMessage create() {
+            return new SnapshotAckMessage();
+        }
+
+    };
+
+    long tick;
+
+    public SnapshotAckMessage() {
+        super(false);
+    }
+
+    public SnapshotAckMessage(long tick) {
+        super(false);
+        this.tick = tick;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public SnapshotAckMessage setTick(long tick) {
+        this.tick = tick;
+        return this;
+    }
+
+    /**
+     * Returns the message to POOL. It must not be used anymore.
+     */
+    public void release() {
+        POOL.release(this);
+    }
+
+}
@@ -0,0 +1,143 @@
+package network.message;
+
+import com.jme3.network.AbstractMessage;
+import com.jme3.network.serializing.Serializable;
+import world.IdList;
+
+/**
+ * Transforms of all replicated Game Objects which changed since the baseline
+ * snapshot the client acknowledged.
+ *
+ * Game Objects which are not part of the message did not change since the
+ * baseline. If the baseline is -1 the message contains the full state.
+ * Sent unreliable - the client acknowledges every snapshot it applied with a
+ * SnapshotAckMessage.
+ *
+ * Transforms are encoded with the TransformCodec of the world.
+ *
+ * Sent every tick to every client, so instances are recycled with POOL. Their
+ * arrays are reused as long as the number of entries does not change.
+ *
+ * A snapshot which has not been sent yet is replaced by a newer one, since both
+ * are relative to an acknowledged baseline.
+ *
+ * @author Marco Klein
+ */
+@Serializable
+public class SnapshotMessage extends AbstractMessage implements ReplaceableMessage {
+
+    public static final MessagePool<SnapshotMessage> POOL = new MessagePool<SnapshotMessage>() {
+
+        @Override
+        protected SnapshotMessage create() {
+            return new SnapshotMessage();
+        }
+
+    };
+
+    long tick;
+    long baseline;
+    /**
+     * Ids of the changed Game Objects in ascending order.
+     */
+    int[] ids;
+    /**
+     * Encoded locations of the changed Game Objects.
+     */
+    long[] locations;
+    /**
+     * Encoded rotations of the models of the changed Game Objects.
+     */
+    int[] rotations;
+    /**
+     * Ids of the Game Objects of the baseline which are not replicated anymore.
+     */
+    int[] removedIds;
+
+    public SnapshotMessage() {
+        super(false);
+    }
+
+    public SnapshotMessage(long tick, long baseline, int[] ids, long[] locations, int[] rotations, int[] removedIds) {
+        super(false);
+        this.tick = tick;
+        this.baseline = baseline;
+        this.ids = ids;
+        this.locations = locations;
+        this.rotations = rotations;
+        this.removedIds = removedIds;
+    }
+
+    /**
+     * Copies the given entries into the message. The arrays of the message are
+     * reused if they have the right size.
+     *
+     * @param tick
+     * @param baseline
+     * @param ids
+     * @param locations encoded locations, at least ids.size() entries
+     * @param rotations encoded rotations, at least ids.size() entries
+     * @param removedIds
+     * @return this
+     */
+    public SnapshotMessage set(long tick, long baseline, IdList ids, long[] locations, int[] rotations, IdList removedIds) {
+        int size = ids.size();
+        this.tick = tick;
+        this.baseline = baseline;
+        this.ids = ids.toArray(this.ids);
+        if (this.locations == null || this.locations.length != size) {
+            this.locations = new long[size];
+            this.rotations = new int[size];
+        }
+        System.arraycopy(locations, 0, this.locations, 0, size);
+        System.arraycopy(rotations, 0, this.rotations, 0, size);
+        this.removedIds = removedIds.toArray(this.removedIds);
+        return this;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public long getBaseline() {
+        return baseline;
+    }
+
+    public boolean isFull() {
+        return baseline < 0;
+    }
+
+    public int[] getIds() {
+        return ids;
+    }
+
+    public long[] getLocations() {
+        return locations;
+    }
+
+    public int[] getRotations() {
+        return rotations;
+    }
+
+    public int[] getRemovedIds() {
+        return removedIds;
+    }
+
+    /**
+     * A client only needs the latest snapshot.
+     *
+     * @return 0
+     */
+    @Override
+    public long getReplaceKey() {
+        return 0;
+    }
+
+    /**
+     * Returns the message to POOL. It must not be used anymore.
+     */
+    public void release() {
+        POOL.release(this);
+    }
+
+}
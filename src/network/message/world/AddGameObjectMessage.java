@@ -4,6 +4,7 @@ import com.jme3.network.serializing.Serializable;
 import com.jme3.scene.Node;
 import world.World;
 import world.GameObjectControl;
+import world.GameObjectNode;
 import world.gameobject.logic.Logic;
 import world.gameobject.model.Model;
 
@@ -39,7 +40,7 @@ public class AddGameObjectMessage extends GameObjectMessage {
 
     @Override
     public void applyToGameObject(World world, Node gameObject, GameObjectControl gameObjectControl) {
-        gameObject = new Node("GameObject");
+        gameObject = new GameObjectNode("GameObject");
         gameObjectControl = new GameObjectControl(world, model, logic);
         gameObject.addControl(gameObjectControl);
         world.addGameObject(gameObject, id);
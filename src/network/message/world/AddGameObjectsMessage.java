@@ -0,0 +1,45 @@
+package network.message.world;
+
+import com.jme3.network.serializing.Serializable;
+import com.jme3.scene.Node;
+import world.World;
+
+/**
+ * Adds several game objects at once.
+ * Sent instead of one AddGameObjectMessage per game object if the server world
+ * commits a batch.
+ *
+ * @author Marco Klein
+ */
+@Serializable
+public class AddGameObjectsMessage extends WorldMessage {
+    
+    AddGameObjectMessage[] gameObjectMsgs;
+
+    public AddGameObjectsMessage() {
+    }
+
+    public AddGameObjectsMessage(Node[] gameObjects) {
+        gameObjectMsgs = new AddGameObjectMessage[gameObjects.length];
+        for (int i = 0; i < gameObjects.length; i++) {
+            gameObjectMsgs[i] = new AddGameObjectMessage(gameObjects[i]);
+        }
+    }
+
+    @Override
+    public void applyToWorld(World world) {
+        world.beginBatch();
+        try {
+            for (AddGameObjectMessage msg : gameObjectMsgs) {
+                msg.applyToWorld(world);
+            }
+        } finally {
+            world.commitBatch();
+        }
+    }
+
+    public AddGameObjectMessage[] getGameObjectMsgs() {
+        return gameObjectMsgs;
+    }
+    
+}
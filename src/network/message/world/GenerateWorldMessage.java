@@ -0,0 +1,34 @@
+package network.message.world;
+
+import com.jme3.network.serializing.Serializable;
+import world.World;
+import world.builder.WorldRecipe;
+
+/**
+ * Lets the client generate Game Objects with the given recipe instead of
+ * receiving them one by one.
+ *
+ * @author Marco Klein
+ */
+@Serializable
+public class GenerateWorldMessage extends WorldMessage {
+    
+    WorldRecipe recipe;
+
+    public GenerateWorldMessage() {
+    }
+
+    public GenerateWorldMessage(WorldRecipe recipe) {
+        this.recipe = recipe;
+    }
+
+    @Override
+    public void applyToWorld(World world) {
+        world.generate(recipe);
+    }
+
+    public WorldRecipe getRecipe() {
+        return recipe;
+    }
+    
+}
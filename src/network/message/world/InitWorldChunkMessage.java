@@ -0,0 +1,51 @@
+package network.message.world;
+
+import com.jme3.network.serializing.Serializable;
+import world.World;
+
+/**
+ * Part of the initial Game Objects of a world. Sent after the InitWorldMessage
+ * until all Game Objects have been sent.
+ *
+ * @author Marco Klein
+ */
+@Serializable
+public class InitWorldChunkMessage extends WorldMessage {
+    
+    AddGameObjectMessage[] gameObjectMsgs;
+    /**
+     * Number of Game Objects sent including this chunk.
+     */
+    int loaded;
+    /**
+     * Number of Game Objects which will be sent.
+     */
+    int total;
+
+    public InitWorldChunkMessage() {
+    }
+
+    public InitWorldChunkMessage(AddGameObjectMessage[] gameObjectMsgs, int loaded, int total) {
+        this.gameObjectMsgs = gameObjectMsgs;
+        this.loaded = loaded;
+        this.total = total;
+    }
+
+    @Override
+    public void applyToWorld(World world) {
+        InitWorldMessage.addGameObjects(world, gameObjectMsgs);
+    }
+
+    public int getLoaded() {
+        return loaded;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public boolean isLast() {
+        return loaded == total;
+    }
+    
+}
@@ -3,23 +3,42 @@ package network.message.world;
 import com.jme3.math.Vector3f;
 import com.jme3.network.serializing.Serializable;
 import com.jme3.scene.Node;
+import network.server.ServerTickState;
 import world.GameObjectControl;
+import world.GameObjectNode;
+import world.TransformCodec;
 import world.World;
 
 /**
  * Initializes a world by calling reset and setting the appropriate world size.
+ * 
+ * The initial Game Objects are part of the message or - for big worlds - follow
+ * in InitWorldChunkMessages.
  *
  * @author Marco Klein
  */
 @Serializable
 public class InitWorldMessage extends WorldMessage {
     
-    private Vector3f worldSize;
+    Vector3f worldSize;
+    /**
+     * Precision of the TransformCodec.
+     */
+    int positionBits = TransformCodec.DEFAULT_POSITION_BITS;
+    int rotationBits = TransformCodec.DEFAULT_ROTATION_BITS;
+    /**
+     * Tick rate of the room, the client interpolates the snapshots with it.
+     */
+    int tickRate = ServerTickState.DEFAULT_TICK_RATE;
     
     /**
      * Initial Game Objects.
      */
-    private AddGameObjectMessage[] gameObjectMsgs;
+    AddGameObjectMessage[] gameObjectMsgs;
+    /**
+     * Number of Game Objects which follow in InitWorldChunkMessages.
+     */
+    int streamedGameObjects;
 
     public InitWorldMessage() {
     }
@@ -33,25 +52,91 @@ public class InitWorldMessage extends WorldMessage {
         }
     }
 
+    /**
+     * Initializes the world with the size and precision of the given world.
+     * The Game Objects follow in the given number of InitWorldChunkMessages.
+     * 
+     * @param world
+     * @param streamedGameObjects 
+     */
+    public InitWorldMessage(World world, int streamedGameObjects) {
+        this(world, new Node[0]);
+        this.streamedGameObjects = streamedGameObjects;
+    }
+
+    public InitWorldMessage(World world) {
+        this(world, world.getGameObjects());
+    }
+
+    /**
+     * Initializes the world with the size and precision of the given world and
+     * the given Game Objects.
+     * 
+     * @param world
+     * @param gameObjects 
+     */
+    public InitWorldMessage(World world, Node[] gameObjects) {
+        this(world.getWorldSize(), gameObjects);
+        this.positionBits = world.getTransformCodec().getPositionBits();
+        this.rotationBits = world.getTransformCodec().getRotationBits();
+    }
+
     
     @Override
     public void applyToWorld(World world) {
         world.reset();
-        // world size
+        // world size and precision of transforms
+        world.getTransformCodec().setPrecision(positionBits, rotationBits);
         world.setWorldSize(worldSize);
         
         // add initial game objects
-        for (AddGameObjectMessage msg : gameObjectMsgs) {
-            Node gameObject = new Node("GameObject");
-            world.addGameObject(gameObject, msg.id);
-        }
-        // apply models and logics
-        for (AddGameObjectMessage msg : gameObjectMsgs) {
-            GameObjectControl gameObjectControl = world.getGameObjectControl(msg.id);
-            gameObjectControl.setModel(msg.model);
-            gameObjectControl.setLogic(msg.logic);
+        addGameObjects(world, gameObjectMsgs);
+    }
+
+    /**
+     * Adds the given Game Objects in one batch. All Game Objects are added
+     * before models and logics are applied, so logics may refer to other Game
+     * Objects of the same batch.
+     * 
+     * @param world
+     * @param gameObjectMsgs 
+     */
+    static void addGameObjects(World world, AddGameObjectMessage[] gameObjectMsgs) {
+        world.beginBatch();
+        try {
+            for (AddGameObjectMessage msg : gameObjectMsgs) {
+                Node gameObject = new GameObjectNode("GameObject");
+                world.addGameObject(gameObject, msg.id);
+            }
+            // apply models and logics
+            for (AddGameObjectMessage msg : gameObjectMsgs) {
+                GameObjectControl gameObjectControl = world.getGameObjectControl(msg.id);
+                gameObjectControl.setModel(msg.model);
+                gameObjectControl.setLogic(msg.logic);
+            }
+        } finally {
+            world.commitBatch();
         }
     }
 
+    /**
+     * @param tickRate tick rate of the room
+     * @return this
+     */
+    public InitWorldMessage setTickRate(int tickRate) {
+        this.tickRate = tickRate;
+        return this;
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    /**
+     * @return number of Game Objects which are sent with InitWorldChunkMessages
+     */
+    public int getStreamedGameObjects() {
+        return streamedGameObjects;
+    }
     
 }
@@ -0,0 +1,47 @@
+package network.message.world;
+
+import com.jme3.network.serializing.Serializable;
+import com.jme3.scene.Node;
+import world.World;
+
+/**
+ * Removes several game objects at once.
+ *
+ * @author Marco Klein
+ */
+@Serializable
+public class RemoveGameObjectsMessage extends WorldMessage {
+    
+    int[] ids;
+
+    public RemoveGameObjectsMessage() {
+    }
+
+    public RemoveGameObjectsMessage(Node[] gameObjects) {
+        ids = new int[gameObjects.length];
+        for (int i = 0; i < gameObjects.length; i++) {
+            ids[i] = gameObjects[i].getUserData("Id");
+        }
+    }
+
+    public RemoveGameObjectsMessage(int[] ids) {
+        this.ids = ids;
+    }
+
+    @Override
+    public void applyToWorld(World world) {
+        world.beginBatch();
+        try {
+            for (int id : ids) {
+                world.removeGameObject(id);
+            }
+        } finally {
+            world.commitBatch();
+        }
+    }
+
+    public int[] getIds() {
+        return ids;
+    }
+    
+}
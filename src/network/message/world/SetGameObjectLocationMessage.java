@@ -5,6 +5,7 @@ import com.jme3.bullet.control.RigidBodyControl;
 import com.jme3.math.Vector3f;
 import com.jme3.network.serializing.Serializable;
 import com.jme3.scene.Node;
+import network.client.InterpolationControl;
 import world.GameObjectControl;
 import world.World;
 
@@ -12,24 +13,35 @@ import world.World;
  * Sets the position of a GameObject but looks for physical controls to set the
  * location properly.
  * 
+ * The location is encoded with the TransformCodec of the world.
+ * 
  * @author Marco Klein
  */
 @Serializable
 public class SetGameObjectLocationMessage extends GameObjectMessage {
     
-    private Vector3f location;
+    long location;
 
     public SetGameObjectLocationMessage() {
     }
 
-    public SetGameObjectLocationMessage(Vector3f location, int id) {
+    public SetGameObjectLocationMessage(World world, Vector3f location, int id) {
         super(id);
-        this.location = location;
+        this.location = world.getTransformCodec().encodeLocation(location);
     }
 
 
     @Override
     public void applyToGameObject(World world, Node gameObject, GameObjectControl gameObjectControl) {
+        if (gameObject == null) {
+            return;
+        }
+        Vector3f location = world.getTransformCodec().decodeLocation(this.location, new Vector3f());
+        InterpolationControl interpolation = gameObject.getControl(InterpolationControl.class);
+        if (interpolation != null) {
+            // teleport - do not interpolate from the old location
+            interpolation.clear();
+        }
         RigidBodyControl bodyControl = gameObject.getControl(RigidBodyControl.class);
         if (bodyControl != null) {
             bodyControl.getPhysicsLocation().set(location);
@@ -5,42 +5,132 @@ import com.jme3.math.Vector3f;
 import com.jme3.network.serializing.Serializable;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
+import com.jme3.util.TempVars;
+import network.client.InterpolationControl;
+import network.message.MessagePool;
+import network.message.ReplaceableMessage;
 import world.GameObjectControl;
+import world.PooledCommand;
+import world.TransformCodec;
 import world.World;
 
 /**
+ * Sets the location and the rotation of the model of a Game Object.
+ *
+ * Location and rotation are encoded with the TransformCodec of the world. If
+ * the Game Object is interpolated (remote Game Objects on clients) the transform
+ * is added as a sample at the current server time instead of being set.
+ *
+ * Sent every frame, so instances are recycled with POOL. A received message is
+ * released after it has been applied. A newer update of the same Game Object
+ * with the same parts of the transform replaces one which has not been sent yet.
  *
  * @author Marco Klein
  */
 @Serializable
-public class UpdateGameObjectPositionMessage extends GameObjectMessage {
+public class UpdateGameObjectPositionMessage extends GameObjectMessage implements PooledCommand, ReplaceableMessage {
+
+    public static final MessagePool<UpdateGameObjectPositionMessage> POOL = new MessagePool<UpdateGameObjectPositionMessage>() {
+
+        @Override
+        protected UpdateGameObjectPositionMessage create() {
+            return new UpdateGameObjectPositionMessage();
+        }
+
+    };
+
+    private static final byte HAS_ROTATION = 1;
+    private static final byte HAS_LOCATION = 2;
 
-    private Quaternion rotation;
-    private Vector3f location;
+    byte flags;
+    int rotation;
+    long location;
 
     public UpdateGameObjectPositionMessage() {
     }
 
     public UpdateGameObjectPositionMessage(Spatial gameObject) {
-        super((int) gameObject.getUserData("Id"), false);
-        this.rotation = ((Node) gameObject).getChild("Model").getLocalRotation();
-        this.location = gameObject.getLocalTranslation();
+        set(gameObject);
     }
     
-    public UpdateGameObjectPositionMessage(Quaternion rotation, Vector3f location, int id) {
-        super(id, false);
-        this.rotation = rotation;
-        this.location = location;
+    /**
+     * @param world
+     * @param rotation rotation of the model or null to keep the rotation
+     * @param location location or null to keep the location
+     * @param id 
+     */
+    public UpdateGameObjectPositionMessage(World world, Quaternion rotation, Vector3f location, int id) {
+        set(world, rotation, location, id);
     }
 
-    @Override
-    public void applyToGameObject(World world, Node gameObject, GameObjectControl gameObjectControl) {
+    /**
+     * Sets the current transform of the given Game Object.
+     *
+     * @param gameObject
+     * @return this
+     */
+    public final UpdateGameObjectPositionMessage set(Spatial gameObject) {
+        return set(gameObject.getControl(GameObjectControl.class).getWorld(),
+                ((Node) gameObject).getChild("Model").getLocalRotation(),
+                gameObject.getLocalTranslation(),
+                (int) gameObject.getUserData("Id"));
+    }
+
+    /**
+     * @param world
+     * @param rotation rotation of the model or null to keep the rotation
+     * @param location location or null to keep the location
+     * @param id
+     * @return this
+     */
+    public final UpdateGameObjectPositionMessage set(World world, Quaternion rotation, Vector3f location, int id) {
+        setReliable(false);
+        this.id = id;
+        flags = 0;
+        TransformCodec codec = world.getTransformCodec();
         if (rotation != null) {
-            gameObjectControl.getModelNode().setLocalRotation(rotation);
+            flags |= HAS_ROTATION;
+            this.rotation = codec.encodeRotation(rotation);
         }
         if (location != null) {
-            gameObject.setLocalTranslation(location);
+            flags |= HAS_LOCATION;
+            this.location = codec.encodeLocation(location);
         }
+        return this;
+    }
+
+    @Override
+    public void applyToGameObject(World world, Node gameObject, GameObjectControl gameObjectControl) {
+        if (gameObject == null) {
+            return;
+        }
+        TransformCodec codec = world.getTransformCodec();
+        InterpolationControl interpolation = gameObject.getControl(InterpolationControl.class);
+        if (interpolation != null && flags == (HAS_ROTATION | HAS_LOCATION)) {
+            TempVars vars = TempVars.get();
+            interpolation.addSample(interpolation.getClock().getServerTime(),
+                    codec.decodeLocation(location, vars.vect1),
+                    codec.decodeRotation(rotation, vars.quat1));
+            vars.release();
+            return;
+        }
+        if ((flags & HAS_ROTATION) != 0) {
+            Spatial modelNode = gameObjectControl.getModelNode();
+            modelNode.setLocalRotation(codec.decodeRotation(rotation, modelNode.getLocalRotation()));
+        }
+        if ((flags & HAS_LOCATION) != 0) {
+            gameObject.setLocalTranslation(codec.decodeLocation(location, gameObject.getLocalTranslation()));
+        }
+    }
+
+    @Override
+    public long getReplaceKey() {
+        return (long) id << 8 | flags;
+    }
+
+    @Override
+    public void release() {
+        POOL.release(this);
     }
     
 }
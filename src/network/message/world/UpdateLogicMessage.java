@@ -18,7 +18,7 @@ import world.gameobject.logic.Logic;
 @Serializable
 public class UpdateLogicMessage extends GameObjectMessage {
     
-    private Logic logic;
+    Logic logic;
 
     public UpdateLogicMessage() {
     }
@@ -17,7 +17,7 @@ import world.gameobject.model.Model;
 @Serializable
 public class UpdateModelMessage extends GameObjectMessage {
     
-    private Model model;
+    Model model;
 
     public UpdateModelMessage() {
     }
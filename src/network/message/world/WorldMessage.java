@@ -3,6 +3,7 @@ package network.message.world;
 import com.jme3.network.AbstractMessage;
 import com.jme3.network.serializing.Serializable;
 import world.World;
+import world.WorldCommand;
 
 /**
  * Abstract super class for all messages which change the world.
@@ -13,7 +14,7 @@ import world.World;
  * @author Marco Klein
  */
 @Serializable
-public abstract class WorldMessage extends AbstractMessage {
+public abstract class WorldMessage extends AbstractMessage implements WorldCommand {
 
     public WorldMessage() {
     }
@@ -22,5 +23,6 @@ public abstract class WorldMessage extends AbstractMessage {
         super(reliable);
     }
     
+    @Override
     public abstract void applyToWorld(World world);
 }
@@ -0,0 +1,55 @@
+package network.message.world;
+
+import com.jme3.network.Message;
+import com.jme3.network.serializing.Serializable;
+import java.util.List;
+import world.PooledCommand;
+import world.World;
+
+/**
+ * Several world messages of one server tick sent as a single message.
+ * The messages are applied in order in one batch, so the client sees all
+ * changes of the tick at once. Pooled messages of the bundle are released after
+ * they have been applied.
+ *
+ * On the server the bundle may contain SerializedMessages (world messages shared
+ * by several clients which are serialized once). They are read as the world
+ * messages they contain, so a received bundle only contains WorldMessages.
+ *
+ * @author Marco Klein
+ */
+@Serializable
+public class WorldMessageBundle extends WorldMessage {
+    
+    Message[] messages;
+
+    public WorldMessageBundle() {
+    }
+
+    public WorldMessageBundle(List<? extends Message> messages, boolean reliable) {
+        super(reliable);
+        this.messages = messages.toArray(new Message[messages.size()]);
+    }
+
+    @Override
+    public void applyToWorld(World world) {
+        world.beginBatch();
+        try {
+            for (Message message : messages) {
+                ((WorldMessage) message).applyToWorld(world);
+            }
+        } finally {
+            world.commitBatch();
+        }
+        for (Message message : messages) {
+            if (message instanceof PooledCommand) {
+                ((PooledCommand) message).release();
+            }
+        }
+    }
+
+    public Message[] getMessages() {
+        return messages;
+    }
+    
+}
@@ -0,0 +1,393 @@
+package network.serializer;
+
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.network.serializing.Serializer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Base class of the serializers generated by the SerializerProcessor.
+ *
+ * The generated serializers read and write the fields of a class directly
+ * instead of using reflection like the FieldSerializer of jME. This class
+ * contains the helpers they share: arrays are written with their length (-1
+ * for null), Strings as UTF-8 and the math classes of jME with a leading null
+ * flag. All other objects are written with their class id.
+ *
+ * The read methods with a store parameter reuse the given array or object, so
+ * messages which are recycled with a MessagePool are read without creating
+ * garbage.
+ *
+ * @author Marco Klein
+ */
+public abstract class GeneratedSerializer extends Serializer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static void writeString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    public static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    public static void writeVector3f(ByteBuffer buffer, Vector3f value) {
+        if (value == null) {
+            buffer.put((byte) 0);
+            return;
+        }
+        buffer.put((byte) 1);
+        buffer.putFloat(value.x);
+        buffer.putFloat(value.y);
+        buffer.putFloat(value.z);
+    }
+
+    public static Vector3f readVector3f(ByteBuffer buffer) {
+        return readVector3f(buffer, null);
+    }
+
+    /**
+     * @param buffer
+     * @param store object which is set if not null
+     * @return
+     */
+    public static Vector3f readVector3f(ByteBuffer buffer, Vector3f store) {
+        if (buffer.get() == 0) {
+            return null;
+        }
+        if (store != null) {
+            return store.set(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+        }
+        return new Vector3f(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+    }
+
+    public static void writeQuaternion(ByteBuffer buffer, Quaternion value) {
+        if (value == null) {
+            buffer.put((byte) 0);
+            return;
+        }
+        buffer.put((byte) 1);
+        buffer.putFloat(value.getX());
+        buffer.putFloat(value.getY());
+        buffer.putFloat(value.getZ());
+        buffer.putFloat(value.getW());
+    }
+
+    public static Quaternion readQuaternion(ByteBuffer buffer) {
+        return readQuaternion(buffer, null);
+    }
+
+    /**
+     * @param buffer
+     * @param store object which is set if not null
+     * @return
+     */
+    public static Quaternion readQuaternion(ByteBuffer buffer, Quaternion store) {
+        if (buffer.get() == 0) {
+            return null;
+        }
+        if (store != null) {
+            return store.set(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+        }
+        return new Quaternion(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+    }
+
+    public static void writeColorRGBA(ByteBuffer buffer, ColorRGBA value) {
+        if (value == null) {
+            buffer.put((byte) 0);
+            return;
+        }
+        buffer.put((byte) 1);
+        buffer.putFloat(value.r);
+        buffer.putFloat(value.g);
+        buffer.putFloat(value.b);
+        buffer.putFloat(value.a);
+    }
+
+    public static ColorRGBA readColorRGBA(ByteBuffer buffer) {
+        return readColorRGBA(buffer, null);
+    }
+
+    /**
+     * @param buffer
+     * @param store object which is set if not null
+     * @return
+     */
+    public static ColorRGBA readColorRGBA(ByteBuffer buffer, ColorRGBA store) {
+        if (buffer.get() == 0) {
+            return null;
+        }
+        if (store != null) {
+            return store.set(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+        }
+        return new ColorRGBA(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+    }
+
+    public static void writeBooleanArray(ByteBuffer buffer, boolean[] values) {
+        if (values == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(values.length);
+        for (boolean value : values) {
+            buffer.put((byte) (value ? 1 : 0));
+        }
+    }
+
+    public static boolean[] readBooleanArray(ByteBuffer buffer) {
+        return readBooleanArray(buffer, null);
+    }
+
+    /**
+     * @param buffer
+     * @param store array which is used if it has the right length or null
+     * @return
+     */
+    public static boolean[] readBooleanArray(ByteBuffer buffer, boolean[] store) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        boolean[] values = store != null && store.length == length ? store : new boolean[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = buffer.get() != 0;
+        }
+        return values;
+    }
+
+    public static void writeByteArray(ByteBuffer buffer, byte[] values) {
+        if (values == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(values.length);
+        buffer.put(values);
+    }
+
+    public static byte[] readByteArray(ByteBuffer buffer) {
+        return readByteArray(buffer, null);
+    }
+
+    /**
+     * @param buffer
+     * @param store array which is used if it has the right length or null
+     * @return
+     */
+    public static byte[] readByteArray(ByteBuffer buffer, byte[] store) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] values = store != null && store.length == length ? store : new byte[length];
+        buffer.get(values);
+        return values;
+    }
+
+    public static void writeShortArray(ByteBuffer buffer, short[] values) {
+        if (values == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(values.length);
+        for (short value : values) {
+            buffer.putShort(value);
+        }
+    }
+
+    public static short[] readShortArray(ByteBuffer buffer) {
+        return readShortArray(buffer, null);
+    }
+
+    /**
+     * @param buffer
+     * @param store array which is used if it has the right length or null
+     * @return
+     */
+    public static short[] readShortArray(ByteBuffer buffer, short[] store) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        short[] values = store != null && store.length == length ? store : new short[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = buffer.getShort();
+        }
+        return values;
+    }
+
+    public static void writeCharArray(ByteBuffer buffer, char[] values) {
+        if (values == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(values.length);
+        for (char value : values) {
+            buffer.putChar(value);
+        }
+    }
+
+    public static char[] readCharArray(ByteBuffer buffer) {
+        return readCharArray(buffer, null);
+    }
+
+    /**
+     * @param buffer
+     * @param store array which is used if it has the right length or null
+     * @return
+     */
+    public static char[] readCharArray(ByteBuffer buffer, char[] store) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        char[] values = store != null && store.length == length ? store : new char[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = buffer.getChar();
+        }
+        return values;
+    }
+
+    public static void writeIntArray(ByteBuffer buffer, int[] values) {
+        if (values == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(values.length);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+    }
+
+    public static int[] readIntArray(ByteBuffer buffer) {
+        return readIntArray(buffer, null);
+    }
+
+    /**
+     * @param buffer
+     * @param store array which is used if it has the right length or null
+     * @return
+     */
+    public static int[] readIntArray(ByteBuffer buffer, int[] store) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        int[] values = store != null && store.length == length ? store : new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = buffer.getInt();
+        }
+        return values;
+    }
+
+    public static void writeLongArray(ByteBuffer buffer, long[] values) {
+        if (values == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(values.length);
+        for (long value : values) {
+            buffer.putLong(value);
+        }
+    }
+
+    public static long[] readLongArray(ByteBuffer buffer) {
+        return readLongArray(buffer, null);
+    }
+
+    /**
+     * @param buffer
+     * @param store array which is used if it has the right length or null
+     * @return
+     */
+    public static long[] readLongArray(ByteBuffer buffer, long[] store) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        long[] values = store != null && store.length == length ? store : new long[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = buffer.getLong();
+        }
+        return values;
+    }
+
+    public static void writeFloatArray(ByteBuffer buffer, float[] values) {
+        if (values == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(values.length);
+        for (float value : values) {
+            buffer.putFloat(value);
+        }
+    }
+
+    public static float[] readFloatArray(ByteBuffer buffer) {
+        return readFloatArray(buffer, null);
+    }
+
+    /**
+     * @param buffer
+     * @param store array which is used if it has the right length or null
+     * @return
+     */
+    public static float[] readFloatArray(ByteBuffer buffer, float[] store) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        float[] values = store != null && store.length == length ? store : new float[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = buffer.getFloat();
+        }
+        return values;
+    }
+
+    public static void writeDoubleArray(ByteBuffer buffer, double[] values) {
+        if (values == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(values.length);
+        for (double value : values) {
+            buffer.putDouble(value);
+        }
+    }
+
+    public static double[] readDoubleArray(ByteBuffer buffer) {
+        return readDoubleArray(buffer, null);
+    }
+
+    /**
+     * @param buffer
+     * @param store array which is used if it has the right length or null
+     * @return
+     */
+    public static double[] readDoubleArray(ByteBuffer buffer, double[] store) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        double[] values = store != null && store.length == length ? store : new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = buffer.getDouble();
+        }
+        return values;
+    }
+
+}
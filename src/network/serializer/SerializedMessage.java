@@ -0,0 +1,153 @@
+package network.serializer;
+
+import com.jme3.network.AbstractMessage;
+import com.jme3.network.Message;
+import com.jme3.network.serializing.Serializer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import network.message.MessagePool;
+import network.message.ReplaceableMessage;
+
+/**
+ * A message which has already been serialized and can be sent to any number
+ * of clients.
+ *
+ * jME serializes a message again for every connection it is sent to. A
+ * SerializedMessage holds the bytes of another message (including its class
+ * id), so the SerializedMessageSerializer only has to copy them. Clients never
+ * see a SerializedMessage: it is read as the message it contains.
+ *
+ * A message is serialized into a buffer of the sending thread and copied into
+ * a buffer of its own size, which is recycled together with the
+ * SerializedMessage (and only replaced if a bigger message is set). A SerializedMessage is reference counted: set() returns it with one
+ * reference, every additional owner (e.g. the queue of a connection) calls
+ * retain() and every owner calls release() once it is done. The last release
+ * returns it to the pool.
+ *
+ * @author Marco Klein
+ */
+public class SerializedMessage extends AbstractMessage {
+
+    /**
+     * Maximum size of a message of jME minus the class id of the
+     * SerializedMessage.
+     */
+    public static final int MAX_SIZE = 32767 - 2;
+
+    public static final MessagePool<SerializedMessage> POOL = new MessagePool<SerializedMessage>() {
+
+        @Override
+        protected SerializedMessage create() {
+            return new SerializedMessage();
+        }
+
+    };
+
+    private static final int MIN_CAPACITY = 64;
+
+    private static final ThreadLocal<ByteBuffer> SCRATCH = new ThreadLocal<ByteBuffer>() {
+
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(MAX_SIZE);
+        }
+
+    };
+
+    private ByteBuffer buffer = ByteBuffer.allocate(MIN_CAPACITY);
+    private final AtomicInteger references = new AtomicInteger();
+    private final AtomicInteger receivers = new AtomicInteger();
+    private Class<? extends Message> type;
+    private boolean replaceable;
+    private long replaceKey;
+
+    /**
+     * Serializes the given message. The message itself is not used afterwards
+     * and may be released right away.
+     *
+     * @param message
+     * @return this
+     * @throws IOException
+     */
+    public SerializedMessage set(Message message) throws IOException {
+        ByteBuffer scratch = SCRATCH.get();
+        scratch.clear();
+        Serializer.writeClassAndObject(scratch, message);
+        scratch.flip();
+        if (buffer.capacity() < scratch.remaining()) {
+            buffer = ByteBuffer.allocate(Integer.highestOneBit(scratch.remaining() - 1) << 1);
+        }
+        buffer.clear();
+        buffer.put(scratch);
+        buffer.flip();
+        type = message.getClass();
+        setReliable(message.isReliable());
+        replaceable = !message.isReliable() && message instanceof ReplaceableMessage;
+        replaceKey = replaceable ? ((ReplaceableMessage) message).getReplaceKey() : 0;
+        references.set(1);
+        receivers.set(0);
+        return this;
+    }
+
+    /**
+     * Adds an owner which sends the message to one receiver.
+     *
+     * @return this
+     */
+    public SerializedMessage retain() {
+        references.incrementAndGet();
+        receivers.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * @return number of times retain() was called - the number of receivers
+     * of a message which is shared
+     */
+    public int getReceivers() {
+        return receivers.get();
+    }
+
+    /**
+     * Removes an owner. The message must not be used by it anymore.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            type = null;
+            POOL.release(this);
+        }
+    }
+
+    /**
+     * @return read-only view of the serialized message - each reader needs its
+     * own view, since they may read at the same time
+     */
+    public ByteBuffer getPayload() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return size of the serialized message in bytes
+     */
+    public int getSize() {
+        return buffer.limit();
+    }
+
+    /**
+     * @return class of the serialized message
+     */
+    public Class<? extends Message> getType() {
+        return type;
+    }
+
+    /**
+     * @param other
+     * @return true if this message makes the given one obsolete (see
+     * ReplaceableMessage)
+     */
+    public boolean replaces(SerializedMessage other) {
+        return replaceable && other.replaceable && type == other.type && replaceKey == other.replaceKey;
+    }
+
+}
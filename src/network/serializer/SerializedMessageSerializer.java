@@ -0,0 +1,26 @@
+package network.serializer;
+
+import com.jme3.network.serializing.Serializer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the bytes of a SerializedMessage and reads them as the message they
+ * were serialized from.
+ *
+ * @author Marco Klein
+ */
+public class SerializedMessageSerializer extends Serializer {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T readObject(ByteBuffer data, Class<T> c) throws IOException {
+        return (T) Serializer.readClassAndObject(data);
+    }
+
+    @Override
+    public void writeObject(ByteBuffer buffer, Object object) throws IOException {
+        buffer.put(((SerializedMessage) object).getPayload());
+    }
+
+}
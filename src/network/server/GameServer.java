@@ -1,211 +1,201 @@
 package network.server;
 
-import com.jme3.app.Application;
-import com.jme3.app.state.AppStateManager;
-import com.jme3.math.ColorRGBA;
-import com.jme3.math.Vector3f;
 import com.jme3.network.ConnectionListener;
-import com.jme3.network.Filters;
 import com.jme3.network.HostedConnection;
 import com.jme3.network.Message;
 import com.jme3.network.MessageListener;
 import com.jme3.network.Network;
 import com.jme3.network.Server;
-import com.jme3.scene.Node;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Random;
-import java.util.concurrent.Callable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import network.NetworkAppState;
+import javax.management.ObjectName;
 import network.NetworkSerializer;
-import network.gamemode.GameModeManager;
-import network.gamemode.TagGameMode;
 import network.message.IdentificationMessage;
-import network.message.NewPlayerMessage;
-import network.message.SetPlayerMessage;
-import network.message.world.AddGameObjectMessage;
-import network.message.world.InitWorldMessage;
-import network.message.world.RemoveGameObjectMessage;
-import network.message.world.UpdateGameObjectPositionMessage;
-import network.message.world.UpdateLogicMessage;
-import network.message.world.WorldMessage;
-import world.GameObjectControl;
-import world.World;
-import world.WorldListener;
-import world.gameobject.logic.ObstacleLogic;
-import world.gameobject.logic.PlayerLogic;
-import world.gameobject.logic.StaticPhysicsLogic;
-import world.gameobject.model.GroundModel;
-import world.gameobject.model.ObstacleModel;
-import world.gameobject.model.PlayerModel;
+import network.stats.MXBeans;
+import network.stats.TrafficStats;
 
 /**
- * Holds clients which will be handled.
- * 
- * Player names are stored in the HostedConnection with the key "PlayerName"
+ * Accepts clients and routes them to the rooms hosted in this process.
+ *
+ * Every room runs in its own application with its own world and update thread.
+ * A client joins the room named in its IdentificationMessage or the default room
+ * if it did not name one. All later messages of the client are handed to its room.
+ *
+ * Rooms which are started together with the server are announced with
+ * expectRoom() before the server starts. Clients which identify themselves for
+ * an expected room before it is ready wait until the room is added.
+ *
+ * Player names are stored in the HostedConnection with the key "PlayerName",
+ * the joined Room with the key "Room".
+ *
+ * The messages of all rooms are sent by one SendStage, so the update threads
+ * of the rooms do not wait for the network layer.
+ *
+ * The traffic of the server is counted by TrafficStats (connections are named
+ * by their id). While the server runs, the statistics are available over JMX
+ * as "network:type=Traffic,name=Server" and "network:type=SendStage".
  *
  * @author Marco Klein
  */
-public class GameServer extends NetworkAppState implements MessageListener<HostedConnection>, ConnectionListener, WorldListener {
+public class GameServer implements MessageListener<HostedConnection>, ConnectionListener {
     private static final Logger LOG = Logger.getLogger(GameServer.class.getName());
     public static final String NAME = "TagMe";
     public static final int VERSION = 1;
     public static final int TCP_PORT = 5110;
     public static final int UDP_PORT = 5111;
-    
-    private Application app;
+    public static final String DEFAULT_ROOM = "default";
+
     private Server server;
-    
-    private Random random = new Random();
-    
-    private ArrayList<HostedConnection> identifiedConnections = new ArrayList<>();
-    
-    private GameModeManager gameModeManager;
-
-    public GameServer(World world) {
-        super(world);
+    private TrafficStats traffic = new TrafficStats();
+    private SendStage sendStage = new SendStage(traffic);
+    private ObjectName sendStageName;
+
+    private ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    /**
+     * Names of the rooms which have been announced but not added yet, and the
+     * identified connections waiting for them. Guarded by itself.
+     */
+    private HashMap<String, ArrayList<PendingJoin>> pendingJoins = new HashMap<>();
+
+    public GameServer() {
         NetworkSerializer.registerClasses();
     }
 
-    @Override
-    public void stateAttached(AppStateManager stateManager) {
-        app = stateManager.getApplication();
-        // initialize
+    /**
+     * Creates and starts the network server.
+     */
+    public void start() {
         try {
             server = Network.createServer(NAME, VERSION, TCP_PORT, UDP_PORT);
         } catch (IOException ex) {
             Logger.getLogger(GameServer.class.getName()).log(Level.SEVERE, null, ex);
         }
         server.start();
-        
-        // add a game mode state
-        gameModeManager = new GameModeManager(server, world);
-        stateManager.attach(gameModeManager);
-        
+
         // add listeners
         server.addMessageListener(this);
         server.addConnectionListener(this);
+        traffic.register("Server");
+        sendStageName = MXBeans.register(sendStage, "network:type=SendStage");
         LOG.log(Level.INFO, "Server created and started on port {0}", TCP_PORT);
-        
-        // TODO add listener again when world gets reset
-        world.addListener(this);
-        
-        // initialize world
-//        Node ground = new Node();
-//        ground.addControl(new GameObjectControl(world, new GroundModel(), new StaticPhysicsLogic()));
-//        world.addGameObject(ground);
-//        
-//        Node obstacle = new Node();
-//        obstacle.addControl(new GameObjectControl(world, new ObstacleModel(new Vector3f(20, 20, 20)), new ObstacleLogic(new Vector3f(20, 20, 20), 0, new Vector3f(20, 20, 20))));
-//        world.addGameObject(obstacle);
-//        
-//        initObstacles();
-//        LOG.info("World initialized.");
-        
-        // set up game mode
-        gameModeManager.changeGameMode(new TagGameMode());
-    }
-    
-    private void initObstacles() {
-        Vector3f worldSize = new Vector3f(200, 40, 200);
-        for (int i = 0; i < 200; i++) {
-            Vector3f obstacleSize = new Vector3f();
-            obstacleSize.x = (float) (random.nextInt(1000) + 10) / 100f;
-            obstacleSize.y = (float) (random.nextInt(400) + 10) / 100f;
-            obstacleSize.z = (float) (random.nextInt(1000) + 10) / 100f;
-            
-            Vector3f targetPosition = new Vector3f();
-            // get a random position
-            targetPosition.x = (float) random.nextInt((int) (worldSize.x * 1000)) / 1000f;
-            targetPosition.y = (float) random.nextInt((int) (worldSize.y * 1000)) / 1000f;
-            targetPosition.z = (float) random.nextInt((int) (worldSize.z * 1000)) / 1000f;
-            
-            Node obstacle = new Node();
-            obstacle.addControl(new GameObjectControl(world, new ObstacleModel(obstacleSize), new ObstacleLogic(targetPosition, 0, targetPosition)));
-            
-            
-            world.addGameObject(obstacle);
+    }
+
+    public void close() {
+        if (server != null && server.isRunning()) {
+            server.removeMessageListener(this);
+            server.removeConnectionListener(this);
+            server.close();
         }
+        sendStage.shutdown();
+        traffic.unregister();
+        MXBeans.unregister(sendStageName);
+        sendStageName = null;
     }
 
-    @Override
-    public void stateDetached(AppStateManager stateManager) {
-        stateManager.detach(gameModeManager);
-        server.removeMessageListener(this);
-        // cleanup
-        server.close();
+    /**
+     * Announces a room which will be added soon. Clients which want to join it
+     * before it is ready wait instead of being rejected.
+     *
+     * @param name
+     */
+    public void expectRoom(String name) {
+        synchronized (pendingJoins) {
+            if (!rooms.containsKey(name) && !pendingJoins.containsKey(name)) {
+                pendingJoins.put(name, new ArrayList<PendingJoin>());
+            }
+        }
     }
 
-    @Override
-    public void cleanup() {
-        super.cleanup();
-        server.close();
+    /**
+     * Called by a room as soon as it is ready to accept players. Lets the
+     * clients which are waiting for the room join.
+     *
+     * @param room
+     */
+    void addRoom(Room room) {
+        ArrayList<PendingJoin> joins;
+        synchronized (pendingJoins) {
+            rooms.put(room.getName(), room);
+            joins = pendingJoins.remove(room.getName());
+        }
+        if (joins != null) {
+            for (PendingJoin join : joins) {
+                join(join.connection, join.identification, room);
+            }
+        }
+    }
+
+    void removeRoom(Room room) {
+        rooms.remove(room.getName(), room);
+    }
+
+    public Room getRoom(String name) {
+        return rooms.get(name);
+    }
+
+    public Collection<Room> getRooms() {
+        return rooms.values();
+    }
+
+    public Server getServer() {
+        return server;
+    }
+
+    public SendStage getSendStage() {
+        return sendStage;
+    }
+
+    public TrafficStats getTraffic() {
+        return traffic;
     }
-    
-    
 
     @Override
     public void messageReceived(final HostedConnection source, final Message m) {
-        if (m instanceof UpdateGameObjectPositionMessage) {
-            // broadcast location updates
-            // TODO test if client is allowed to update object
-            server.broadcast(Filters.notEqualTo(source), m);
-        } if (m instanceof IdentificationMessage) {
+        traffic.messageReceived(String.valueOf(source.getId()), m);
+        Room room = source.getAttribute("Room");
+        if (m instanceof IdentificationMessage) {
+            if (room != null) {
+                LOG.log(Level.WARNING, "Connection {0} identified twice.", source.getId());
+                return;
+            }
             final IdentificationMessage identification = (IdentificationMessage) m;
             // TODO check identification
-            LOG.log(Level.INFO, "{0} has connected.", identification.getPlayerName());
-            source.setAttribute("PlayerName", identification.getPlayerName());
-            source.setAttribute("Identified", true);
-            
-            // identification accepted - let player join the game
-            app.enqueue(new Callable<Void>() {
-
-                @Override
-                public Void call() throws Exception {
-                    
-                    // prepare the init world message
-                    InitWorldMessage message = new InitWorldMessage(world.getWorldSize(), world.getGameObjects());
-                    LOG.log(Level.INFO, "Sending {0} game objects.", world.getGameObjects().length);
-                    source.send(message);
-                    
-                    
-                    // add a player model to the client
-                    Node playerNode = new Node();
-                    playerNode.addControl(new GameObjectControl(world, new PlayerModel(ColorRGBA.White), null));
-                    int id = world.addGameObject(playerNode);
-                    
-                    //int id = world.generateGameObjectId();
-                    source.setAttribute("PlayerId", id);
-                    
-                    // let user know who his player is
-//                    source.send(new UpdateModelMessage(new PlayerModel(ColorRGBA.White), id));
-                    UpdateLogicMessage playerMsg = new UpdateLogicMessage(new PlayerLogic(new Vector3f(0, 50, 0)), id);
-                    source.send(playerMsg);
-                    source.send(new SetPlayerMessage(id));
-                    
-                    // inform other players about player
-                    server.broadcast(Filters.notEqualTo(source), new NewPlayerMessage(identification.getPlayerName(), id));
-                    
-                    // add player to game mode manager
-                    gameModeManager.addPlayer(playerNode.getControl(GameObjectControl.class));
-                    
-                    LOG.info("Player joined game.");
-                    
-                    identifiedConnections.add(source);
-                    return null;
+            String roomName = identification.getRoomName() == null ? DEFAULT_ROOM : identification.getRoomName();
+            synchronized (pendingJoins) {
+                room = rooms.get(roomName);
+                ArrayList<PendingJoin> joins = pendingJoins.get(roomName);
+                if (room == null && joins != null) {
+                    LOG.log(Level.INFO, "{0} waits for room {1}.", new Object[]{identification.getPlayerName(), roomName});
+                    joins.add(new PendingJoin(source, identification));
+                    return;
                 }
-                
-            });
-        } else if (source.getAttribute("Identified")) {
-            // only proceed message if hosted connection is identified
-            if (m instanceof WorldMessage) {
-                ((WorldMessage) m).applyToWorld(world);
             }
+            if (room == null) {
+                LOG.log(Level.INFO, "{0} tried to join unknown room {1}.", new Object[]{identification.getPlayerName(), roomName});
+                source.close("Unknown room " + roomName + ".");
+                return;
+            }
+            join(source, identification, room);
+        } else if (room != null) {
+            // only proceed message if hosted connection is identified
+            room.messageReceived(source, m);
         }
     }
 
+    private void join(HostedConnection source, IdentificationMessage identification, Room room) {
+        LOG.log(Level.INFO, "{0} has connected to room {1}.", new Object[]{identification.getPlayerName(), room.getName()});
+        source.setAttribute("PlayerName", identification.getPlayerName());
+        source.setAttribute("Room", room);
+
+        // identification accepted - let player join the room
+        room.playerJoining(source, identification);
+    }
+
     @Override
     public void connectionAdded(Server server, HostedConnection conn) {
     }
@@ -213,27 +203,38 @@ public class GameServer extends NetworkAppState implements MessageListener<Hoste
     @Override
     public void connectionRemoved(Server server, HostedConnection conn) {
         LOG.info("Client disconnected.");
+        traffic.removeConnection(String.valueOf(conn.getId()));
         // remove player
-        if (identifiedConnections.contains(conn)) {
-            identifiedConnections.remove(conn);
-            gameModeManager.removePlayer(world.getGameObjectControl((int) conn.getAttribute("PlayerId")));
-            world.removeGameObject((int) conn.getAttribute("PlayerId"));
+        Room room = conn.getAttribute("Room");
+        if (room != null) {
+            room.connectionRemoved(conn);
+        } else {
+            // may still wait for its room
+            synchronized (pendingJoins) {
+                for (ArrayList<PendingJoin> joins : pendingJoins.values()) {
+                    for (int i = joins.size() - 1; i >= 0; i--) {
+                        if (joins.get(i).connection == conn) {
+                            joins.remove(i);
+                        }
+                    }
+                }
+            }
         }
     }
 
-    @Override
-    public void gameObjectAdded(Node gameObject) {
-        LOG.info("Adding GameObject to world.");
-        // inform clients
-        server.broadcast(new AddGameObjectMessage(gameObject));
-    }
+    /**
+     * Identified connection which waits for its room.
+     */
+    private static class PendingJoin {
+
+        private final HostedConnection connection;
+        private final IdentificationMessage identification;
+
+        private PendingJoin(HostedConnection connection, IdentificationMessage identification) {
+            this.connection = connection;
+            this.identification = identification;
+        }
 
-    @Override
-    public void gameObjectRemoved(Node gameObject) {
-        LOG.info("Removing GameObject from world.");
-        server.broadcast(new RemoveGameObjectMessage((int) gameObject.getUserData("Id")));
     }
 
-    
-    
 }
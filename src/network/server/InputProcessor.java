@@ -0,0 +1,210 @@
+package network.server;
+
+import com.jme3.network.HostedConnection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import network.message.PlayerInputMessage;
+import network.message.PlayerStateMessage;
+import simulator.PlayerInput;
+import simulator.PlayerSimulationControl;
+import simulator.Simulator;
+
+/**
+ * Moves the players of clients with predicted movement by their inputs.
+ *
+ * The server is the authority: each client sends its inputs, the server
+ * simulates them with the same Simulator as the client and answers with the
+ * resulting state and the sequence number of the last applied input. The
+ * client corrects its prediction with it.
+ *
+ * Inputs arrive several times (the client repeats unacknowledged ones), only
+ * new ones are applied. Every player is moved by one input per step of the
+ * server: a client can not apply more inputs than steps passed, so it can not
+ * move faster by sending more inputs or by saving up steps. If the inputs of a
+ * client are late the player may fall behind by maxStepReserve steps (jitter).
+ * Beyond that the player is moved with its last input (without jumping) so it
+ * keeps falling if the client stops sending. Inputs which arrive after their
+ * step are ignored.
+ *
+ * The input state of each client is stored in its HostedConnection with the key
+ * "Input".
+ *
+ * @author Marco Klein
+ */
+public class InputProcessor implements TickListener {
+
+    /**
+     * Number of steps a player may fall behind the server waiting for late
+     * inputs.
+     */
+    public static final int DEFAULT_MAX_STEP_RESERVE = 3;
+    /**
+     * Messages which are queued for a client at most.
+     */
+    private static final int MAX_QUEUED_MESSAGES = 64;
+    private static final String INPUT_ATTRIBUTE = "Input";
+
+    private Room room;
+    private Simulator simulator;
+    private int maxStepReserve = DEFAULT_MAX_STEP_RESERVE;
+
+    private PlayerInput input = new PlayerInput();
+
+    private long appliedInputs;
+    private long rejectedInputs;
+    private long repeatedInputs;
+
+    public InputProcessor(Room room, Simulator simulator) {
+        this.room = room;
+        this.simulator = simulator;
+    }
+
+    /**
+     * Starts applying the inputs of the given connection to the given player.
+     *
+     * @param connection
+     * @param player input driven player of the connection
+     */
+    public void addConnection(HostedConnection connection, PlayerSimulationControl player) {
+        connection.setAttribute(INPUT_ATTRIBUTE, new InputState(player));
+    }
+
+    /**
+     * Called by the network threads if a client sent inputs.
+     *
+     * @param connection
+     * @param message
+     */
+    public void receive(HostedConnection connection, PlayerInputMessage message) {
+        InputState state = connection.getAttribute(INPUT_ATTRIBUTE);
+        if (state != null && state.queuedMessages.size() < MAX_QUEUED_MESSAGES) {
+            state.queuedMessages.offer(message);
+        } else {
+            message.release();
+        }
+    }
+
+    @Override
+    public void tick(long tick, float tickTime) {
+        float stepTime = simulator.getStepTime();
+        for (HostedConnection connection : room.getConnections()) {
+            InputState state = connection.getAttribute(INPUT_ATTRIBUTE);
+            if (state == null) {
+                continue;
+            }
+            state.steps += tickTime / stepTime;
+            int lastSequence = state.lastSequence;
+            PlayerInputMessage message;
+            while ((message = state.queuedMessages.poll()) != null) {
+                apply(state, message, stepTime);
+                message.release();
+            }
+            // inputs are missing - do not let the player fall further behind
+            while (state.steps >= maxStepReserve + 1) {
+                repeat(state, stepTime);
+            }
+            if (state.lastSequence != lastSequence) {
+                PlayerStateMessage stateMessage = PlayerStateMessage.POOL.obtain().set(state.lastSequence, state.player);
+                // serialized right away
+                room.send(connection, stateMessage);
+                stateMessage.release();
+            }
+        }
+    }
+
+    private void apply(InputState state, PlayerInputMessage message, float stepTime) {
+        for (int i = 0; i < message.size(); i++) {
+            message.getInput(i, input);
+            if (input.getSequence() <= state.lastSequence) {
+                // applied before
+                continue;
+            }
+            if (state.steps < 1) {
+                // faster than the simulation - the client sends it again
+                rejectedInputs++;
+                continue;
+            }
+            // lost inputs are skipped
+            simulator.simulatePlayer(state.player, input, stepTime);
+            state.lastInput.set(input);
+            state.lastSequence = input.getSequence();
+            state.steps--;
+            appliedInputs++;
+        }
+    }
+
+    /**
+     * Moves the player by one step with its last input since the input of the
+     * step did not arrive in time. The input of the step is skipped if it
+     * arrives later. Before the first input arrived the player is moved
+     * without input.
+     */
+    private void repeat(InputState state, float stepTime) {
+        PlayerInput last = state.lastInput;
+        byte buttons = (byte) (last.getButtons() & ~PlayerInput.JUMP);
+        int sequence = state.lastSequence < 0 ? state.lastSequence : state.lastSequence + 1;
+        input.set(sequence, buttons, last.getPackedYaw());
+        simulator.simulatePlayer(state.player, input, stepTime);
+        last.set(input);
+        state.lastSequence = sequence;
+        state.steps--;
+        repeatedInputs++;
+    }
+
+    public int getMaxStepReserve() {
+        return maxStepReserve;
+    }
+
+    /**
+     * Sets how many steps a player may fall behind the server before it is
+     * moved with its last input.
+     *
+     * @param maxStepReserve
+     */
+    public void setMaxStepReserve(int maxStepReserve) {
+        if (maxStepReserve < 0) {
+            throw new IllegalArgumentException("Max step reserve must not be negative.");
+        }
+        this.maxStepReserve = maxStepReserve;
+    }
+
+    public long getAppliedInputs() {
+        return appliedInputs;
+    }
+
+    /**
+     * @return number of inputs which were dropped because a client sent more
+     * inputs than steps passed
+     */
+    public long getRejectedInputs() {
+        return rejectedInputs;
+    }
+
+    /**
+     * @return number of steps the players were moved with their last input
+     * since their input did not arrive in time
+     */
+    public long getRepeatedInputs() {
+        return repeatedInputs;
+    }
+
+    /**
+     * Inputs of one client.
+     */
+    private static class InputState {
+
+        private PlayerSimulationControl player;
+        private ConcurrentLinkedQueue<PlayerInputMessage> queuedMessages = new ConcurrentLinkedQueue<>();
+        private int lastSequence = -1;
+        private PlayerInput lastInput = new PlayerInput().set(-1, (byte) 0, (short) 0);
+        /**
+         * Number of steps which passed but the player was not moved by yet.
+         */
+        private float steps;
+
+        private InputState(PlayerSimulationControl player) {
+            this.player = player;
+        }
+
+    }
+
+}
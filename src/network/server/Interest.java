@@ -0,0 +1,90 @@
+package network.server;
+
+import java.util.Arrays;
+
+/**
+ * Set of Game Objects a client is interested in (relevant set).
+ *
+ * Ids are kept sorted together with the tick at which each Game Object became
+ * relevant, so the SnapshotReplicator knows which Game Objects a client may not
+ * have received yet.
+ *
+ * Only used by the update thread of the room.
+ *
+ * @author Marco Klein
+ */
+class Interest {
+
+    private int[] ids = new int[16];
+    private long[] enterTicks = new long[16];
+    private int size;
+
+    boolean contains(int id) {
+        return indexOf(id) >= 0;
+    }
+
+    int indexOf(int id) {
+        return Arrays.binarySearch(ids, 0, size, id);
+    }
+
+    /**
+     * @param id
+     * @return tick at which the Game Object became relevant or -1 if it is not
+     * relevant
+     */
+    long getEnterTick(int id) {
+        int index = indexOf(id);
+        return index < 0 ? -1 : enterTicks[index];
+    }
+
+    /**
+     * @param id
+     * @param tick
+     * @return false if the id was already contained
+     */
+    boolean add(int id, long tick) {
+        int index = indexOf(id);
+        if (index >= 0) {
+            return false;
+        }
+        index = -index - 1;
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            enterTicks = Arrays.copyOf(enterTicks, size * 2);
+        }
+        System.arraycopy(ids, index, ids, index + 1, size - index);
+        System.arraycopy(enterTicks, index, enterTicks, index + 1, size - index);
+        ids[index] = id;
+        enterTicks[index] = tick;
+        size++;
+        return true;
+    }
+
+    /**
+     * @param id
+     * @return false if the id was not contained
+     */
+    boolean remove(int id) {
+        int index = indexOf(id);
+        if (index < 0) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    void removeAt(int index) {
+        System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+        System.arraycopy(enterTicks, index + 1, enterTicks, index, size - index - 1);
+        size--;
+    }
+
+    int getId(int index) {
+        return ids[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+}
@@ -0,0 +1,226 @@
+package network.server;
+
+import com.jme3.network.HostedConnection;
+import com.jme3.scene.Node;
+import java.util.Arrays;
+import network.message.world.AddGameObjectMessage;
+import network.message.world.RemoveGameObjectMessage;
+import world.IdList;
+import world.World;
+
+/**
+ * Decides which dynamic Game Objects each client of a room knows about (area of
+ * interest).
+ *
+ * A Game Object becomes relevant for a client when it comes closer than
+ * enterRadius to the player of the client and stops being relevant when it is
+ * farther away than leaveRadius. The gap between both radii (hysteresis) keeps
+ * Game Objects at the border from being added and removed all the time. The
+ * distances are found with the spatial index of the world.
+ *
+ * Clients only receive the Game Objects which are relevant for them: an
+ * AddGameObjectMessage if one becomes relevant, a RemoveGameObjectMessage if it
+ * stops being relevant and only their transforms in snapshots. Static Game
+ * Objects (the map) are always sent to everybody. The own player of a client is
+ * always relevant.
+ *
+ * The relevant set of each client is stored in its HostedConnection with the
+ * key "Interest".
+ *
+ * @author Marco Klein
+ */
+public class InterestManager implements TickListener {
+
+    public static final float DEFAULT_ENTER_RADIUS = 40;
+    public static final float DEFAULT_LEAVE_RADIUS = 50;
+    public static final int DEFAULT_UPDATE_INTERVAL = 3;
+    private static final String INTEREST_ATTRIBUTE = "Interest";
+
+    private Room room;
+    private World world;
+
+    private float enterRadius = DEFAULT_ENTER_RADIUS;
+    private float leaveRadius = DEFAULT_LEAVE_RADIUS;
+    /**
+     * Relevant sets are updated every updateInterval ticks.
+     */
+    private int updateInterval = DEFAULT_UPDATE_INTERVAL;
+
+    // scratch buffers
+    private IdList inner = new IdList();
+    private IdList outer = new IdList();
+    private int[] sortedOuter = new int[16];
+
+    private long enteredObjects;
+    private long leftObjects;
+
+    public InterestManager(Room room, World world) {
+        this.room = room;
+        this.world = world;
+    }
+
+    /**
+     * Starts tracking the interest of the given connection.
+     *
+     * @param connection
+     */
+    public void addConnection(HostedConnection connection) {
+        connection.setAttribute(INTEREST_ATTRIBUTE, new Interest());
+    }
+
+    /**
+     * Makes the given Game Object relevant for the connection (independent of
+     * the distance) and sends it to the client right away.
+     *
+     * @param connection
+     * @param id
+     */
+    public void addInterest(HostedConnection connection, int id) {
+        Interest interest = connection.getAttribute(INTEREST_ATTRIBUTE);
+        Node gameObject = world.getGameObject(id);
+        if (interest != null && gameObject != null) {
+            enter(connection, interest, gameObject, id, room.getTickState().getTick());
+        }
+    }
+
+    /**
+     * @param connection
+     * @param id
+     * @return true if the client knows about the Game Object
+     */
+    public boolean isRelevant(HostedConnection connection, int id) {
+        Node gameObject = world.getGameObject(id);
+        if (gameObject != null && Room.isStatic(gameObject)) {
+            return true;
+        }
+        Interest interest = connection.getAttribute(INTEREST_ATTRIBUTE);
+        return interest != null && interest.contains(id);
+    }
+
+    /**
+     * @param connection
+     * @param id
+     * @return tick at which the Game Object became relevant for the client or -1
+     */
+    long getEnterTick(HostedConnection connection, int id) {
+        Interest interest = connection.getAttribute(INTEREST_ATTRIBUTE);
+        return interest == null ? -1 : interest.getEnterTick(id);
+    }
+
+    @Override
+    public void tick(long tick, float tickTime) {
+        if (tick % updateInterval != 0) {
+            return;
+        }
+        for (HostedConnection connection : room.getConnections()) {
+            Interest interest = connection.getAttribute(INTEREST_ATTRIBUTE);
+            Integer playerId = connection.getAttribute("PlayerId");
+            Node player = playerId == null ? null : world.getGameObject(playerId);
+            if (interest == null || player == null) {
+                continue;
+            }
+            update(connection, interest, player, playerId, tick);
+        }
+    }
+
+    private void update(HostedConnection connection, Interest interest, Node player, int playerId, long tick) {
+        world.queryRadius(player.getLocalTranslation(), enterRadius, inner);
+        world.queryRadius(player.getLocalTranslation(), leaveRadius, outer);
+        if (sortedOuter.length < outer.size()) {
+            sortedOuter = new int[Math.max(outer.size(), sortedOuter.length * 2)];
+        }
+        for (int i = 0; i < outer.size(); i++) {
+            sortedOuter[i] = outer.get(i);
+        }
+        Arrays.sort(sortedOuter, 0, outer.size());
+
+        // remove Game Objects which are too far away
+        for (int i = interest.size() - 1; i >= 0; i--) {
+            int id = interest.getId(i);
+            if (id != playerId && Arrays.binarySearch(sortedOuter, 0, outer.size(), id) < 0) {
+                interest.removeAt(i);
+                leftObjects++;
+                room.send(connection, new RemoveGameObjectMessage(id));
+            }
+        }
+        // add Game Objects which came close enough
+        for (int i = 0; i < inner.size(); i++) {
+            int id = inner.get(i);
+            Node gameObject = world.getGameObject(id);
+            if (gameObject != null && !Room.isStatic(gameObject) && !interest.contains(id)) {
+                enter(connection, interest, gameObject, id, tick);
+            }
+        }
+    }
+
+    private void enter(HostedConnection connection, Interest interest, Node gameObject, int id, long tick) {
+        if (interest.add(id, tick)) {
+            enteredObjects++;
+            room.send(connection, new AddGameObjectMessage(gameObject));
+        }
+    }
+
+    /**
+     * Called if a dynamic Game Object has been removed from the world. Informs
+     * all clients which knew about it.
+     *
+     * @param id
+     */
+    public void gameObjectRemoved(int id) {
+        for (HostedConnection connection : room.getConnections()) {
+            Interest interest = connection.getAttribute(INTEREST_ATTRIBUTE);
+            if (interest != null && interest.remove(id)) {
+                room.send(connection, new RemoveGameObjectMessage(id));
+            }
+        }
+    }
+
+    public float getEnterRadius() {
+        return enterRadius;
+    }
+
+    public float getLeaveRadius() {
+        return leaveRadius;
+    }
+
+    /**
+     * Sets the distances at which Game Objects become relevant and stop being
+     * relevant.
+     *
+     * @param enterRadius
+     * @param leaveRadius must not be smaller than enterRadius
+     */
+    public void setRadius(float enterRadius, float leaveRadius) {
+        if (leaveRadius < enterRadius) {
+            throw new IllegalArgumentException("Leave radius must not be smaller than enter radius.");
+        }
+        this.enterRadius = enterRadius;
+        this.leaveRadius = leaveRadius;
+    }
+
+    public int getUpdateInterval() {
+        return updateInterval;
+    }
+
+    public void setUpdateInterval(int updateInterval) {
+        if (updateInterval <= 0) {
+            throw new IllegalArgumentException("Update interval must be greater than 0.");
+        }
+        this.updateInterval = updateInterval;
+    }
+
+    /**
+     * @return number of times a Game Object became relevant for a client
+     */
+    public long getEnteredObjects() {
+        return enteredObjects;
+    }
+
+    /**
+     * @return number of times a Game Object stopped being relevant for a client
+     */
+    public long getLeftObjects() {
+        return leftObjects;
+    }
+
+}
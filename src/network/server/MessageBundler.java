@@ -0,0 +1,236 @@
+package network.server;
+
+import com.jme3.network.HostedConnection;
+import com.jme3.network.Message;
+import java.util.ArrayList;
+import network.message.world.WorldMessage;
+import network.message.world.WorldMessageBundle;
+import network.serializer.SerializedMessage;
+
+/**
+ * Collects the world messages sent to a client during one tick and sends them
+ * as a single WorldMessageBundle at the end of the tick.
+ *
+ * Reliable and unreliable messages are collected separately since they are sent
+ * over different channels. Other messages are sent right away, but all messages
+ * collected for the client before are sent first so the order is kept. All
+ * messages are passed on to the SendStage of the room.
+ *
+ * World messages are serialized as they are collected. World messages
+ * broadcast by the room arrive as SerializedMessages already, so they are
+ * serialized once for all clients. The bundle holds a reference of them until
+ * it is sent and copies their bytes into the bundle. Since the size of every
+ * collected message is known, a bundle is sent before the next message would
+ * make it bigger than maxBytes (the message size limit of the network layer).
+ * A bundle also contains at most maxMessages messages.
+ *
+ * The pending messages of each client are stored in its HostedConnection with
+ * the key "Bundle". Must be used by the update thread of the room only.
+ *
+ * @author Marco Klein
+ */
+public class MessageBundler implements TickListener {
+
+    public static final int DEFAULT_MAX_MESSAGES = 32;
+    public static final int DEFAULT_MAX_BYTES = SerializedMessage.MAX_SIZE;
+    /**
+     * Class id of the bundle and length of its array.
+     */
+    private static final int BUNDLE_OVERHEAD = 2 + 4;
+    /**
+     * Class id of a SerializedMessage inside of the bundle.
+     */
+    private static final int MESSAGE_OVERHEAD = 2;
+    private static final String BUNDLE_ATTRIBUTE = "Bundle";
+
+    private Room room;
+    private int maxMessages = DEFAULT_MAX_MESSAGES;
+    private int maxBytes = DEFAULT_MAX_BYTES;
+
+    private long sentBundles;
+    private long bundledMessages;
+
+    public MessageBundler(Room room) {
+        this.room = room;
+    }
+
+    /**
+     * Starts bundling the messages of the given connection. Messages sent
+     * before are sent right away.
+     *
+     * @param connection
+     */
+    public void addConnection(HostedConnection connection) {
+        connection.setAttribute(BUNDLE_ATTRIBUTE, new Bundle());
+    }
+
+    /**
+     * Drops the collected messages of the given connection. Called once the
+     * connection was closed.
+     *
+     * @param connection
+     */
+    public void removeConnection(HostedConnection connection) {
+        Bundle bundle = connection.getAttribute(BUNDLE_ATTRIBUTE);
+        if (bundle != null) {
+            connection.setAttribute(BUNDLE_ATTRIBUTE, null);
+            bundle.reliable.release();
+            bundle.unreliable.release();
+        }
+    }
+
+    /**
+     * Sends the given message to the client. World messages are sent with the
+     * bundle at the end of the tick.
+     *
+     * @param connection
+     * @param message
+     */
+    public void send(HostedConnection connection, Message message) {
+        Bundle bundle = connection.getAttribute(BUNDLE_ATTRIBUTE);
+        if (bundle == null) {
+            room.getSendStage().send(connection, message);
+        } else if (isWorldMessage(message)) {
+            SerializedMessage serialized;
+            if (message instanceof SerializedMessage) {
+                // kept until the bundle is sent
+                serialized = ((SerializedMessage) message).retain();
+            } else {
+                serialized = room.getSendStage().serialize(message);
+            }
+            Pending pending = serialized.isReliable() ? bundle.reliable : bundle.unreliable;
+            int size = MESSAGE_OVERHEAD + serialized.getSize();
+            if (!pending.messages.isEmpty() && pending.bytes + size > maxBytes) {
+                send(connection, pending, serialized.isReliable());
+            }
+            pending.messages.add(serialized);
+            pending.bytes += size;
+            if (pending.messages.size() == maxMessages) {
+                send(connection, pending, serialized.isReliable());
+            }
+        } else {
+            flush(connection);
+            room.getSendStage().send(connection, message);
+        }
+    }
+
+    /**
+     * Sends all collected messages of the given connection.
+     *
+     * @param connection
+     */
+    public void flush(HostedConnection connection) {
+        Bundle bundle = connection.getAttribute(BUNDLE_ATTRIBUTE);
+        if (bundle != null) {
+            send(connection, bundle.reliable, true);
+            send(connection, bundle.unreliable, false);
+        }
+    }
+
+    private void send(HostedConnection connection, Pending pending, boolean reliable) {
+        ArrayList<SerializedMessage> messages = pending.messages;
+        if (messages.isEmpty()) {
+            return;
+        }
+        SendStage sendStage = room.getSendStage();
+        if (messages.size() == 1) {
+            // no need to bundle, the reference of the bundle is passed on
+            SerializedMessage message = messages.get(0);
+            messages.clear();
+            pending.bytes = BUNDLE_OVERHEAD;
+            sendStage.enqueue(connection, message);
+            return;
+        }
+        try {
+            // serialized right away
+            sendStage.send(connection, new WorldMessageBundle(messages, reliable));
+            sentBundles++;
+            bundledMessages += messages.size();
+        } finally {
+            pending.release();
+        }
+    }
+
+    private static boolean isWorldMessage(Message message) {
+        if (message instanceof SerializedMessage) {
+            return WorldMessage.class.isAssignableFrom(((SerializedMessage) message).getType());
+        }
+        return message instanceof WorldMessage;
+    }
+
+    @Override
+    public void tick(long tick, float tickTime) {
+        for (HostedConnection connection : room.getConnections()) {
+            flush(connection);
+        }
+    }
+
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    public void setMaxMessages(int maxMessages) {
+        if (maxMessages <= 0) {
+            throw new IllegalArgumentException("Max messages must be greater than 0.");
+        }
+        this.maxMessages = maxMessages;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the maximum size of a serialized bundle. A single message which is
+     * bigger is sent without a bundle.
+     *
+     * @param maxBytes at most SerializedMessage.MAX_SIZE
+     */
+    public void setMaxBytes(int maxBytes) {
+        if (maxBytes <= BUNDLE_OVERHEAD || maxBytes > SerializedMessage.MAX_SIZE) {
+            throw new IllegalArgumentException("Max bytes must be between " + (BUNDLE_OVERHEAD + 1)
+                    + " and " + SerializedMessage.MAX_SIZE + ".");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    public long getSentBundles() {
+        return sentBundles;
+    }
+
+    /**
+     * @return number of messages which were sent in bundles
+     */
+    public long getBundledMessages() {
+        return bundledMessages;
+    }
+
+    /**
+     * Pending messages of one client.
+     */
+    private static class Bundle {
+
+        private Pending reliable = new Pending();
+        private Pending unreliable = new Pending();
+
+    }
+
+    /**
+     * Serialized messages of one channel and the size of the bundle they make.
+     */
+    private static class Pending {
+
+        private ArrayList<SerializedMessage> messages = new ArrayList<>();
+        private int bytes = BUNDLE_OVERHEAD;
+
+        private void release() {
+            for (int i = 0; i < messages.size(); i++) {
+                messages.get(i).release();
+            }
+            messages.clear();
+            bytes = BUNDLE_OVERHEAD;
+        }
+
+    }
+
+}
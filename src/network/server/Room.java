@@ -0,0 +1,553 @@
+package network.server;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.AppStateManager;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.Vector3f;
+import com.jme3.network.HostedConnection;
+import com.jme3.network.Message;
+import com.jme3.network.Server;
+import com.jme3.scene.Node;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import network.NetworkAppState;
+import network.gamemode.GameModeManager;
+import network.gamemode.TagGameMode;
+import network.message.IdentificationMessage;
+import network.message.NewPlayerMessage;
+import network.message.PlayerInputMessage;
+import network.message.SetPlayerMessage;
+import network.message.SnapshotAckMessage;
+import network.message.world.AddGameObjectMessage;
+import network.message.world.AddGameObjectsMessage;
+import network.message.world.GenerateWorldMessage;
+import network.message.world.RemoveGameObjectMessage;
+import network.message.world.RemoveGameObjectsMessage;
+import network.message.world.UpdateLogicMessage;
+import network.message.world.WorldMessage;
+import network.serializer.SerializedMessage;
+import simulator.PlayerSimulationControl;
+import simulator.Simulator;
+import world.GameObjectControl;
+import world.GameObjectNode;
+import world.PooledCommand;
+import world.World;
+import world.WorldListener;
+import world.builder.WorldRecipe;
+import world.gameobject.logic.PlayerLogic;
+import world.gameobject.model.PlayerModel;
+
+/**
+ * One match hosted by the GameServer.
+ *
+ * A room is attached to its own (headless) application, so it has its own World,
+ * physics space, GameModeManager and update thread. All clients which joined
+ * the room only receive messages of this room.
+ *
+ * Static Game Objects (the map) are sent to all clients of the room, all other
+ * Game Objects only to the clients they are relevant for (see InterestManager).
+ *
+ * With predicted movement (default) the server is the authority: it moves the
+ * players with the inputs of the clients (see InputProcessor) and ignores world
+ * messages of the clients. Otherwise the clients move their players themselves
+ * and send the locations.
+ *
+ * Player ids are stored in the HostedConnection with the key "PlayerId". A
+ * player is added once the map has been streamed to the client (see
+ * WorldStreamer).
+ *
+ * Messages are sent by the SendStage of the GameServer. A message which is
+ * broadcast is serialized once for all receivers (world messages are bundled
+ * for each client instead).
+ *
+ * @author Marco Klein
+ */
+public class Room extends NetworkAppState implements WorldListener {
+    private static final Logger LOG = Logger.getLogger(Room.class.getName());
+
+    private String name;
+    private GameServer gameServer;
+
+    private Application app;
+    private Server server;
+    private SendStage sendStage;
+
+    /**
+     * Accessed by network threads and the update thread of the room.
+     */
+    private List<HostedConnection> identifiedConnections = new CopyOnWriteArrayList<>();
+
+    private GameModeManager gameModeManager;
+    /**
+     * Runs game logic and physics with a fixed tick rate.
+     */
+    private ServerTickState tickState;
+    /**
+     * Sends the transforms of the Game Objects to the clients.
+     */
+    private SnapshotReplicator replicator;
+    /**
+     * Decides which dynamic Game Objects are sent to which client.
+     */
+    private InterestManager interestManager;
+    /**
+     * Bundles the world messages of a tick for each client.
+     */
+    private MessageBundler bundler;
+    /**
+     * Sends the map to joining clients.
+     */
+    private WorldStreamer streamer;
+    /**
+     * Moves the players of the clients by their inputs if predictedMovement is
+     * enabled.
+     */
+    private Simulator simulator;
+    private InputProcessor inputProcessor;
+    private boolean predictedMovement = true;
+    private int simulatorThreads = Runtime.getRuntime().availableProcessors();
+
+    public Room(String name, GameServer gameServer, World world) {
+        this(name, gameServer, world, ServerTickState.DEFAULT_TICK_RATE);
+    }
+
+    public Room(String name, GameServer gameServer, World world, int tickRate) {
+        super(world);
+        this.name = name;
+        this.gameServer = gameServer;
+        this.server = gameServer.getServer();
+        this.sendStage = gameServer.getSendStage();
+        this.tickState = new ServerTickState(world, tickRate);
+    }
+
+    @Override
+    public void stateAttached(AppStateManager stateManager) {
+        app = stateManager.getApplication();
+
+        // players are moved before the game logic runs
+        simulator = new Simulator(world, simulatorThreads);
+        stateManager.attach(simulator);
+        inputProcessor = new InputProcessor(this, simulator);
+        tickState.addTickListener(inputProcessor);
+        // add a game mode state (updated by the fixed server tick)
+        gameModeManager = new GameModeManager(this, world);
+        stateManager.attach(gameModeManager);
+        tickState.addTickListener(gameModeManager);
+        // interest is updated before the snapshots are sent
+        interestManager = new InterestManager(this, world);
+        tickState.addTickListener(interestManager);
+        replicator = new SnapshotReplicator(this, world);
+        tickState.addTickListener(replicator);
+        streamer = new WorldStreamer(this, world);
+        tickState.addTickListener(streamer);
+        // send everything which is left at the end of the tick
+        bundler = new MessageBundler(this);
+        tickState.addTickListener(bundler);
+        stateManager.attach(tickState);
+
+        // TODO add listener again when world gets reset
+        world.addListener(this);
+
+        // set up game mode
+        gameModeManager.changeGameMode(new TagGameMode());
+
+        // accept players
+        gameServer.addRoom(this);
+        LOG.log(Level.INFO, "Room {0} opened.", name);
+    }
+
+    @Override
+    public void stateDetached(AppStateManager stateManager) {
+        gameServer.removeRoom(this);
+        stateManager.detach(tickState);
+        stateManager.detach(gameModeManager);
+        stateManager.detach(simulator);
+        // kick remaining players
+        for (HostedConnection connection : identifiedConnections) {
+            bundler.removeConnection(connection);
+            sendStage.removeConnection(connection);
+            connection.close("Room " + name + " closed.");
+        }
+        identifiedConnections.clear();
+        LOG.log(Level.INFO, "Room {0} closed.", name);
+    }
+
+    /**
+     * Sends the given message to a player of this room. World messages are
+     * bundled and sent at the end of the tick.
+     * Must be called by the update thread of the room.
+     *
+     * @param connection
+     * @param message
+     */
+    public void send(HostedConnection connection, Message message) {
+        bundler.send(connection, message);
+    }
+
+    /**
+     * Sends the given message to all players of this room.
+     *
+     * @param message
+     */
+    public void broadcast(Message message) {
+        Message shared = share(message);
+        try {
+            for (HostedConnection connection : identifiedConnections) {
+                bundler.send(connection, shared);
+            }
+        } finally {
+            unshare(message, shared);
+        }
+    }
+
+    /**
+     * Sends the given message to all players of this room which know about the
+     * given Game Object.
+     *
+     * @param gameObjectId
+     * @param message
+     */
+    public void broadcastToInterested(int gameObjectId, Message message) {
+        Message shared = share(message);
+        try {
+            for (HostedConnection connection : identifiedConnections) {
+                if (interestManager.isRelevant(connection, gameObjectId)) {
+                    bundler.send(connection, shared);
+                }
+            }
+        } finally {
+            unshare(message, shared);
+        }
+    }
+
+    /**
+     * Sends the given message to all players of this room except the given one.
+     *
+     * @param exclude
+     * @param message
+     */
+    public void broadcastExcept(HostedConnection exclude, Message message) {
+        Message shared = share(message);
+        try {
+            for (HostedConnection connection : identifiedConnections) {
+                if (connection != exclude) {
+                    bundler.send(connection, shared);
+                }
+            }
+        } finally {
+            unshare(message, shared);
+        }
+    }
+
+    /**
+     * @param message
+     * @return serialized message which can be sent to several clients (world
+     * messages are bundled in serialized form)
+     */
+    private Message share(Message message) {
+        return sendStage.serialize(message);
+    }
+
+    private void unshare(Message message, Message shared) {
+        if (shared != message) {
+            sendStage.release((SerializedMessage) shared);
+        }
+    }
+
+    /**
+     * Called by the GameServer (on a network thread) after the given connection
+     * identified itself and was assigned to this room.
+     *
+     * @param source
+     * @param identification
+     */
+    void playerJoining(final HostedConnection source, final IdentificationMessage identification) {
+        // let player join the game on the update thread of the room
+        app.enqueue(new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+
+                // the map is streamed to the client, closest to the spawn
+                // position first (dynamic Game Objects are sent once they are
+                // relevant for the player)
+                streamer.addConnection(source, gameModeManager.getGameMode().getSpawnPosition());
+                // from now on the client receives all changes of the room
+                interestManager.addConnection(source);
+                replicator.addConnection(source);
+                bundler.addConnection(source);
+                identifiedConnections.add(source);
+                return null;
+            }
+
+        });
+    }
+
+    /**
+     * Called by the WorldStreamer once the map has been sent to the given
+     * connection. Adds the player of the connection.
+     *
+     * @param source
+     */
+    void worldStreamed(HostedConnection source) {
+        // add a player model to the client
+        Vector3f spawnPosition = gameModeManager.getGameMode().getSpawnPosition();
+        Node playerNode = new GameObjectNode();
+        playerNode.addControl(new GameObjectControl(world, new PlayerModel(ColorRGBA.White), null));
+        PlayerSimulationControl simulationControl = null;
+        if (predictedMovement) {
+            // the server moves the player with the inputs of the client
+            playerNode.setLocalTranslation(spawnPosition);
+            simulationControl = PlayerLogic.createSimulationControl();
+            playerNode.addControl(simulationControl);
+        }
+        int id = world.addGameObject(playerNode);
+        if (simulationControl != null) {
+            inputProcessor.addConnection(source, simulationControl);
+        }
+
+        //int id = world.generateGameObjectId();
+        source.setAttribute("PlayerId", id);
+        // the own player is always relevant
+        interestManager.addInterest(source, id);
+
+        // let user know who his player is
+//        source.send(new UpdateModelMessage(new PlayerModel(ColorRGBA.White), id));
+        UpdateLogicMessage playerMsg = new UpdateLogicMessage(new PlayerLogic(spawnPosition.clone(), predictedMovement), id);
+        send(source, playerMsg);
+        send(source, new SetPlayerMessage(id));
+
+        // inform other players about player
+        String playerName = source.getAttribute("PlayerName");
+        broadcastExcept(source, new NewPlayerMessage(playerName, id));
+
+        // add player to game mode manager
+        gameModeManager.addPlayer(playerNode.getControl(GameObjectControl.class));
+
+        LOG.log(Level.INFO, "Player joined room {0}.", name);
+    }
+
+    /**
+     * Called by the GameServer (on a network thread) for every message of a
+     * connection which joined this room.
+     *
+     * @param source
+     * @param m
+     */
+    void messageReceived(HostedConnection source, Message m) {
+        if (m instanceof SnapshotAckMessage) {
+            replicator.acknowledge(source, ((SnapshotAckMessage) m).getTick());
+            ((SnapshotAckMessage) m).release();
+        } else if (m instanceof PlayerInputMessage) {
+            inputProcessor.receive(source, (PlayerInputMessage) m);
+        } else if (predictedMovement && m instanceof WorldMessage) {
+            // the server is the authority - clients only send inputs
+            LOG.log(Level.FINE, "Ignored {0} of a client.", m.getClass().getSimpleName());
+            if (m instanceof PooledCommand) {
+                ((PooledCommand) m).release();
+            }
+        } else if (m instanceof WorldMessage) {
+            // location updates reach the other clients with the next snapshot
+            // TODO test if client is allowed to update object
+            // applied on the update thread
+            if (!world.enqueue((WorldMessage) m)) {
+                if (m.isReliable()) {
+                    // the worlds would differ - waiting would block the
+                    // network thread of all clients
+                    LOG.log(Level.WARNING, "World command queue full - disconnecting client which sent {0}.", m.getClass().getSimpleName());
+                    source.close("Server too busy.");
+                } else if (m instanceof PooledCommand) {
+                    ((PooledCommand) m).release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by the GameServer (on a network thread) if a connection of this room
+     * was closed.
+     *
+     * @param conn
+     */
+    void connectionRemoved(final HostedConnection conn) {
+        // remove player on the update thread
+        app.enqueue(new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                Integer playerId = conn.getAttribute("PlayerId");
+                // players which are still loading the world have no Game Object
+                bundler.removeConnection(conn);
+                sendStage.removeConnection(conn);
+                if (identifiedConnections.remove(conn) && playerId != null) {
+                    gameModeManager.removePlayer(world.getGameObjectControl(playerId));
+                    world.removeGameObject(playerId);
+                }
+                return null;
+            }
+
+        });
+    }
+
+    /**
+     * Static Game Objects (RigidBodyControl with mass 0) are part of the map and
+     * are sent to every client.
+     *
+     * @param gameObject
+     * @return
+     */
+    static boolean isStatic(Node gameObject) {
+        RigidBodyControl body = gameObject.getControl(RigidBodyControl.class);
+        return body != null && body.getMass() == 0;
+    }
+
+    @Override
+    public void gameObjectAdded(Node gameObject) {
+        LOG.info("Adding GameObject to world.");
+        // inform clients (dynamic Game Objects are sent by the interest manager,
+        // generated ones are generated by the clients themselves)
+        if (isStatic(gameObject) && !world.isGenerated((int) gameObject.getUserData("Id"))) {
+            broadcast(new AddGameObjectMessage(gameObject));
+        }
+    }
+
+    @Override
+    public void gameObjectRemoved(Node gameObject) {
+        LOG.info("Removing GameObject from world.");
+        int id = gameObject.getUserData("Id");
+        if (isStatic(gameObject)) {
+            broadcast(new RemoveGameObjectMessage(id));
+        } else {
+            interestManager.gameObjectRemoved(id);
+        }
+    }
+
+    @Override
+    public void gameObjectsAdded(Node[] gameObjects) {
+        LOG.log(Level.INFO, "Adding {0} GameObjects to world.", gameObjects.length);
+        ArrayList<Node> staticGameObjects = new ArrayList<>();
+        for (Node gameObject : gameObjects) {
+            if (isStatic(gameObject) && !world.isGenerated((int) gameObject.getUserData("Id"))) {
+                staticGameObjects.add(gameObject);
+            }
+        }
+        if (!staticGameObjects.isEmpty()) {
+            broadcast(new AddGameObjectsMessage(staticGameObjects.toArray(new Node[staticGameObjects.size()])));
+        }
+    }
+
+    @Override
+    public void gameObjectsRemoved(Node[] gameObjects) {
+        LOG.log(Level.INFO, "Removing {0} GameObjects from world.", gameObjects.length);
+        ArrayList<Node> staticGameObjects = new ArrayList<>();
+        for (Node gameObject : gameObjects) {
+            if (isStatic(gameObject)) {
+                staticGameObjects.add(gameObject);
+            } else {
+                interestManager.gameObjectRemoved((int) gameObject.getUserData("Id"));
+            }
+        }
+        if (!staticGameObjects.isEmpty()) {
+            broadcast(new RemoveGameObjectsMessage(staticGameObjects.toArray(new Node[staticGameObjects.size()])));
+        }
+    }
+
+    @Override
+    public void worldGenerated(WorldRecipe recipe) {
+        LOG.log(Level.INFO, "Generated {0} GameObjects.", recipe.getGameObjectCount());
+        broadcast(new GenerateWorldMessage(recipe));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public GameServer getGameServer() {
+        return gameServer;
+    }
+
+    public Server getServer() {
+        return server;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public ServerTickState getTickState() {
+        return tickState;
+    }
+
+    public SnapshotReplicator getReplicator() {
+        return replicator;
+    }
+
+    public InterestManager getInterestManager() {
+        return interestManager;
+    }
+
+    public WorldStreamer getStreamer() {
+        return streamer;
+    }
+
+    public Simulator getSimulator() {
+        return simulator;
+    }
+
+    public InputProcessor getInputProcessor() {
+        return inputProcessor;
+    }
+
+    public boolean isPredictedMovement() {
+        return predictedMovement;
+    }
+
+    /**
+     * If enabled (default) clients predict the movement of their players and
+     * the server moves the players with the inputs of the clients. Otherwise
+     * the clients move their players themselves and the server trusts their
+     * locations. Only affects players which join afterwards.
+     *
+     * @param predictedMovement
+     */
+    public void setPredictedMovement(boolean predictedMovement) {
+        this.predictedMovement = predictedMovement;
+    }
+
+    public int getSimulatorThreads() {
+        return simulatorThreads;
+    }
+
+    /**
+     * Number of threads the Simulator moves the players with (default: number
+     * of processors). Small rooms are simulated by the update thread anyway.
+     * Must be set before the room is attached.
+     *
+     * @param simulatorThreads
+     */
+    public void setSimulatorThreads(int simulatorThreads) {
+        this.simulatorThreads = simulatorThreads;
+    }
+
+    public SendStage getSendStage() {
+        return sendStage;
+    }
+
+    public MessageBundler getBundler() {
+        return bundler;
+    }
+
+    public GameModeManager getGameModeManager() {
+        return gameModeManager;
+    }
+
+    public List<HostedConnection> getConnections() {
+        return identifiedConnections;
+    }
+
+}
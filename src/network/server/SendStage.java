@@ -0,0 +1,675 @@
+package network.server;
+
+import com.jme3.network.HostedConnection;
+import com.jme3.network.Message;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import network.serializer.SerializedMessage;
+import network.stats.Histogram;
+import network.stats.TrafficStats;
+
+/**
+ * Sends the messages of all rooms on a pool of worker threads, so the update
+ * thread of a room does not wait for the network layer.
+ *
+ * A message is serialized once on the thread which sends it (so pooled
+ * messages may be released as soon as send() returns) and is then handed to
+ * the workers as a SerializedMessage. A SerializedMessage which is sent to
+ * several clients shares its bytes between them (see Room.broadcast()).
+ *
+ * Every connection has its own queue, which is stored in its HostedConnection
+ * with the key "Outbox". At most one worker sends the messages of a connection
+ * at a time, so they arrive in the order they were sent. A worker sends at most
+ * maxBatch messages of a connection before the other connections get their
+ * turn, so a connection with many messages does not delay the others.
+ *
+ * The network layer queues handed over messages without limit until they have
+ * been written to the socket, so a worker only takes messages out of the queue
+ * of a connection while less than maxBytesInFlight bytes of it wait to be
+ * written (see SocketBacklog). Otherwise it tries again after a short delay and
+ * the messages wait in the queue of the connection, where the limits below
+ * apply.
+ *
+ * The queues are bounded, so a client which does not keep up does not let the
+ * server run out of memory. An unreliable ReplaceableMessage replaces the
+ * queued message it makes obsolete. If a queue is full, its oldest unreliable
+ * message is dropped. If it only contains reliable messages an unreliable
+ * message is dropped itself, while a reliable one can not be delivered anymore:
+ * the client is too far behind and is disconnected. A connection with at least slowThreshold
+ * queued messages counts as a slow consumer until its queue is empty again.
+ *
+ * Every sent message is counted by the TrafficStats of the server. The queues
+ * are registered as MXBean with the name "network:type=SendStage" by the
+ * GameServer.
+ *
+ * @author Marco Klein
+ */
+public class SendStage implements SendStageMXBean {
+    private static final Logger LOG = Logger.getLogger(SendStage.class.getName());
+    private static final String OUTBOX_ATTRIBUTE = "Outbox";
+
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final int DEFAULT_MAX_BATCH = 32;
+    public static final int DEFAULT_MAX_BYTES_IN_FLIGHT = 64 * 1024;
+    /**
+     * Time after which a connection whose socket was backlogged is tried again.
+     */
+    private static final long BACKLOG_RETRY_MILLIS = 5;
+
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timer;
+    private final TrafficStats traffic;
+    private final int capacity;
+    private final int slowThreshold;
+    private volatile int maxBatch = DEFAULT_MAX_BATCH;
+    private volatile int maxBytesInFlight = DEFAULT_MAX_BYTES_IN_FLIGHT;
+
+    private final AtomicLong serializedMessages = new AtomicLong();
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong replacedMessages = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong disconnectedConnections = new AtomicLong();
+    private final AtomicLong slowEvents = new AtomicLong();
+    private final AtomicLong backlogEvents = new AtomicLong();
+    private final AtomicInteger slowConsumers = new AtomicInteger();
+    private final AtomicInteger queuedMessages = new AtomicInteger();
+    private final AtomicInteger maxQueuedMessages = new AtomicInteger();
+    private final Histogram fanOut = new Histogram(1, 10);
+
+    /**
+     * @param traffic counts the sent messages
+     */
+    public SendStage(TrafficStats traffic) {
+        this(traffic, Math.max(1, Runtime.getRuntime().availableProcessors() / 2), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param traffic counts the sent messages
+     * @param threads number of worker threads
+     * @param capacity maximum number of queued messages of a connection
+     */
+    public SendStage(TrafficStats traffic, int threads, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than 0.");
+        }
+        this.traffic = traffic;
+        this.capacity = capacity;
+        this.slowThreshold = Math.max(1, capacity / 2);
+        workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SendStage-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SendStage-Timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+    }
+
+    /**
+     * Serializes the given message, so it can be sent to several connections
+     * without being serialized again. The caller owns the returned message and
+     * has to release it after sending it.
+     *
+     * @param message
+     * @return
+     */
+    public SerializedMessage serialize(Message message) {
+        SerializedMessage serialized = SerializedMessage.POOL.obtain();
+        try {
+            serialized.set(message);
+        } catch (IOException | RuntimeException ex) {
+            serialized.release();
+            throw new RuntimeException("Error serializing " + message.getClass().getSimpleName(), ex);
+        }
+        serializedMessages.incrementAndGet();
+        return serialized;
+    }
+
+    /**
+     * Releases a message returned by serialize() after it has been sent to all
+     * its receivers and counts them.
+     *
+     * @param message
+     */
+    public void release(SerializedMessage message) {
+        fanOut.record(message.getReceivers());
+        message.release();
+    }
+
+    /**
+     * Queues the given message for the given connection. Messages which are not
+     * SerializedMessages are serialized right away, so the caller may change
+     * or release them afterwards. Closes the connection if the message is
+     * reliable and its queue is full of reliable messages.
+     *
+     * @param connection
+     * @param message
+     */
+    public void send(HostedConnection connection, Message message) {
+        SerializedMessage serialized;
+        if (message instanceof SerializedMessage) {
+            serialized = ((SerializedMessage) message).retain();
+        } else {
+            serialized = serialize(message);
+        }
+        enqueue(connection, serialized);
+    }
+
+    /**
+     * Queues a message the caller holds a reference of. The reference is passed
+     * on to the queue of the connection (the caller must not release it).
+     *
+     * @param connection
+     * @param serialized
+     */
+    void enqueue(HostedConnection connection, SerializedMessage serialized) {
+        Outbox outbox = connection.getAttribute(OUTBOX_ATTRIBUTE);
+        if (outbox == null) {
+            // a connection is only sent to by the update thread of its room
+            outbox = new Outbox(connection);
+            connection.setAttribute(OUTBOX_ATTRIBUTE, outbox);
+        }
+        if (!outbox.add(serialized)) {
+            LOG.log(Level.WARNING, "Connection {0} is too slow - {1} reliable messages queued.", new Object[]{connection.getId(), capacity});
+            disconnectedConnections.incrementAndGet();
+            // the closed outbox drops the messages sent until the room removed
+            // the connection
+            outbox.close();
+            connection.close("Connection too slow.");
+        }
+    }
+
+    /**
+     * Drops the messages which have not been sent to the given connection yet.
+     * Called once the connection was closed.
+     *
+     * @param connection
+     */
+    public void removeConnection(HostedConnection connection) {
+        Outbox outbox = connection.getAttribute(OUTBOX_ATTRIBUTE);
+        if (outbox != null) {
+            connection.setAttribute(OUTBOX_ATTRIBUTE, null);
+            outbox.close();
+        }
+    }
+
+    /**
+     * @param connection
+     * @return number of messages which wait to be sent to the given connection
+     */
+    public int getQueuedMessages(HostedConnection connection) {
+        Outbox outbox = connection.getAttribute(OUTBOX_ATTRIBUTE);
+        return outbox == null ? 0 : outbox.size();
+    }
+
+    /**
+     * @param connection
+     * @return maximum number of messages which waited to be sent to the given
+     * connection at the same time
+     */
+    public int getMaxQueuedMessages(HostedConnection connection) {
+        Outbox outbox = connection.getAttribute(OUTBOX_ATTRIBUTE);
+        if (outbox == null) {
+            return 0;
+        }
+        synchronized (outbox) {
+            return outbox.maxSize;
+        }
+    }
+
+    /**
+     * @param connection
+     * @return number of unreliable messages of the given connection which were
+     * dropped because its queue was full
+     */
+    public long getDroppedMessages(HostedConnection connection) {
+        Outbox outbox = connection.getAttribute(OUTBOX_ATTRIBUTE);
+        if (outbox == null) {
+            return 0;
+        }
+        synchronized (outbox) {
+            return outbox.dropped;
+        }
+    }
+
+    /**
+     * @param connection
+     * @return number of queued messages of the given connection which were
+     * replaced by newer ones
+     */
+    public long getReplacedMessages(HostedConnection connection) {
+        Outbox outbox = connection.getAttribute(OUTBOX_ATTRIBUTE);
+        if (outbox == null) {
+            return 0;
+        }
+        synchronized (outbox) {
+            return outbox.replaced;
+        }
+    }
+
+    /**
+     * @param connection
+     * @return true if the given connection is a slow consumer
+     */
+    public boolean isSlow(HostedConnection connection) {
+        Outbox outbox = connection.getAttribute(OUTBOX_ATTRIBUTE);
+        return outbox != null && outbox.isSlow();
+    }
+
+    /**
+     * Stops the workers. Messages which have not been sent yet are dropped.
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    @Override
+    public int getQueuedMessages() {
+        return queuedMessages.get();
+    }
+
+    @Override
+    public int getMaxQueuedMessages() {
+        return maxQueuedMessages.get();
+    }
+
+    @Override
+    public long[] getFanOutHistogram() {
+        return fanOut.getCounts();
+    }
+
+    @Override
+    public String[] getFanOutBuckets() {
+        return fanOut.getBuckets();
+    }
+
+    /**
+     * @return maximum number of queued messages of a connection
+     */
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of queued messages at which a connection is a slow
+     * consumer
+     */
+    @Override
+    public int getSlowThreshold() {
+        return slowThreshold;
+    }
+
+    @Override
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    /**
+     * @param maxBatch number of messages a worker sends to a connection before
+     * the other connections get their turn
+     */
+    @Override
+    public void setMaxBatch(int maxBatch) {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("Max batch must be greater than 0.");
+        }
+        this.maxBatch = maxBatch;
+    }
+
+    @Override
+    public int getMaxBytesInFlight() {
+        return maxBytesInFlight;
+    }
+
+    /**
+     * @param maxBytesInFlight number of bytes of a connection which may wait
+     * to be written to its socket before its messages are kept in its queue
+     */
+    @Override
+    public void setMaxBytesInFlight(int maxBytesInFlight) {
+        if (maxBytesInFlight <= 0) {
+            throw new IllegalArgumentException("Max bytes in flight must be greater than 0.");
+        }
+        this.maxBytesInFlight = maxBytesInFlight;
+    }
+
+    /**
+     * @return number of messages which were serialized
+     */
+    @Override
+    public long getSerializedMessages() {
+        return serializedMessages.get();
+    }
+
+    /**
+     * @return number of messages which were handed to the network layer - a
+     * message sent to n connections counts n times
+     */
+    @Override
+    public long getSentMessages() {
+        return sentMessages.get();
+    }
+
+    /**
+     * @return number of bytes which were handed to the network layer
+     */
+    @Override
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    /**
+     * @return number of queued messages which were replaced by newer ones
+     */
+    @Override
+    public long getReplacedMessages() {
+        return replacedMessages.get();
+    }
+
+    /**
+     * @return number of unreliable messages which were dropped because a
+     * queue was full
+     */
+    @Override
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * @return number of connections which were closed because they were too
+     * slow
+     */
+    @Override
+    public long getDisconnectedConnections() {
+        return disconnectedConnections.get();
+    }
+
+    /**
+     * @return number of connections which are slow consumers right now
+     */
+    @Override
+    public int getSlowConsumers() {
+        return slowConsumers.get();
+    }
+
+    /**
+     * @return number of times a connection became a slow consumer
+     */
+    @Override
+    public long getSlowEvents() {
+        return slowEvents.get();
+    }
+
+    /**
+     * @return number of times a worker stopped sending to a connection
+     * because maxBytesInFlight bytes waited to be written to its socket
+     */
+    @Override
+    public long getBacklogEvents() {
+        return backlogEvents.get();
+    }
+
+    /**
+     * Queued messages of one connection. Bounded ring buffer, guarded by its
+     * own lock.
+     */
+    private class Outbox implements Runnable {
+
+        private final HostedConnection connection;
+        private final SerializedMessage[] queue;
+        private int head;
+        private int size;
+        /**
+         * True while the outbox is waiting for or being sent by a worker.
+         */
+        private boolean scheduled;
+        private boolean slow;
+        private boolean closed;
+
+        private int maxSize;
+        private long dropped;
+        private long replaced;
+
+        /**
+         * Schedules the outbox again once the timer waited for the socket.
+         */
+        private final Runnable resume = new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (Outbox.this) {
+                    if (scheduled) {
+                        execute();
+                    }
+                }
+            }
+
+        };
+
+        private Outbox(HostedConnection connection) {
+            this.connection = connection;
+            this.queue = new SerializedMessage[capacity];
+        }
+
+        /**
+         * @param message
+         * @return false if the message is reliable and the queue is full of
+         * reliable messages
+         */
+        private synchronized boolean add(SerializedMessage message) {
+            if (closed) {
+                message.release();
+                return true;
+            }
+            // the newer state is sent in the order of the newer message
+            for (int i = size - 1; i >= 0; i--) {
+                if (message.replaces(get(i))) {
+                    remove(i).release();
+                    replaced++;
+                    replacedMessages.incrementAndGet();
+                    break;
+                }
+            }
+            if (size == queue.length && !dropUnreliable()) {
+                if (message.isReliable()) {
+                    message.release();
+                    return false;
+                }
+                // only reliable messages are queued, the new one is dropped
+                message.release();
+                dropped++;
+                droppedMessages.incrementAndGet();
+                return true;
+            }
+            queue[(head + size++) % queue.length] = message;
+            queuedMessages.incrementAndGet();
+            maxSize = Math.max(maxSize, size);
+            int max = maxQueuedMessages.get();
+            while (size > max && !maxQueuedMessages.compareAndSet(max, size)) {
+                max = maxQueuedMessages.get();
+            }
+            if (!slow && size >= slowThreshold) {
+                slow = true;
+                slowConsumers.incrementAndGet();
+                slowEvents.incrementAndGet();
+                LOG.log(Level.INFO, "Connection {0} is a slow consumer ({1} queued messages).", new Object[]{connection.getId(), size});
+            }
+            if (!scheduled) {
+                scheduled = true;
+                execute();
+            }
+            return true;
+        }
+
+        /**
+         * Drops the oldest unreliable message.
+         *
+         * @return false if there is no unreliable message
+         */
+        private boolean dropUnreliable() {
+            for (int i = 0; i < size; i++) {
+                if (!get(i).isReliable()) {
+                    remove(i).release();
+                    dropped++;
+                    droppedMessages.incrementAndGet();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private SerializedMessage get(int index) {
+            return queue[(head + index) % queue.length];
+        }
+
+        private SerializedMessage remove(int index) {
+            SerializedMessage message = get(index);
+            for (int i = index; i < size - 1; i++) {
+                queue[(head + i) % queue.length] = queue[(head + i + 1) % queue.length];
+            }
+            queue[(head + size - 1) % queue.length] = null;
+            size--;
+            queuedMessages.decrementAndGet();
+            return message;
+        }
+
+        /**
+         * @return next message or null if the queue is empty
+         */
+        private synchronized SerializedMessage poll() {
+            if (size == 0) {
+                idle();
+                return null;
+            }
+            SerializedMessage message = queue[head];
+            queue[head] = null;
+            head = (head + 1) % queue.length;
+            size--;
+            queuedMessages.decrementAndGet();
+            return message;
+        }
+
+        /**
+         * Called if the queue is empty. Must hold the lock.
+         */
+        private void idle() {
+            scheduled = false;
+            if (slow) {
+                slow = false;
+                slowConsumers.decrementAndGet();
+            }
+        }
+
+        /**
+         * Sends the queued messages after a delay since the socket is
+         * backlogged.
+         */
+        private synchronized void waitForSocket() {
+            if (size == 0) {
+                idle();
+                return;
+            }
+            backlogEvents.incrementAndGet();
+            try {
+                timer.schedule(resume, BACKLOG_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                // shut down
+                close();
+            }
+        }
+
+        private synchronized int size() {
+            return size;
+        }
+
+        private synchronized boolean isSlow() {
+            return slow;
+        }
+
+        private void execute() {
+            try {
+                workers.execute(this);
+            } catch (RejectedExecutionException ex) {
+                // shut down
+                close();
+            }
+        }
+
+        @Override
+        public void run() {
+            int limit = maxBytesInFlight;
+            int available = limit - SocketBacklog.getBytes(connection, limit);
+            for (int i = 0; i < maxBatch; i++) {
+                if (available <= 0) {
+                    waitForSocket();
+                    return;
+                }
+                SerializedMessage message = poll();
+                if (message == null) {
+                    return;
+                }
+                int size = message.getSize();
+                if (message.isReliable()) {
+                    // waits in the socket backlog until it has been written
+                    available -= size;
+                }
+                try {
+                    connection.send(message);
+                    sentMessages.incrementAndGet();
+                    sentBytes.addAndGet(size);
+                    traffic.messageSent(String.valueOf(connection.getId()), message.getType(), size);
+                } catch (RuntimeException ex) {
+                    LOG.log(Level.FINE, "Could not send to connection " + connection.getId() + ".", ex);
+                } finally {
+                    message.release();
+                }
+            }
+            // let the workers send to the other connections before continuing
+            synchronized (this) {
+                execute();
+            }
+        }
+
+        /**
+         * Drops all queued messages and all messages which are added later.
+         */
+        private synchronized void close() {
+            closed = true;
+            while (size > 0) {
+                remove(0).release();
+            }
+            if (slow) {
+                slow = false;
+                slowConsumers.decrementAndGet();
+            }
+            scheduled = false;
+        }
+
+    }
+
+}
@@ -0,0 +1,59 @@
+package network.server;
+
+/**
+ * Queues of the SendStage over JMX.
+ *
+ * @author Marco Klein
+ */
+public interface SendStageMXBean {
+
+    int getCapacity();
+
+    int getSlowThreshold();
+
+    int getMaxBatch();
+
+    void setMaxBatch(int maxBatch);
+
+    int getMaxBytesInFlight();
+
+    void setMaxBytesInFlight(int maxBytesInFlight);
+
+    long getSerializedMessages();
+
+    long getSentMessages();
+
+    long getSentBytes();
+
+    long getReplacedMessages();
+
+    long getDroppedMessages();
+
+    long getDisconnectedConnections();
+
+    int getSlowConsumers();
+
+    long getSlowEvents();
+
+    long getBacklogEvents();
+
+    /**
+     * @return number of messages which wait to be sent to all connections
+     */
+    int getQueuedMessages();
+
+    /**
+     * @return maximum number of messages which waited to be sent to one
+     * connection at the same time
+     */
+    int getMaxQueuedMessages();
+
+    /**
+     * @return number of shared messages per number of receivers (see
+     * getFanOutBuckets())
+     */
+    long[] getFanOutHistogram();
+
+    String[] getFanOutBuckets();
+
+}
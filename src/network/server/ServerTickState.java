@@ -0,0 +1,156 @@
+package network.server;
+
+import com.jme3.app.state.AbstractAppState;
+import com.jme3.bullet.BulletAppState;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import world.World;
+
+/**
+ * Runs the server simulation with a fixed tick rate independent of the frame
+ * rate of the application.
+ * 
+ * The time of every frame is added to an accumulator and as many fixed ticks are
+ * run as fit into it. Each tick steps the physics of the world (in the given
+ * number of sub steps) and then calls all TickListeners (game logic and
+ * replication). If the server falls behind, at most maxTicksPerFrame ticks are
+ * run per frame and the remaining time is dropped so the server does not spiral.
+ * 
+ * The physics of the world are only stepped by this state - the BulletAppState
+ * of the world gets disabled.
+ *
+ * @author Marco Klein
+ */
+public class ServerTickState extends AbstractAppState {
+    private static final Logger LOG = Logger.getLogger(ServerTickState.class.getName());
+    
+    public static final int DEFAULT_TICK_RATE = 30;
+    public static final int DEFAULT_MAX_TICKS_PER_FRAME = 5;
+    public static final int DEFAULT_PHYSICS_SUB_STEPS = 2;
+    
+    private World world;
+    
+    private int tickRate;
+    private float tickTime;
+    private int maxTicksPerFrame = DEFAULT_MAX_TICKS_PER_FRAME;
+    private int physicsSubSteps = DEFAULT_PHYSICS_SUB_STEPS;
+    
+    private float accumulator;
+    private long tick;
+    /**
+     * Number of ticks which were skipped since the server was too slow.
+     */
+    private long droppedTicks;
+    
+    private ArrayList<TickListener> listeners = new ArrayList<>();
+
+    public ServerTickState(World world) {
+        this(world, DEFAULT_TICK_RATE);
+    }
+
+    public ServerTickState(World world, int tickRate) {
+        this.world = world;
+        setTickRate(tickRate);
+    }
+
+    @Override
+    public void update(float tpf) {
+        BulletAppState bulletAppState = world.getBulletAppState();
+        if (bulletAppState.isEnabled()) {
+            // physics are stepped with the fixed tick (new after a world reset)
+            bulletAppState.setEnabled(false);
+        }
+        
+        accumulator += tpf;
+        int ticks = 0;
+        while (accumulator >= tickTime) {
+            if (ticks == maxTicksPerFrame) {
+                // too slow - drop the time we can not catch up with
+                long dropped = (long) (accumulator / tickTime);
+                droppedTicks += dropped;
+                accumulator -= dropped * tickTime;
+                LOG.log(Level.WARNING, "Server can not keep up - dropped {0} ticks.", dropped);
+                break;
+            }
+            runTick();
+            accumulator -= tickTime;
+            ticks++;
+        }
+    }
+    
+    private void runTick() {
+        world.getPhysicsSpace().setAccuracy(tickTime / physicsSubSteps);
+        world.getPhysicsSpace().update(tickTime, physicsSubSteps);
+        world.getPhysicsSpace().distributeEvents();
+        
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).tick(tick, tickTime);
+        }
+        tick++;
+    }
+    
+    public void addTickListener(TickListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeTickListener(TickListener listener) {
+        listeners.remove(listener);
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    /**
+     * Sets the number of ticks per second.
+     * 
+     * @param tickRate 
+     */
+    public final void setTickRate(int tickRate) {
+        if (tickRate <= 0) {
+            throw new IllegalArgumentException("Tick rate must be greater than 0.");
+        }
+        this.tickRate = tickRate;
+        this.tickTime = 1f / tickRate;
+    }
+
+    public float getTickTime() {
+        return tickTime;
+    }
+
+    public int getMaxTicksPerFrame() {
+        return maxTicksPerFrame;
+    }
+
+    /**
+     * Sets how many ticks may be run in a single frame to catch up.
+     * 
+     * @param maxTicksPerFrame 
+     */
+    public void setMaxTicksPerFrame(int maxTicksPerFrame) {
+        this.maxTicksPerFrame = maxTicksPerFrame;
+    }
+
+    public int getPhysicsSubSteps() {
+        return physicsSubSteps;
+    }
+
+    public void setPhysicsSubSteps(int physicsSubSteps) {
+        this.physicsSubSteps = physicsSubSteps;
+    }
+
+    /**
+     * Number of the next tick.
+     * 
+     * @return 
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+    
+}
@@ -0,0 +1,245 @@
+package network.server;
+
+import com.jme3.math.Quaternion;
+import com.jme3.network.HostedConnection;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import network.message.SnapshotMessage;
+import network.snapshot.Snapshot;
+import network.snapshot.SnapshotBuffer;
+import world.IdList;
+import world.TransformCodec;
+import world.World;
+
+/**
+ * Replicates the transforms of all Game Objects of a room with snapshots.
+ *
+ * Every tick the transforms of all replicated Game Objects are captured into a
+ * snapshot. Each client receives only the Game Objects which changed since the
+ * last snapshot it acknowledged (its baseline). If the client did not
+ * acknowledge a snapshot which is still in the history (it just joined or
+ * lost too many packets) it receives the full state.
+ *
+ * Static Game Objects (with a RigidBodyControl of mass 0) are not replicated.
+ * Clients only receive the Game Objects which are relevant for them (see
+ * InterestManager). A Game Object which became relevant after the baseline of a
+ * client is sent even if it did not change. The own player of a client is not
+ * sent to the client since the client moves it itself.
+ *
+ * The acknowledged tick of each client is stored in its HostedConnection with
+ * the key "SnapshotAck".
+ *
+ * @author Marco Klein
+ */
+public class SnapshotReplicator implements TickListener {
+
+    public static final int DEFAULT_HISTORY = 32;
+    private static final String ACK_ATTRIBUTE = "SnapshotAck";
+
+    private Room room;
+    private World world;
+
+    private SnapshotBuffer history;
+    /**
+     * Send a snapshot every sendInterval ticks.
+     */
+    private int sendInterval = 1;
+
+    private int[] ids = new int[16];
+    private Quaternion identity = new Quaternion();
+
+    // scratch buffers for creating messages
+    private IdList changedIds = new IdList();
+    private long[] changedLocations = new long[16];
+    private int[] changedRotations = new int[16];
+    private IdList removedIds = new IdList();
+
+    private long fullSnapshots;
+    private long deltaSnapshots;
+
+    public SnapshotReplicator(Room room, World world) {
+        this(room, world, DEFAULT_HISTORY);
+    }
+
+    public SnapshotReplicator(Room room, World world, int historySize) {
+        this.room = room;
+        this.world = world;
+        this.history = new SnapshotBuffer(historySize);
+    }
+
+    /**
+     * Starts replicating to the given connection. Called before the connection
+     * joins the room.
+     *
+     * @param connection
+     */
+    public void addConnection(HostedConnection connection) {
+        connection.setAttribute(ACK_ATTRIBUTE, new AtomicLong(-1));
+    }
+
+    /**
+     * Called by the network threads if a client acknowledged a snapshot.
+     *
+     * @param connection
+     * @param tick
+     */
+    public void acknowledge(HostedConnection connection, long tick) {
+        AtomicLong ack = connection.getAttribute(ACK_ATTRIBUTE);
+        if (ack == null) {
+            return;
+        }
+        // acks may arrive out of order
+        long current = ack.get();
+        while (tick > current && !ack.compareAndSet(current, tick)) {
+            current = ack.get();
+        }
+    }
+
+    @Override
+    public void tick(long tick, float tickTime) {
+        Snapshot snapshot = capture(tick);
+        if (tick % sendInterval != 0) {
+            return;
+        }
+        for (HostedConnection connection : room.getConnections()) {
+            AtomicLong ack = connection.getAttribute(ACK_ATTRIBUTE);
+            if (ack == null) {
+                continue;
+            }
+            Snapshot baseline = history.get(ack.get());
+            Integer playerId = connection.getAttribute("PlayerId");
+            SnapshotMessage message = createMessage(connection, snapshot, baseline, playerId == null ? -1 : playerId);
+            // serialized right away
+            room.send(connection, message);
+            message.release();
+        }
+    }
+
+    /**
+     * Captures the transforms of all replicated Game Objects.
+     */
+    private Snapshot capture(long tick) {
+        int count = 0;
+        for (int i = 0; i < world.getGameObjectCount(); i++) {
+            if (isReplicated(world.getGameObjectAt(i))) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = world.getGameObjectIdAt(i);
+            }
+        }
+        Arrays.sort(ids, 0, count);
+
+        TransformCodec codec = world.getTransformCodec();
+        Snapshot snapshot = history.next(tick);
+        for (int i = 0; i < count; i++) {
+            Node gameObject = world.getGameObject(ids[i]);
+            Spatial model = gameObject.getChild("Model");
+            snapshot.add(ids[i],
+                    codec.encodeLocation(gameObject.getLocalTranslation()),
+                    codec.encodeRotation(model == null ? identity : model.getLocalRotation()));
+        }
+        return snapshot;
+    }
+
+    private boolean isReplicated(Node gameObject) {
+        return !Room.isStatic(gameObject);
+    }
+
+    /**
+     * Creates a message with all entries of the snapshot which are relevant for
+     * the client and differ from the baseline. The message is taken from the
+     * pool and must be released after it has been sent.
+     *
+     * @param connection
+     * @param snapshot
+     * @param baseline null to send the full snapshot
+     * @param excludedId id which is not sent
+     * @return
+     */
+    private SnapshotMessage createMessage(HostedConnection connection, Snapshot snapshot, Snapshot baseline, int excludedId) {
+        InterestManager interestManager = room.getInterestManager();
+        changedIds.clear();
+        removedIds.clear();
+        int baselineSize = baseline == null ? 0 : baseline.size();
+        int b = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            int id = snapshot.getId(i);
+            // baseline entries with smaller ids are not replicated anymore
+            while (b < baselineSize && baseline.getId(b) < id) {
+                removedIds.add(baseline.getId(b++));
+            }
+            boolean unchanged = false;
+            if (b < baselineSize && baseline.getId(b) == id) {
+                unchanged = snapshot.equalTransform(i, baseline, b);
+                b++;
+            }
+            if (id == excludedId) {
+                continue;
+            }
+            long enterTick = interestManager.getEnterTick(connection, id);
+            if (enterTick < 0) {
+                // not relevant for the client
+                continue;
+            }
+            if (!unchanged || enterTick > baseline.getTick()) {
+                int changed = changedIds.size();
+                if (changed == changedLocations.length) {
+                    changedLocations = Arrays.copyOf(changedLocations, changed * 2);
+                    changedRotations = Arrays.copyOf(changedRotations, changed * 2);
+                }
+                changedLocations[changed] = snapshot.getLocation(i);
+                changedRotations[changed] = snapshot.getRotation(i);
+                changedIds.add(id);
+            }
+        }
+        while (b < baselineSize) {
+            removedIds.add(baseline.getId(b++));
+        }
+
+        if (baseline == null) {
+            fullSnapshots++;
+        } else {
+            deltaSnapshots++;
+        }
+        return SnapshotMessage.POOL.obtain().set(snapshot.getTick(), baseline == null ? -1 : baseline.getTick(),
+                changedIds, changedLocations, changedRotations, removedIds);
+    }
+
+    public int getSendInterval() {
+        return sendInterval;
+    }
+
+    /**
+     * Sets how many ticks lie between two snapshots sent to the clients.
+     *
+     * @param sendInterval
+     */
+    public void setSendInterval(int sendInterval) {
+        if (sendInterval <= 0) {
+            throw new IllegalArgumentException("Send interval must be greater than 0.");
+        }
+        this.sendInterval = sendInterval;
+    }
+
+    public SnapshotBuffer getHistory() {
+        return history;
+    }
+
+    /**
+     * @return number of snapshots sent with the full state
+     */
+    public long getFullSnapshots() {
+        return fullSnapshots;
+    }
+
+    /**
+     * @return number of snapshots sent as delta against a baseline
+     */
+    public long getDeltaSnapshots() {
+        return deltaSnapshots;
+    }
+
+}
@@ -0,0 +1,86 @@
+package network.server;
+
+import com.jme3.network.HostedConnection;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads how many bytes jME has not written to the socket of a connection yet.
+ *
+ * HostedConnection.send() does not block: jME 3.1 adds the message to an
+ * unbounded queue of the NioEndpoint of the reliable channel (TCP) and the
+ * selector thread removes it once it has been written to the socket. jME does
+ * not report when a message was written, so the queue is read with
+ * reflection - a message is not in flight anymore once it left the queue.
+ * Unreliable messages are written right away (UDP has no backlog).
+ *
+ * If the classes of jME do not match the backlog is unknown and reported as 0.
+ *
+ * @author Marco Klein
+ */
+class SocketBacklog {
+    private static final Logger LOG = Logger.getLogger(SocketBacklog.class.getName());
+
+    private static final Field CHANNELS = field("com.jme3.network.base.DefaultServer$Connection", "channels");
+    private static final Field OUTBOUND = field("com.jme3.network.kernel.tcp.NioEndpoint", "outbound");
+
+    private SocketBacklog() {
+    }
+
+    private static Field field(String className, String name) {
+        try {
+            Field field = Class.forName(className).getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (ClassNotFoundException | NoSuchFieldException | RuntimeException ex) {
+            LOG.log(Level.WARNING, "Can not read the socket backlog of connections - it is not limited.", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Sums up the bytes which wait to be written to the socket of the given
+     * connection. Stops counting at the given limit, so a long queue is not
+     * read completely.
+     *
+     * @param connection
+     * @param limit
+     * @return bytes in flight (at most limit), 0 if unknown
+     */
+    static int getBytes(HostedConnection connection, int limit) {
+        Queue<?> outbound = getOutbound(connection);
+        if (outbound == null) {
+            return 0;
+        }
+        int bytes = 0;
+        Iterator<?> it = outbound.iterator();
+        while (bytes < limit && it.hasNext()) {
+            Object buffer = it.next();
+            if (buffer instanceof ByteBuffer) {
+                // written concurrently by the selector thread - an estimate
+                bytes += ((ByteBuffer) buffer).remaining();
+            }
+        }
+        return Math.min(bytes, limit);
+    }
+
+    private static Queue<?> getOutbound(HostedConnection connection) {
+        if (CHANNELS == null || OUTBOUND == null || !CHANNELS.getDeclaringClass().isInstance(connection)) {
+            return null;
+        }
+        try {
+            Object[] channels = (Object[]) CHANNELS.get(connection);
+            if (channels == null || channels.length == 0 || !OUTBOUND.getDeclaringClass().isInstance(channels[0])) {
+                return null;
+            }
+            return (Queue<?>) OUTBOUND.get(channels[0]);
+        } catch (IllegalAccessException ex) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,18 @@
+package network.server;
+
+/**
+ * Gets called by the ServerTickState once per fixed server tick.
+ *
+ * @author Marco Klein
+ */
+public interface TickListener {
+    
+    /**
+     * Called once per server tick after physics were stepped.
+     * 
+     * @param tick number of the tick (counting up from 0)
+     * @param tickTime fixed duration of a tick in seconds
+     */
+    public void tick(long tick, float tickTime);
+    
+}
@@ -0,0 +1,287 @@
+package network.server;
+
+import com.jme3.math.Vector3f;
+import com.jme3.network.HostedConnection;
+import com.jme3.network.serializing.Serializer;
+import com.jme3.scene.Node;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import network.message.world.AddGameObjectMessage;
+import network.message.world.GenerateWorldMessage;
+import network.message.world.InitWorldChunkMessage;
+import network.message.world.InitWorldMessage;
+import network.message.world.RemoveGameObjectsMessage;
+import network.serializer.SerializedMessage;
+import world.GameObjectControl;
+import world.IdList;
+import world.World;
+import world.builder.WorldRecipe;
+
+/**
+ * Sends the static Game Objects (the map) to joining clients in chunks.
+ *
+ * A big map does not fit into a single message and would block the client
+ * until everything arrived. The client instead receives an InitWorldMessage
+ * with the number of Game Objects to expect and then a few
+ * InitWorldChunkMessages per tick, starting with the Game Objects closest to
+ * the spawn position, so the surroundings of the player are there first.
+ *
+ * Game Objects which have been generated with a WorldRecipe are not streamed:
+ * the client receives the recipe and generates them itself. Only generated Game
+ * Objects which have been removed since are sent (as one removal).
+ *
+ * The size of the Game Objects differs (models and logics), so every Game Object
+ * is measured and a chunk ends before it would get bigger than maxChunkBytes
+ * (the message size limit of the network layer).
+ *
+ * Static Game Objects which are added or removed while a client is loading are
+ * broadcast as usual. Game Objects which have been removed before their chunk
+ * was sent are skipped. Once all chunks have been sent the player joins the
+ * room.
+ *
+ * The stream state of each client is stored in its HostedConnection with the
+ * key "WorldStream". Must be used by the update thread of the room only.
+ *
+ * @author Marco Klein
+ */
+public class WorldStreamer implements TickListener {
+
+    private static final Logger LOG = Logger.getLogger(WorldStreamer.class.getName());
+
+    /**
+     * Maximum number of Game Objects per chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 128;
+    public static final int DEFAULT_MAX_CHUNK_BYTES = SerializedMessage.MAX_SIZE;
+    public static final int DEFAULT_CHUNKS_PER_TICK = 2;
+    /**
+     * Class id, array length, loaded and total of an InitWorldChunkMessage.
+     */
+    private static final int CHUNK_OVERHEAD = 2 + 4 + 4 + 4;
+    private static final String STREAM_ATTRIBUTE = "WorldStream";
+
+    private Room room;
+    private World world;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int maxChunkBytes = DEFAULT_MAX_CHUNK_BYTES;
+    private int chunksPerTick = DEFAULT_CHUNKS_PER_TICK;
+
+    private IdList removedIds = new IdList();
+    private ArrayList<AddGameObjectMessage> chunk = new ArrayList<>();
+    /**
+     * Game Objects are serialized into it to measure them.
+     */
+    private ByteBuffer scratch = ByteBuffer.allocate(SerializedMessage.MAX_SIZE);
+
+    private long sentChunks;
+
+    public WorldStreamer(Room room, World world) {
+        this(room, world, DEFAULT_CHUNK_SIZE);
+    }
+
+    public WorldStreamer(Room room, World world, int chunkSize) {
+        this.room = room;
+        this.world = world;
+        setChunkSize(chunkSize);
+    }
+
+    /**
+     * Sends the InitWorldMessage and the recipes of the world to the given
+     * connection and starts streaming the other static Game Objects, closest
+     * to the given location first.
+     *
+     * @param connection
+     * @param location
+     */
+    public void addConnection(HostedConnection connection, Vector3f location) {
+        int count = 0;
+        int[] ids = new int[world.getGameObjectCount()];
+        long[] keys = new long[ids.length];
+        for (int i = 0; i < world.getGameObjectCount(); i++) {
+            Node gameObject = world.getGameObjectAt(i);
+            int id = world.getGameObjectIdAt(i);
+            if (Room.isStatic(gameObject) && !world.isGenerated(id)) {
+                ids[count] = id;
+                // distances are positive, so their bits sort like the floats
+                float distance = gameObject.getWorldTranslation().distanceSquared(location);
+                keys[count] = (long) Float.floatToIntBits(distance) << 32 | count;
+                count++;
+            }
+        }
+        Arrays.sort(keys, 0, count);
+        int[] sortedIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            sortedIds[i] = ids[(int) keys[i]];
+        }
+
+        LOG.log(Level.INFO, "Streaming {0} game objects.", count);
+        room.getSendStage().send(connection, new InitWorldMessage(world, count).setTickRate(room.getTickState().getTickRate()));
+        sendRecipes(connection);
+        connection.setAttribute(STREAM_ATTRIBUTE, new Stream(sortedIds));
+    }
+
+    /**
+     * Lets the client generate the Game Objects of all recipes and removes the
+     * generated Game Objects which do not exist anymore.
+     */
+    private void sendRecipes(HostedConnection connection) {
+        removedIds.clear();
+        for (WorldRecipe recipe : world.getRecipes()) {
+            room.getSendStage().send(connection, new GenerateWorldMessage(recipe));
+            for (int id = recipe.getFirstId(); id < recipe.getFirstId() + recipe.getGameObjectCount(); id++) {
+                if (!world.containsGameObject(id)) {
+                    removedIds.add(id);
+                }
+            }
+        }
+        if (removedIds.size() > 0) {
+            room.getSendStage().send(connection, new RemoveGameObjectsMessage(removedIds.toArray()));
+        }
+    }
+
+    /**
+     * @param connection
+     * @return true if the given connection is still receiving the world
+     */
+    public boolean isStreaming(HostedConnection connection) {
+        return connection.getAttribute(STREAM_ATTRIBUTE) != null;
+    }
+
+    @Override
+    public void tick(long tick, float tickTime) {
+        for (HostedConnection connection : room.getConnections()) {
+            Stream stream = connection.getAttribute(STREAM_ATTRIBUTE);
+            if (stream == null) {
+                continue;
+            }
+            for (int i = 0; i < chunksPerTick && !stream.isFinished(); i++) {
+                sendChunk(connection, stream);
+            }
+            if (stream.isFinished()) {
+                connection.setAttribute(STREAM_ATTRIBUTE, null);
+                room.worldStreamed(connection);
+            }
+        }
+    }
+
+    private void sendChunk(HostedConnection connection, Stream stream) {
+        chunk.clear();
+        int bytes = CHUNK_OVERHEAD;
+        while (!stream.isFinished() && chunk.size() < chunkSize) {
+            GameObjectControl control = world.getGameObjectControl(stream.ids[stream.next]);
+            if (control == null) {
+                // removed before it was sent
+                stream.next++;
+                continue;
+            }
+            AddGameObjectMessage message = new AddGameObjectMessage(control);
+            int size = measure(message, control.getId());
+            if (!chunk.isEmpty() && bytes + size > maxChunkBytes) {
+                // sent with the next chunk
+                break;
+            }
+            chunk.add(message);
+            bytes += size;
+            stream.next++;
+        }
+        AddGameObjectMessage[] msgs = chunk.toArray(new AddGameObjectMessage[chunk.size()]);
+        chunk.clear();
+        // changes of the world which were sent before must arrive first
+        room.getBundler().flush(connection);
+        room.getSendStage().send(connection, new InitWorldChunkMessage(msgs, stream.next, stream.ids.length));
+        sentChunks++;
+    }
+
+    /**
+     * @return size of the Game Object inside of a chunk in bytes
+     */
+    private int measure(AddGameObjectMessage message, int id) {
+        scratch.clear();
+        try {
+            Serializer.writeClassAndObject(scratch, message);
+        } catch (IOException | BufferOverflowException ex) {
+            LOG.log(Level.WARNING, "Game Object {0} does not fit into a message.", id);
+            return maxChunkBytes;
+        }
+        return scratch.position();
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the maximum number of Game Objects per chunk.
+     *
+     * @param chunkSize
+     */
+    public final void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be greater than 0.");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public int getMaxChunkBytes() {
+        return maxChunkBytes;
+    }
+
+    /**
+     * Sets the maximum size of a serialized chunk. A single Game Object which is
+     * bigger is sent in a chunk of its own.
+     *
+     * @param maxChunkBytes at most SerializedMessage.MAX_SIZE
+     */
+    public void setMaxChunkBytes(int maxChunkBytes) {
+        if (maxChunkBytes <= CHUNK_OVERHEAD || maxChunkBytes > SerializedMessage.MAX_SIZE) {
+            throw new IllegalArgumentException("Max chunk bytes must be between " + (CHUNK_OVERHEAD + 1)
+                    + " and " + SerializedMessage.MAX_SIZE + ".");
+        }
+        this.maxChunkBytes = maxChunkBytes;
+    }
+
+    public int getChunksPerTick() {
+        return chunksPerTick;
+    }
+
+    /**
+     * Sets how many chunks are sent to each loading client per tick.
+     *
+     * @param chunksPerTick
+     */
+    public void setChunksPerTick(int chunksPerTick) {
+        if (chunksPerTick <= 0) {
+            throw new IllegalArgumentException("Chunks per tick must be greater than 0.");
+        }
+        this.chunksPerTick = chunksPerTick;
+    }
+
+    public long getSentChunks() {
+        return sentChunks;
+    }
+
+    /**
+     * Static Game Objects a client still has to receive.
+     */
+    private static class Stream {
+
+        private int[] ids;
+        private int next;
+
+        private Stream(int[] ids) {
+            this.ids = ids;
+        }
+
+        private boolean isFinished() {
+            return next == ids.length;
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+package network.snapshot;
+
+import java.util.Arrays;
+
+/**
+ * Replicated state of the world at one tick.
+ *
+ * A snapshot stores the transform (location and rotation of the model) of every
+ * replicated Game Object, sorted by id so two snapshots can be compared in a
+ * single pass. Transforms are stored encoded with the TransformCodec of the
+ * world, so changes smaller than its precision are not seen as changes.
+ * Snapshots are recycled by the SnapshotBuffer, so capturing the world does not
+ * create objects once the arrays are big enough.
+ *
+ * @author Marco Klein
+ */
+public class Snapshot {
+
+    private long tick = -1;
+    private int[] ids = new int[16];
+    private long[] locations = new long[16];
+    private int[] rotations = new int[16];
+    private int size;
+
+    /**
+     * Removes all entries.
+     *
+     * @param tick tick of the new state
+     */
+    public void clear(long tick) {
+        this.tick = tick;
+        size = 0;
+    }
+
+    /**
+     * Adds a transform. Ids have to be added in ascending order.
+     *
+     * @param id
+     * @param location encoded location
+     * @param rotation encoded rotation
+     */
+    public void add(int id, long location, int rotation) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            locations = Arrays.copyOf(locations, size * 2);
+            rotations = Arrays.copyOf(rotations, size * 2);
+        }
+        ids[size] = id;
+        locations[size] = location;
+        rotations[size] = rotation;
+        size++;
+    }
+
+    /**
+     * Adds the entry at index of another snapshot.
+     *
+     * @param other
+     * @param index
+     */
+    public void add(Snapshot other, int index) {
+        add(other.ids[index], other.locations[index], other.rotations[index]);
+    }
+
+    /**
+     * Makes this snapshot a copy of the given one.
+     *
+     * @param other
+     */
+    public void set(Snapshot other) {
+        clear(other.tick);
+        for (int i = 0; i < other.size; i++) {
+            add(other, i);
+        }
+    }
+
+    /**
+     * @param id
+     * @return index of the entry with the given id or a negative value
+     */
+    public int indexOf(int id) {
+        return Arrays.binarySearch(ids, 0, size, id);
+    }
+
+    /**
+     * Compares the transform at index with the transform of another snapshot.
+     *
+     * @param index
+     * @param other
+     * @param otherIndex
+     * @return true if both are the same
+     */
+    public boolean equalTransform(int index, Snapshot other, int otherIndex) {
+        return locations[index] == other.locations[otherIndex]
+                && rotations[index] == other.rotations[otherIndex];
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    public long getLocation(int index) {
+        return locations[index];
+    }
+
+    public int getRotation(int index) {
+        return rotations[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+}
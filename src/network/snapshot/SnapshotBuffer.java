@@ -0,0 +1,65 @@
+package network.snapshot;
+
+/**
+ * Ring buffer of the last snapshots, indexed by tick.
+ *
+ * The Snapshot objects are reused, so a snapshot taken from the buffer is only
+ * valid until the buffer wrapped around.
+ *
+ * @author Marco Klein
+ */
+public class SnapshotBuffer {
+
+    private Snapshot[] snapshots;
+    private long latestTick = -1;
+
+    public SnapshotBuffer(int capacity) {
+        snapshots = new Snapshot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            snapshots[i] = new Snapshot();
+        }
+    }
+
+    /**
+     * Returns a cleared snapshot for the given tick. Overwrites the oldest
+     * snapshot.
+     *
+     * @param tick
+     * @return
+     */
+    public Snapshot next(long tick) {
+        Snapshot snapshot = snapshots[(int) (tick % snapshots.length)];
+        snapshot.clear(tick);
+        latestTick = Math.max(latestTick, tick);
+        return snapshot;
+    }
+
+    /**
+     * @param tick
+     * @return snapshot of the given tick or null if it is not in the buffer
+     * (anymore)
+     */
+    public Snapshot get(long tick) {
+        if (tick < 0) {
+            return null;
+        }
+        Snapshot snapshot = snapshots[(int) (tick % snapshots.length)];
+        return snapshot.getTick() == tick ? snapshot : null;
+    }
+
+    /**
+     * @return newest snapshot or null if the buffer is empty
+     */
+    public Snapshot getLatest() {
+        return get(latestTick);
+    }
+
+    public long getLatestTick() {
+        return latestTick;
+    }
+
+    public int getCapacity() {
+        return snapshots.length;
+    }
+
+}
@@ -0,0 +1,70 @@
+package network.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts values in buckets whose upper bounds double from bucket to bucket.
+ * The last bucket counts all values above the bound of the bucket before.
+ * May be used by any thread.
+ *
+ * @author Marco Klein
+ */
+public class Histogram {
+
+    private final int firstBound;
+    private final AtomicLongArray counts;
+
+    /**
+     * @param firstBound upper bound of the first bucket
+     * @param buckets number of buckets
+     */
+    public Histogram(int firstBound, int buckets) {
+        if (firstBound <= 0 || buckets <= 0) {
+            throw new IllegalArgumentException("First bound and buckets must be greater than 0.");
+        }
+        this.firstBound = firstBound;
+        this.counts = new AtomicLongArray(buckets);
+    }
+
+    public void record(int value) {
+        int bucket = 0;
+        long bound = firstBound;
+        while (value > bound && bucket < counts.length() - 1) {
+            bound <<= 1;
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+    }
+
+    /**
+     * @return number of values of each bucket
+     */
+    public long[] getCounts() {
+        long[] values = new long[counts.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = counts.get(i);
+        }
+        return values;
+    }
+
+    /**
+     * @return description of the range of each bucket, e.g. "<= 16"
+     */
+    public String[] getBuckets() {
+        String[] buckets = new String[counts.length()];
+        long bound = firstBound;
+        for (int i = 0; i < buckets.length - 1; i++) {
+            buckets[i] = "<= " + bound;
+            bound <<= 1;
+        }
+        buckets[buckets.length - 1] = buckets.length == 1 ? "all" : "> " + (bound >> 1);
+        return buckets;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+
+}
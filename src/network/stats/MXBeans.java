@@ -0,0 +1,52 @@
+package network.stats;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Registers MXBeans at the platform MBeanServer. Failures are only logged,
+ * since the statistics are not needed to run the game.
+ *
+ * @author Marco Klein
+ */
+public class MXBeans {
+    private static final Logger LOG = Logger.getLogger(MXBeans.class.getName());
+
+    private MXBeans() {
+    }
+
+    /**
+     * @param bean
+     * @param name e.g. "network:type=Traffic,name=Server"
+     * @return name of the registered bean or null if it could not be registered
+     * (e.g. if another bean has been registered with the same name)
+     */
+    public static ObjectName register(Object bean, String name) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, objectName);
+            return objectName;
+        } catch (JMException ex) {
+            LOG.log(Level.WARNING, "Could not register " + name + ".", ex);
+            return null;
+        }
+    }
+
+    /**
+     * @param name name returned by register() or null
+     */
+    public static void unregister(ObjectName name) {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException ex) {
+            LOG.log(Level.WARNING, "Could not unregister " + name + ".", ex);
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package network.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts messages and their sizes. May be used by any thread.
+ *
+ * @author Marco Klein
+ */
+public class TrafficCounter {
+
+    /**
+     * 16 bytes up to the message size limit of jME (32 KB).
+     */
+    public static final int FIRST_SIZE_BOUND = 16;
+    public static final int SIZE_BUCKETS = 12;
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong maxSize = new AtomicLong();
+    private final Histogram sizes = new Histogram(FIRST_SIZE_BOUND, SIZE_BUCKETS);
+
+    /**
+     * @param size size of the message in bytes
+     */
+    public void record(int size) {
+        count.incrementAndGet();
+        bytes.addAndGet(size);
+        long max = maxSize.get();
+        while (size > max && !maxSize.compareAndSet(max, size)) {
+            max = maxSize.get();
+        }
+        sizes.record(size);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return current values
+     */
+    public TrafficData getData() {
+        return new TrafficData(count.get(), bytes.get(), maxSize.get(), sizes.getCounts());
+    }
+
+    public void reset() {
+        count.set(0);
+        bytes.set(0);
+        maxSize.set(0);
+        sizes.reset();
+    }
+
+}
@@ -0,0 +1,55 @@
+package network.stats;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Values of a TrafficCounter at one point in time (shown as composite data
+ * over JMX).
+ *
+ * @author Marco Klein
+ */
+public class TrafficData {
+
+    private final long count;
+    private final long bytes;
+    private final long maxSize;
+    private final long[] sizeHistogram;
+
+    @ConstructorProperties({"count", "bytes", "maxSize", "sizeHistogram"})
+    public TrafficData(long count, long bytes, long maxSize, long[] sizeHistogram) {
+        this.count = count;
+        this.bytes = bytes;
+        this.maxSize = maxSize;
+        this.sizeHistogram = sizeHistogram;
+    }
+
+    /**
+     * @return number of messages
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return size of all messages in bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return size of the biggest message in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return number of messages per size bucket (see
+     * TrafficStatsMXBean.getSizeBuckets())
+     */
+    public long[] getSizeHistogram() {
+        return sizeHistogram;
+    }
+
+}
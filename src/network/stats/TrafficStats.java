@@ -0,0 +1,235 @@
+package network.stats;
+
+import com.jme3.network.Message;
+import com.jme3.network.serializing.Serializer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.ObjectName;
+
+/**
+ * Counts the messages sent and received by a GameServer or GameClient by
+ * message type and by connection, together with their sizes.
+ *
+ * The network layer of jME does not tell the size of a message. Messages whose
+ * size is known (the SerializedMessages sent by the SendStage of the server)
+ * are always counted. All other messages (received messages and the messages
+ * of the client) would have to be serialized again to measure them, so they
+ * are only counted while measuring is enabled (off by default, can be enabled
+ * at runtime e.g. over JMX). Counting can be disabled completely.
+ *
+ * Registered as MXBean with the name "network:type=Traffic,name=..." (see
+ * register()). May be used by any thread.
+ *
+ * @author Marco Klein
+ */
+public class TrafficStats implements TrafficStatsMXBean {
+    private static final Logger LOG = Logger.getLogger(TrafficStats.class.getName());
+
+    private static final ThreadLocal<ByteBuffer> SCRATCH = new ThreadLocal<ByteBuffer>() {
+
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(32767);
+        }
+
+    };
+
+    private volatile boolean enabled = true;
+    private volatile boolean measuring;
+
+    private final TrafficCounter sent = new TrafficCounter();
+    private final TrafficCounter received = new TrafficCounter();
+    private final ConcurrentHashMap<String, TrafficCounter> sentByType = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TrafficCounter> receivedByType = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TrafficCounter> sentByConnection = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TrafficCounter> receivedByConnection = new ConcurrentHashMap<>();
+
+    private ObjectName objectName;
+
+    /**
+     * Counts a message which has been sent if measuring is enabled.
+     *
+     * @param connection name of the receiver
+     * @param message
+     */
+    public void messageSent(String connection, Message message) {
+        if (enabled && measuring) {
+            messageSent(connection, message.getClass(), measure(message));
+        }
+    }
+
+    /**
+     * Counts a message with a known size which has been sent.
+     *
+     * @param connection name of the receiver
+     * @param type class of the message
+     * @param size size of the serialized message in bytes
+     */
+    public void messageSent(String connection, Class<?> type, int size) {
+        if (!enabled) {
+            return;
+        }
+        sent.record(size);
+        counter(sentByType, type.getSimpleName()).record(size);
+        counter(sentByConnection, connection).record(size);
+    }
+
+    /**
+     * Counts a message which has been received if measuring is enabled.
+     *
+     * @param connection name of the sender
+     * @param message
+     */
+    public void messageReceived(String connection, Message message) {
+        if (!enabled || !measuring) {
+            return;
+        }
+        int size = measure(message);
+        received.record(size);
+        counter(receivedByType, message.getClass().getSimpleName()).record(size);
+        counter(receivedByConnection, connection).record(size);
+    }
+
+    /**
+     * Forgets the counters of the given connection.
+     *
+     * @param connection
+     */
+    public void removeConnection(String connection) {
+        sentByConnection.remove(connection);
+        receivedByConnection.remove(connection);
+    }
+
+    private TrafficCounter counter(ConcurrentHashMap<String, TrafficCounter> counters, String key) {
+        TrafficCounter counter = counters.get(key);
+        if (counter == null) {
+            counter = new TrafficCounter();
+            TrafficCounter existing = counters.putIfAbsent(key, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @param message
+     * @return size of the serialized message in bytes or 0 if it could not be
+     * serialized
+     */
+    private int measure(Message message) {
+        ByteBuffer scratch = SCRATCH.get();
+        scratch.clear();
+        try {
+            Serializer.writeClassAndObject(scratch, message);
+        } catch (IOException | RuntimeException ex) {
+            LOG.log(Level.FINE, "Could not measure " + message.getClass().getSimpleName() + ".", ex);
+            return 0;
+        }
+        return scratch.position();
+    }
+
+    /**
+     * Registers this as MXBean with the name "network:type=Traffic,name=" +
+     * name.
+     *
+     * @param name e.g. "Server"
+     */
+    public void register(String name) {
+        objectName = MXBeans.register(this, "network:type=Traffic,name=" + name);
+    }
+
+    public void unregister() {
+        MXBeans.unregister(objectName);
+        objectName = null;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public boolean isMeasuring() {
+        return measuring;
+    }
+
+    @Override
+    public void setMeasuring(boolean measuring) {
+        this.measuring = measuring;
+    }
+
+    @Override
+    public long getSentMessages() {
+        return sent.getCount();
+    }
+
+    @Override
+    public long getSentBytes() {
+        return sent.getBytes();
+    }
+
+    @Override
+    public long getReceivedMessages() {
+        return received.getCount();
+    }
+
+    @Override
+    public long getReceivedBytes() {
+        return received.getBytes();
+    }
+
+    @Override
+    public Map<String, TrafficData> getSentByType() {
+        return getData(sentByType);
+    }
+
+    @Override
+    public Map<String, TrafficData> getReceivedByType() {
+        return getData(receivedByType);
+    }
+
+    @Override
+    public Map<String, TrafficData> getSentByConnection() {
+        return getData(sentByConnection);
+    }
+
+    @Override
+    public Map<String, TrafficData> getReceivedByConnection() {
+        return getData(receivedByConnection);
+    }
+
+    private Map<String, TrafficData> getData(ConcurrentHashMap<String, TrafficCounter> counters) {
+        TreeMap<String, TrafficData> data = new TreeMap<>();
+        for (Map.Entry<String, TrafficCounter> entry : counters.entrySet()) {
+            data.put(entry.getKey(), entry.getValue().getData());
+        }
+        return data;
+    }
+
+    @Override
+    public String[] getSizeBuckets() {
+        return new Histogram(TrafficCounter.FIRST_SIZE_BOUND, TrafficCounter.SIZE_BUCKETS).getBuckets();
+    }
+
+    @Override
+    public void reset() {
+        sent.reset();
+        received.reset();
+        sentByType.clear();
+        receivedByType.clear();
+        sentByConnection.clear();
+        receivedByConnection.clear();
+    }
+
+}
@@ -0,0 +1,50 @@
+package network.stats;
+
+import java.util.Map;
+
+/**
+ * Network traffic of a GameServer or GameClient over JMX.
+ *
+ * Sizes are the sizes of the serialized messages without the header of the
+ * network layer. Types are the simple class names of the messages.
+ *
+ * @author Marco Klein
+ */
+public interface TrafficStatsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return true if messages of unknown size (all received messages and the
+     * messages sent by a client) are serialized again to count them
+     */
+    boolean isMeasuring();
+
+    void setMeasuring(boolean measuring);
+
+    long getSentMessages();
+
+    long getSentBytes();
+
+    long getReceivedMessages();
+
+    long getReceivedBytes();
+
+    Map<String, TrafficData> getSentByType();
+
+    Map<String, TrafficData> getReceivedByType();
+
+    Map<String, TrafficData> getSentByConnection();
+
+    Map<String, TrafficData> getReceivedByConnection();
+
+    /**
+     * @return size range of each bucket of the size histograms
+     */
+    String[] getSizeBuckets();
+
+    void reset();
+
+}
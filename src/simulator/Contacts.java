@@ -0,0 +1,63 @@
+package simulator;
+
+import java.util.Arrays;
+
+/**
+ * Reusable buffer of contacts between one player and the obstacles.
+ *
+ * Every contact has the index of the obstacle, the normal pointing from the
+ * obstacle to the player and the penetration depth along it. Each thread of the
+ * Simulator owns one buffer, so finding contacts does not create objects.
+ *
+ * @author Marco Klein
+ */
+class Contacts {
+
+    private int[] obstacles = new int[8];
+    private float[] normals = new float[24];
+    private float[] depths = new float[8];
+    private int size;
+
+    void add(int obstacle, float normalX, float normalY, float normalZ, float depth) {
+        if (size == obstacles.length) {
+            obstacles = Arrays.copyOf(obstacles, size * 2);
+            normals = Arrays.copyOf(normals, size * 6);
+            depths = Arrays.copyOf(depths, size * 2);
+        }
+        obstacles[size] = obstacle;
+        normals[size * 3] = normalX;
+        normals[size * 3 + 1] = normalY;
+        normals[size * 3 + 2] = normalZ;
+        depths[size] = depth;
+        size++;
+    }
+
+    int getObstacle(int index) {
+        return obstacles[index];
+    }
+
+    float getNormalX(int index) {
+        return normals[index * 3];
+    }
+
+    float getNormalY(int index) {
+        return normals[index * 3 + 1];
+    }
+
+    float getNormalZ(int index) {
+        return normals[index * 3 + 2];
+    }
+
+    float getDepth(int index) {
+        return depths[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+}
@@ -0,0 +1,249 @@
+package simulator;
+
+import java.util.Arrays;
+import world.IdList;
+
+/**
+ * Uniform grid over the boxes of all obstacles.
+ *
+ * Obstacles rarely move, so the grid is rebuilt as a whole when a box changed
+ * and is only read while players are moved. Every obstacle is stored in all
+ * cells it overlaps. Obstacles covering more than MAX_CELLS_PER_OBSTACLE cells
+ * (for example the ground) are kept in a separate list which is tested by every
+ * query.
+ *
+ * Queries do not create objects and do not change the grid, so several threads
+ * may query it at the same time.
+ *
+ * @author Marco Klein
+ */
+class ObstacleGrid {
+
+    private static final int NONE = -1;
+    private static final int MAX_CELLS_PER_OBSTACLE = 64;
+    private static final int COORD_BITS = 21;
+    private static final int COORD_OFFSET = 1 << (COORD_BITS - 1);
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+
+    private final float cellSize;
+    private final float invCellSize;
+
+    /**
+     * Boxes of the obstacles (min x, y, z and max x, y, z). Not copied.
+     */
+    private float[] boxes = new float[0];
+    private int count;
+
+    // open addressing hash table of cells, each cell owns a range of entries
+    private long[] cellKeys = new long[0];
+    private int[] cellStart = new int[0];
+    private int[] cellEnd = new int[0];
+    private int[] entries = new int[0];
+
+    private IdList large = new IdList();
+
+    ObstacleGrid(float cellSize) {
+        this.cellSize = cellSize;
+        this.invCellSize = 1f / cellSize;
+    }
+
+    float getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Sorts the given boxes into the grid.
+     *
+     * @param boxes min x, y, z and max x, y, z of every obstacle
+     * @param count number of obstacles
+     */
+    void build(float[] boxes, int count) {
+        this.boxes = boxes;
+        this.count = count;
+        large.clear();
+
+        // count entries per cell
+        int entryCount = 0;
+        for (int i = 0; i < count; i++) {
+            double cells = cellsCovered(i);
+            if (cells > MAX_CELLS_PER_OBSTACLE) {
+                large.add(i);
+            } else {
+                entryCount += (int) cells;
+            }
+        }
+        int tableSize = Math.max(16, Integer.highestOneBit(Math.max(1, entryCount)) << 2);
+        if (cellKeys.length < tableSize) {
+            cellKeys = new long[tableSize];
+            cellStart = new int[tableSize];
+            cellEnd = new int[tableSize];
+        }
+        if (entries.length < entryCount) {
+            entries = new int[entryCount];
+        }
+        Arrays.fill(cellEnd, 0);
+        Arrays.fill(cellStart, NONE);
+        int mask = cellKeys.length - 1;
+
+        // reserve a range of entries for every cell (cellEnd counts first)
+        for (int i = 0; i < count; i++) {
+            if (cellsCovered(i) > MAX_CELLS_PER_OBSTACLE) {
+                continue;
+            }
+            int o = i * 6;
+            for (int cz = cell(boxes[o + 2]); cz <= cell(boxes[o + 5]); cz++) {
+                for (int cy = cell(boxes[o + 1]); cy <= cell(boxes[o + 4]); cy++) {
+                    for (int cx = cell(boxes[o]); cx <= cell(boxes[o + 3]); cx++) {
+                        cellEnd[findOrCreateCell(key(cx, cy, cz), mask)]++;
+                    }
+                }
+            }
+        }
+        int offset = 0;
+        for (int c = 0; c < cellKeys.length; c++) {
+            if (cellStart[c] != NONE) {
+                cellStart[c] = offset;
+                offset += cellEnd[c];
+                cellEnd[c] = cellStart[c];
+            }
+        }
+        // fill the entries
+        for (int i = 0; i < count; i++) {
+            if (cellsCovered(i) > MAX_CELLS_PER_OBSTACLE) {
+                continue;
+            }
+            int o = i * 6;
+            for (int cz = cell(boxes[o + 2]); cz <= cell(boxes[o + 5]); cz++) {
+                for (int cy = cell(boxes[o + 1]); cy <= cell(boxes[o + 4]); cy++) {
+                    for (int cx = cell(boxes[o]); cx <= cell(boxes[o + 3]); cx++) {
+                        int c = findCell(key(cx, cy, cz), mask);
+                        entries[cellEnd[c]++] = i;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the indices of all obstacles whose box overlaps the given box.
+     * Every obstacle is added once.
+     *
+     * @param result cleared and filled with obstacle indices
+     */
+    void query(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, IdList result) {
+        result.clear();
+        double cells = ((double) cell(maxX) - cell(minX) + 1)
+                * ((double) cell(maxY) - cell(minY) + 1)
+                * ((double) cell(maxZ) - cell(minZ) + 1);
+        if (cells > cellKeys.length) {
+            // huge box: testing every obstacle is faster than visiting the cells
+            for (int i = 0; i < count; i++) {
+                if (overlaps(i, minX, minY, minZ, maxX, maxY, maxZ)) {
+                    result.add(i);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < large.size(); i++) {
+            int obstacle = large.get(i);
+            if (overlaps(obstacle, minX, minY, minZ, maxX, maxY, maxZ)) {
+                result.add(obstacle);
+            }
+        }
+        int mask = cellKeys.length - 1;
+        int minCX = cell(minX);
+        int minCY = cell(minY);
+        int minCZ = cell(minZ);
+        for (int cz = minCZ; cz <= cell(maxZ); cz++) {
+            for (int cy = minCY; cy <= cell(maxY); cy++) {
+                for (int cx = minCX; cx <= cell(maxX); cx++) {
+                    int c = findCell(key(cx, cy, cz), mask);
+                    if (c == NONE) {
+                        continue;
+                    }
+                    for (int e = cellStart[c]; e < cellEnd[c]; e++) {
+                        int obstacle = entries[e];
+                        int o = obstacle * 6;
+                        // only report the obstacle in the first visited cell it
+                        // shares with the queried box
+                        if (cx != Math.max(minCX, cell(boxes[o]))
+                                || cy != Math.max(minCY, cell(boxes[o + 1]))
+                                || cz != Math.max(minCZ, cell(boxes[o + 2]))) {
+                            continue;
+                        }
+                        if (overlaps(obstacle, minX, minY, minZ, maxX, maxY, maxZ)) {
+                            result.add(obstacle);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean overlaps(int obstacle, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int o = obstacle * 6;
+        return boxes[o] <= maxX && boxes[o + 3] >= minX
+                && boxes[o + 1] <= maxY && boxes[o + 4] >= minY
+                && boxes[o + 2] <= maxZ && boxes[o + 5] >= minZ;
+    }
+
+    /**
+     * Computed with doubles, the product of three clamped cell ranges does not
+     * fit into a long.
+     */
+    private double cellsCovered(int obstacle) {
+        int o = obstacle * 6;
+        return ((double) cell(boxes[o + 3]) - cell(boxes[o]) + 1)
+                * ((double) cell(boxes[o + 4]) - cell(boxes[o + 1]) + 1)
+                * ((double) cell(boxes[o + 5]) - cell(boxes[o + 2]) + 1);
+    }
+
+    /**
+     * Cells are clamped to the range of the keys, so huge or infinite boxes
+     * cover a limited number of cells and loops over cells end.
+     */
+    private int cell(float coordinate) {
+        double cell = Math.floor((double) coordinate * invCellSize);
+        if (!(cell > -COORD_OFFSET)) {
+            // also NaN
+            return -COORD_OFFSET;
+        }
+        return (int) Math.min(cell, COORD_OFFSET - 1);
+    }
+
+    private static long key(int cx, int cy, int cz) {
+        return ((cx + COORD_OFFSET) & COORD_MASK)
+                | (((cy + COORD_OFFSET) & COORD_MASK) << COORD_BITS)
+                | (((cz + COORD_OFFSET) & COORD_MASK) << (2 * COORD_BITS));
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int findCell(long key, int mask) {
+        int i = hash(key) & mask;
+        while (cellStart[i] != NONE) {
+            if (cellKeys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return NONE;
+    }
+
+    private int findOrCreateCell(long key, int mask) {
+        int i = hash(key) & mask;
+        while (cellStart[i] != NONE) {
+            if (cellKeys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        cellKeys[i] = key;
+        cellStart[i] = 0;
+        return i;
+    }
+
+}
@@ -0,0 +1,105 @@
+package simulator;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+
+/**
+ * Input of a player for one step of the Simulator: the pressed buttons and the
+ * direction the camera looks at (yaw).
+ *
+ * The buttons are packed into a byte and the yaw into a short, so an input
+ * takes three bytes on the network. Inputs are numbered, so the client can tell
+ * which of its inputs the server has already applied (client side prediction).
+ *
+ * @author Marco Klein
+ */
+public class PlayerInput {
+
+    public static final byte FORWARD = 1;
+    public static final byte BACKWARD = 2;
+    public static final byte LEFT = 4;
+    public static final byte RIGHT = 8;
+    /**
+     * Jump has been pressed (not held) since the last input.
+     */
+    public static final byte JUMP = 16;
+
+    private static final float YAW_SCALE = 32768 / FastMath.PI;
+
+    private int sequence;
+    private byte buttons;
+    private short yaw;
+
+    public PlayerInput() {
+    }
+
+    public PlayerInput set(int sequence, byte buttons, short yaw) {
+        this.sequence = sequence;
+        this.buttons = buttons;
+        this.yaw = yaw;
+        return this;
+    }
+
+    public PlayerInput set(PlayerInput other) {
+        return set(other.sequence, other.buttons, other.yaw);
+    }
+
+    /**
+     * Calculates the walk direction in world space.
+     *
+     * @param speed length of the walk direction
+     * @param store
+     * @return
+     */
+    public Vector3f getWalkDirection(float speed, Vector3f store) {
+        float yawAngle = getYaw();
+        float sin = FastMath.sin(yawAngle);
+        float cos = FastMath.cos(yawAngle);
+        float forward = (isPressed(FORWARD) ? 1 : 0) - (isPressed(BACKWARD) ? 1 : 0);
+        float left = (isPressed(LEFT) ? 1 : 0) - (isPressed(RIGHT) ? 1 : 0);
+        // forward is (sin, 0, cos), left is (cos, 0, -sin)
+        store.set(forward * sin + left * cos, 0, forward * cos - left * sin);
+        return store.normalizeLocal().multLocal(speed);
+    }
+
+    /**
+     * Packs a yaw angle (in radians) into a short.
+     *
+     * @param yaw
+     * @return
+     */
+    public static short packYaw(float yaw) {
+        return (short) Math.round(FastMath.normalize(yaw, -FastMath.PI, FastMath.PI) * YAW_SCALE);
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public byte getButtons() {
+        return buttons;
+    }
+
+    public boolean isPressed(byte button) {
+        return (buttons & button) != 0;
+    }
+
+    public boolean isJump() {
+        return isPressed(JUMP);
+    }
+
+    /**
+     * @return packed yaw
+     */
+    public short getPackedYaw() {
+        return yaw;
+    }
+
+    /**
+     * @return yaw in radians (0 looks along the z axis)
+     */
+    public float getYaw() {
+        return yaw / YAW_SCALE;
+    }
+
+}
@@ -3,18 +3,29 @@ package simulator;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.RenderManager;
 import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Spatial;
 import com.jme3.scene.control.AbstractControl;
 
 /**
+ * Movement state of a player simulated by the Simulator.
+ *
+ * The player is moved by the Simulator only - set the walk direction and call
+ * jump() to control it. The location is the position of the feet of the player
+ * (like the location of a BetterCharacterControl).
+ *
+ * An input driven player is not moved by the steps of the Simulator but only
+ * with Simulator.simulatePlayer(player, input, tpf) for every input of the
+ * player (client side prediction and the authoritative server, which moves it
+ * every step with the last input if the next one is missing).
  *
  * @author Marco Klein
  */
 public class PlayerSimulationControl extends AbstractControl {
 
     private Vector3f walkDirection = new Vector3f();
-    
+
     private boolean onGround;
-    
+
     /**
      * If true the player wants to jump.
      */
@@ -24,38 +35,103 @@ public class PlayerSimulationControl extends AbstractControl {
      */
     private boolean jumping;
 
+    /**
+     * If true the player is only moved by its inputs. Must be set before the
+     * player is added to the world.
+     */
+    private boolean inputDriven;
+
+    private float radius = 0.8f;
+    private float height = 1.6f;
+    private float jumpSpeed = 8f;
+    /**
+     * Walk speed of an input driven player.
+     */
+    private float speed = 8;
+    private float airSpeedMultiplier = 0.8f;
+
+    /**
+     * Simulated location and velocity. Only changed by the Simulator.
+     */
+    private Vector3f location = new Vector3f();
+    private Vector3f velocity = new Vector3f();
+    /**
+     * Location last written to the spatial. If the spatial has another location
+     * it has been moved from outside (teleport).
+     */
+    private Vector3f writtenLocation = new Vector3f();
+
+    public PlayerSimulationControl() {
+    }
+
+    public PlayerSimulationControl(float radius, float height, float jumpSpeed) {
+        this.radius = radius;
+        this.height = height;
+        this.jumpSpeed = jumpSpeed;
+    }
+
+    @Override
+    public void setSpatial(Spatial spatial) {
+        super.setSpatial(spatial);
+        if (spatial != null) {
+            location.set(spatial.getLocalTranslation());
+            writtenLocation.set(location);
+        }
+    }
 
-    private Vector3f tempVector = new Vector3f();
-    
     @Override
     protected void controlUpdate(float tpf) {
-        
-        
-        // move the player into walking direction
-        tempVector.set(walkDirection).multLocal(tpf);
-        spatial.getLocalTranslation().addLocal(tempVector);
+        // the Simulator moves the player
     }
 
     @Override
     protected void controlRender(RenderManager rm, ViewPort vp) {
     }
-    
-    
-    
-    
-    
+
+    /**
+     * Takes over the location of the spatial if it was moved from outside.
+     * Called by the Simulator on the update thread before each step.
+     */
+    void readSpatial() {
+        Vector3f translation = spatial.getLocalTranslation();
+        if (!translation.equals(writtenLocation)) {
+            location.set(translation);
+            velocity.zero();
+        }
+    }
+
+    /**
+     * Moves the spatial to the simulated location.
+     * Called by the Simulator on the update thread after each step.
+     */
+    void writeSpatial() {
+        writtenLocation.set(location);
+        spatial.setLocalTranslation(location);
+    }
+
     public void jump() {
         performJump = true;
     }
-    
+
+    /**
+     * Returns true once if jump() has been called since the last call.
+     *
+     * @return
+     */
+    boolean consumeJump() {
+        boolean jump = performJump;
+        performJump = false;
+        return jump;
+    }
+
     public Vector3f getWalkDirection() {
         return walkDirection;
     }
-    
+
     public void setWalkDirection(Vector3f walkDirection) {
         this.walkDirection = walkDirection;
     }
-    
+
     public boolean isInAir() {
         return !onGround;
     }
@@ -67,6 +143,89 @@ public class PlayerSimulationControl extends AbstractControl {
     public void setOnGround(boolean onGround) {
         this.onGround = onGround;
     }
-    
-    
+
+    public boolean isJumping() {
+        return jumping;
+    }
+
+    void setJumping(boolean jumping) {
+        this.jumping = jumping;
+    }
+
+    /**
+     * Overwrites the simulated state (for example with the state of the server).
+     * The spatial is moved with the next step.
+     *
+     * @param location
+     * @param velocity
+     * @param onGround
+     * @param jumping
+     */
+    public void setState(Vector3f location, Vector3f velocity, boolean onGround, boolean jumping) {
+        this.location.set(location);
+        this.velocity.set(velocity);
+        this.onGround = onGround;
+        this.jumping = jumping;
+    }
+
+    public boolean isInputDriven() {
+        return inputDriven;
+    }
+
+    /**
+     * If true the Simulator does not move the player by itself. Must be set
+     * before the player is added to the world.
+     *
+     * @param inputDriven
+     */
+    public void setInputDriven(boolean inputDriven) {
+        this.inputDriven = inputDriven;
+    }
+
+    public Vector3f getLocation() {
+        return location;
+    }
+
+    public Vector3f getVelocity() {
+        return velocity;
+    }
+
+    public float getRadius() {
+        return radius;
+    }
+
+    public float getHeight() {
+        return height;
+    }
+
+    public float getJumpSpeed() {
+        return jumpSpeed;
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Sets the walk speed used for the inputs of an input driven player.
+     *
+     * @param speed
+     */
+    public void setSpeed(float speed) {
+        this.speed = speed;
+    }
+
+    public float getAirSpeedMultiplier() {
+        return airSpeedMultiplier;
+    }
+
+    /**
+     * Sets how much slower an input driven player moves while in air.
+     *
+     * @param airSpeedMultiplier
+     */
+    public void setAirSpeedMultiplier(float airSpeedMultiplier) {
+        this.airSpeedMultiplier = airSpeedMultiplier;
+    }
+
 }
@@ -3,48 +3,117 @@ package simulator;
 import com.jme3.app.Application;
 import com.jme3.app.state.AbstractAppState;
 import com.jme3.app.state.AppStateManager;
-import com.jme3.collision.CollisionResult;
-import com.jme3.collision.CollisionResults;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.bullet.control.RigidBodyControl;
 import com.jme3.math.Vector3f;
+import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import world.IdList;
 import world.World;
+import world.WorldListener;
+import world.builder.WorldRecipe;
 import world.control.ObstacleControl;
-import world.control.PlayerControl;
 
 /**
  * Simulates all Game Objects of the world.
- * 
+ *
  * It moves obtacles and players and simulates.
- * 
+ *
  * There is only collision detection between players and obstacles.
  * So players can walk over each other.
  * For obstacles and obstacles collision detection would make no sense since
  * they are part of the world.
- * 
+ *
  * The Simulator uses the WorldListener to know when new objects are added.
  * It checks added controls to determin which kind of Game Object has been added.
- * For example if it finds a PlayerControl it assuems the Game Object to be a player.
+ * For example if it finds a PlayerSimulationControl it assuems the Game Object to
+ * be a player. Game Objects with an ObstacleControl or a static RigidBodyControl
+ * are obstacles. Input driven players are not moved by the steps but with
+ * simulatePlayer(player, input, tpf) by their owner, once per step (the
+ * InputProcessor of the server repeats the last input if none arrived).
+ *
+ * The simulation does not use Bullet. It runs with a fixed step time so the result
+ * only depends on the inputs of the players. Players do not influence each
+ * other, so they are moved in parallel by several threads. The scene graph is
+ * only read and written by the update thread before and after each step.
  *
  * @author Marco Klein
  */
-public class Simulator extends AbstractAppState {
+public class Simulator extends AbstractAppState implements WorldListener {
     private static final Logger LOG = Logger.getLogger(Simulator.class.getName());
-    
+
+    public static final float DEFAULT_STEP_TIME = 1f / 60f;
+    public static final int MAX_STEPS_PER_UPDATE = 5;
+    /**
+     * Below this number of players a step runs on the update thread only.
+     */
+    private static final int MIN_PLAYERS_PER_THREAD = 64;
+    public static final float DEFAULT_OBSTACLE_CELL_SIZE = 4;
+    /**
+     * Contacts with a steeper normal do not count as ground.
+     */
+    private static final float MIN_GROUND_NORMAL_Y = 0.7f;
+
     private World world;
-    
+
     /**
-     * All objects with the PlayerControl
+     * All objects with the PlayerSimulationControl
      */
     private ArrayList<Spatial> players;
+    private ArrayList<PlayerSimulationControl> playerControls;
     /**
-     * All objects with the ObstacleControl
+     * All objects with the ObstacleControl (or a static RigidBodyControl) and
+     * their ObstacleControls (null for static obstacles).
      */
     private ArrayList<Spatial> obstacles;
+    private ArrayList<ObstacleControl> obstacleControls;
+    /**
+     * Boxes of all obstacles (min x, y, z and max x, y, z), only read while
+     * players are moved. obstacleBoxIndex maps every obstacle to its box (-1
+     * if its bound is not a box).
+     */
+    private float[] obstacleBoxes = new float[0];
+    private int obstacleCount;
+    private int[] obstacleBoxIndex = new int[0];
+    /**
+     * True if obstacles were added or removed since the boxes were copied.
+     */
+    private boolean obstaclesChanged = true;
+    private ObstacleGrid obstacleGrid = new ObstacleGrid(DEFAULT_OBSTACLE_CELL_SIZE);
+
+    private Vector3f gravity = new Vector3f(0, -9.81f, 0);
+    private float stepTime = DEFAULT_STEP_TIME;
+    private float accumulator;
+
+    private int threads;
+    private ExecutorService executor;
+    private ArrayList<StepTask> tasks = new ArrayList<>();
+    /**
+     * Tasks of the current step which have not finished yet and the first
+     * error of them (guarded by tasks).
+     */
+    private int runningTasks;
+    private Throwable taskError;
+    /**
+     * Buffers used if players are moved by the update thread.
+     */
+    private CollisionBuffers buffers = new CollisionBuffers();
 
     public Simulator(World world) {
+        this(world, Runtime.getRuntime().availableProcessors());
+    }
+
+    public Simulator(World world, int threads) {
         this.world = world;
+        this.threads = Math.max(1, threads);
     }
 
     @Override
@@ -52,75 +121,503 @@ public class Simulator extends AbstractAppState {
         super.initialize(stateManager, app);
         initialize();
     }
-    
+
     private void initialize() {
-        //world.addListener(this);
+        world.addListener(this);
         players = new ArrayList<>();
+        playerControls = new ArrayList<>();
         obstacles = new ArrayList<>();
+        obstacleControls = new ArrayList<>();
+        obstaclesChanged = true;
+        for (int i = 0; i < world.getGameObjectCount(); i++) {
+            gameObjectAdded(world.getGameObjectAt(i));
+        }
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+                private int count;
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Simulator-" + count++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+
+            });
+            for (int i = 0; i < threads; i++) {
+                tasks.add(new StepTask());
+            }
+        }
     }
 
     @Override
     public void update(float tpf) {
         super.update(tpf);
-        
-        updatePlayers();
-        checkPlayerObstacleCollisions(tpf);
+
+        accumulator += tpf;
+        int steps = 0;
+        while (accumulator >= stepTime && steps < MAX_STEPS_PER_UPDATE) {
+            step(stepTime);
+            accumulator -= stepTime;
+            steps++;
+        }
+        if (steps == MAX_STEPS_PER_UPDATE) {
+            // too slow - do not try to catch up
+            accumulator = 0;
+        }
     }
-    
+
+    /**
+     * Runs one step of the simulation. Must be called by the update thread.
+     *
+     * @param tpf step time
+     */
+    public void step(float tpf) {
+        updateObstacles();
+        for (int i = 0; i < playerControls.size(); i++) {
+            playerControls.get(i).readSpatial();
+        }
+        updatePlayers(tpf);
+        for (int i = 0; i < playerControls.size(); i++) {
+            playerControls.get(i).writeSpatial();
+        }
+    }
+
+    /**
+     * Copies the boxes of the obstacles which moved since the last step (see
+     * ObstacleControl.markMoved()) and rebuilds the obstacle grid if one of them
+     * changed. The boxes of all obstacles are only copied after obstacles were
+     * added or removed.
+     */
+    private void updateObstacles() {
+        if (obstaclesChanged) {
+            copyObstacleBoxes();
+            return;
+        }
+        boolean moved = false;
+        for (int i = 0; i < obstacleControls.size(); i++) {
+            ObstacleControl control = obstacleControls.get(i);
+            if (control == null || !control.consumeMoved()) {
+                continue;
+            }
+            int boxIndex = obstacleBoxIndex[i];
+            if (boxIndex < 0 || !copyBox(obstacles.get(i), boxIndex)) {
+                // the obstacle got or lost a box
+                copyObstacleBoxes();
+                return;
+            }
+            moved = true;
+        }
+        if (moved) {
+            obstacleGrid.build(obstacleBoxes, obstacleCount);
+        }
+    }
+
+    private void copyObstacleBoxes() {
+        obstaclesChanged = false;
+        obstacleCount = 0;
+        if (obstacleBoxes.length < obstacles.size() * 6) {
+            obstacleBoxes = Arrays.copyOf(obstacleBoxes, obstacles.size() * 12);
+            obstacleBoxIndex = Arrays.copyOf(obstacleBoxIndex, obstacles.size() * 2);
+        }
+        for (int i = 0; i < obstacles.size(); i++) {
+            ObstacleControl control = obstacleControls.get(i);
+            if (control != null) {
+                control.consumeMoved();
+            }
+            if (copyBox(obstacles.get(i), obstacleCount)) {
+                obstacleBoxIndex[i] = obstacleCount++;
+            } else {
+                obstacleBoxIndex[i] = -1;
+            }
+        }
+        obstacleGrid.build(obstacleBoxes, obstacleCount);
+    }
+
+    /**
+     * Copies the world bound of the obstacle to the given box.
+     *
+     * @return false if the bound is not a box
+     */
+    private boolean copyBox(Spatial obstacle, int boxIndex) {
+        BoundingVolume bound = obstacle.getWorldBound();
+        if (!(bound instanceof BoundingBox)) {
+            return false;
+        }
+        BoundingBox box = (BoundingBox) bound;
+        Vector3f center = box.getCenter();
+        int o = boxIndex * 6;
+        obstacleBoxes[o] = center.x - box.getXExtent();
+        obstacleBoxes[o + 1] = center.y - box.getYExtent();
+        obstacleBoxes[o + 2] = center.z - box.getZExtent();
+        obstacleBoxes[o + 3] = center.x + box.getXExtent();
+        obstacleBoxes[o + 4] = center.y + box.getYExtent();
+        obstacleBoxes[o + 5] = center.z + box.getZExtent();
+        return true;
+    }
+
     /**
      * Update all players by using the PlayerSimulationControl.
      */
-    private void updatePlayers() {
-        for (Spatial player : players) {
-            PlayerSimulationControl playerControl = player.getControl(PlayerSimulationControl.class);
-            // check if player is on the ground and apply the move direction
-        }
-    }
-    
-    /**
-     * Checks collisions between all obstacles and players.
-     * If a player stands on an obstacle the player will move with the obstacle
-     * so it will not get stuck.
-     */
-    private void checkPlayerObstacleCollisions(float tpf) {
-        CollisionResults results = new CollisionResults();
-        for (Spatial player : players) {
-            PlayerSimulationControl playerControl = player.getControl(PlayerSimulationControl.class);
-            boolean collision = false;
-            for (Spatial obstacle : obstacles) {
-                if (player.collideWith(obstacle, results) > 0) {
-                    // there is at least one collision
-                    LOG.info("Collision detected.");
-                    // move player out of obstacle
-                    CollisionResult closest = results.getClosestCollision();
-                    // move player back a little bit
-                    Vector3f move = closest.getContactNormal().mult(playerControl.getWalkDirection().length() * tpf);
-                    player.getLocalTranslation().addLocal(move);
+    private void updatePlayers(float tpf) {
+        int count = playerControls.size();
+        int usedThreads = Math.min(threads, count / MIN_PLAYERS_PER_THREAD);
+        if (executor == null || usedThreads <= 1) {
+            for (int i = 0; i < count; i++) {
+                simulatePlayer(playerControls.get(i), tpf, buffers);
+            }
+            return;
+        }
+        // split players into equal parts
+        int chunk = (count + usedThreads - 1) / usedThreads;
+        for (int t = 0; t < usedThreads; t++) {
+            tasks.get(t).set(t * chunk, Math.min(count, (t + 1) * chunk), tpf);
+        }
+        // the tasks are reused and the update thread waits for them, so no
+        // task lists or futures are created per step
+        synchronized (tasks) {
+            runningTasks = usedThreads;
+            taskError = null;
+        }
+        for (int t = 0; t < usedThreads; t++) {
+            executor.execute(tasks.get(t));
+        }
+        boolean interrupted = false;
+        synchronized (tasks) {
+            // the players must not be touched by the tasks after the step
+            while (runningTasks > 0) {
+                try {
+                    tasks.wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
                 }
             }
+            if (taskError != null) {
+                LOG.log(Level.SEVERE, "Could not simulate players.", taskError);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Moves one player by one step: applies walk direction, jumping and gravity
+     * and pushes the player out of all obstacles.
+     * Must be called by the update thread.
+     *
+     * @param player
+     * @param tpf
+     */
+    public void simulatePlayer(PlayerSimulationControl player, float tpf) {
+        simulatePlayer(player, tpf, buffers);
+    }
+
+    /**
+     * Moves an input driven player by one step with the given input. The
+     * obstacles are the ones of the last step of the Simulator.
+     * Must be called by the update thread.
+     *
+     * @param player
+     * @param input
+     * @param tpf step time
+     */
+    public void simulatePlayer(PlayerSimulationControl player, PlayerInput input, float tpf) {
+        float speed = player.getSpeed();
+        if (!player.isOnGround()) {
+            speed *= player.getAirSpeedMultiplier();
+        }
+        input.getWalkDirection(speed, player.getWalkDirection());
+        if (input.isJump()) {
+            player.jump();
+        }
+        player.readSpatial();
+        simulatePlayer(player, tpf, buffers);
+        player.writeSpatial();
+    }
+
+    /**
+     * Only changes the state of the given control and buffers so players can be
+     * simulated in parallel.
+     */
+    private void simulatePlayer(PlayerSimulationControl player, float tpf, CollisionBuffers buffers) {
+        Vector3f location = player.getLocation();
+        Vector3f velocity = player.getVelocity();
+        Vector3f walkDirection = player.getWalkDirection();
+
+        boolean wasOnGround = player.isOnGround();
+        if (player.consumeJump() && wasOnGround) {
+            velocity.y = player.getJumpSpeed();
+            player.setJumping(true);
+        }
+        velocity.x = walkDirection.x;
+        velocity.z = walkDirection.z;
+        velocity.y += gravity.y * tpf;
+
+        location.x += velocity.x * tpf;
+        location.y += velocity.y * tpf;
+        location.z += velocity.z * tpf;
+
+        player.setOnGround(false);
+        checkPlayerObstacleCollisions(player, buffers);
+        if (player.isOnGround()) {
+            player.setJumping(false);
+        }
+    }
+
+    /**
+     * Checks collisions between the obstacles near the player and the player.
+     * The player is a sphere resting on its feet. The broadphase finds all
+     * obstacles whose box overlaps the box around the sphere, the narrowphase
+     * collects a contact for every obstacle the sphere penetrates. The player
+     * is then pushed out of all contacts. If a contact pushes it upwards it
+     * stands on the obstacle.
+     */
+    private void checkPlayerObstacleCollisions(PlayerSimulationControl player, CollisionBuffers buffers) {
+        Vector3f location = player.getLocation();
+        Vector3f velocity = player.getVelocity();
+        float radius = player.getRadius();
+        float centerX = location.x;
+        float centerY = location.y + radius;
+        float centerZ = location.z;
+
+        // broadphase
+        IdList candidates = buffers.candidates;
+        obstacleGrid.query(centerX - radius, centerY - radius, centerZ - radius,
+                centerX + radius, centerY + radius, centerZ + radius, candidates);
+
+        // narrowphase
+        Contacts contacts = buffers.contacts;
+        contacts.clear();
+        for (int i = 0; i < candidates.size(); i++) {
+            collideSphereBox(candidates.get(i), centerX, centerY, centerZ, radius, contacts);
+        }
+
+        // push out of all contacts, contacts already resolved by an earlier
+        // push along the same normal are skipped
+        float pushX = 0;
+        float pushY = 0;
+        float pushZ = 0;
+        for (int i = 0; i < contacts.size(); i++) {
+            float normalX = contacts.getNormalX(i);
+            float normalY = contacts.getNormalY(i);
+            float normalZ = contacts.getNormalZ(i);
+            float remaining = contacts.getDepth(i) - (pushX * normalX + pushY * normalY + pushZ * normalZ);
+            if (remaining > 0) {
+                pushX += normalX * remaining;
+                pushY += normalY * remaining;
+                pushZ += normalZ * remaining;
+            }
+            // stop moving into the obstacle
+            float speed = velocity.x * normalX + velocity.y * normalY + velocity.z * normalZ;
+            if (speed < 0) {
+                velocity.x -= normalX * speed;
+                velocity.y -= normalY * speed;
+                velocity.z -= normalZ * speed;
+            }
+            if (normalY > MIN_GROUND_NORMAL_Y) {
+                player.setOnGround(true);
+            }
         }
+        location.x += pushX;
+        location.y += pushY;
+        location.z += pushZ;
+    }
+
+    /**
+     * Adds a contact if the sphere penetrates the box of the given obstacle.
+     */
+    private void collideSphereBox(int obstacle, float centerX, float centerY, float centerZ, float radius, Contacts contacts) {
+        int o = obstacle * 6;
+        float minX = obstacleBoxes[o];
+        float minY = obstacleBoxes[o + 1];
+        float minZ = obstacleBoxes[o + 2];
+        float maxX = obstacleBoxes[o + 3];
+        float maxY = obstacleBoxes[o + 4];
+        float maxZ = obstacleBoxes[o + 5];
+
+        // closest point of the box to the center
+        float dx = centerX - Math.max(minX, Math.min(centerX, maxX));
+        float dy = centerY - Math.max(minY, Math.min(centerY, maxY));
+        float dz = centerZ - Math.max(minZ, Math.min(centerZ, maxZ));
+        float distanceSquared = dx * dx + dy * dy + dz * dz;
+        if (distanceSquared >= radius * radius) {
+            return;
+        }
+        if (distanceSquared > 1e-8f) {
+            float distance = (float) Math.sqrt(distanceSquared);
+            float inv = 1f / distance;
+            contacts.add(obstacle, dx * inv, dy * inv, dz * inv, radius - distance);
+            return;
+        }
+        // center inside the box, push out through the nearest face
+        float depth = maxY - centerY;
+        float normalX = 0;
+        float normalY = 1;
+        float normalZ = 0;
+        if (centerY - minY < depth) {
+            depth = centerY - minY;
+            normalY = -1;
+        }
+        if (maxX - centerX < depth) {
+            depth = maxX - centerX;
+            normalX = 1;
+            normalY = 0;
+        }
+        if (centerX - minX < depth) {
+            depth = centerX - minX;
+            normalX = -1;
+            normalY = 0;
+        }
+        if (maxZ - centerZ < depth) {
+            depth = maxZ - centerZ;
+            normalX = 0;
+            normalY = 0;
+            normalZ = 1;
+        }
+        if (centerZ - minZ < depth) {
+            depth = centerZ - minZ;
+            normalX = 0;
+            normalY = 0;
+            normalZ = -1;
+        }
+        contacts.add(obstacle, normalX, normalY, normalZ, depth + radius);
     }
 
     @Override
     public void cleanup() {
         super.cleanup();
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        tasks.clear();
     }
 
-    public void gameObjectAdded(Spatial gameObject) {
-        if (gameObject.getControl(PlayerControl.class) != null) {
+    @Override
+    public void gameObjectAdded(Node gameObject) {
+        PlayerSimulationControl playerControl = gameObject.getControl(PlayerSimulationControl.class);
+        if (playerControl != null) {
+            if (playerControl.isInputDriven()) {
+                // moved by its owner
+                return;
+            }
             // add to players
             players.add(gameObject);
-        } else if (gameObject.getControl(ObstacleControl.class) != null) {
+            playerControls.add(playerControl);
+        } else if (gameObject.getControl(ObstacleControl.class) != null || isStatic(gameObject)) {
             // add to obstacles
             obstacles.add(gameObject);
+            obstacleControls.add(gameObject.getControl(ObstacleControl.class));
+            obstaclesChanged = true;
         }
     }
 
-    public void gameObjectRemoved(Spatial gameObject) {
+    @Override
+    public void gameObjectRemoved(Node gameObject) {
         // TODO if players stands on obstacle he has to fall down
-        players.remove(gameObject);
-        obstacles.remove(gameObject);
+        int index = players.indexOf(gameObject);
+        if (index >= 0) {
+            players.remove(index);
+            playerControls.remove(index);
+        }
+        index = obstacles.indexOf(gameObject);
+        if (index >= 0) {
+            obstacles.remove(index);
+            obstacleControls.remove(index);
+            obstaclesChanged = true;
+        }
     }
-    
-    
+
+    @Override
+    public void gameObjectsAdded(Node[] gameObjects) {
+        for (Node gameObject : gameObjects) {
+            gameObjectAdded(gameObject);
+        }
+    }
+
+    @Override
+    public void gameObjectsRemoved(Node[] gameObjects) {
+        for (Node gameObject : gameObjects) {
+            gameObjectRemoved(gameObject);
+        }
+    }
+
+    @Override
+    public void worldGenerated(WorldRecipe recipe) {
+        // generated Game Objects have been added already
+    }
+
+    private boolean isStatic(Spatial gameObject) {
+        RigidBodyControl body = gameObject.getControl(RigidBodyControl.class);
+        return body != null && body.getMass() == 0;
+    }
+
+    public Vector3f getGravity() {
+        return gravity;
+    }
+
+    public void setGravity(Vector3f gravity) {
+        this.gravity = gravity;
+    }
+
+    public float getStepTime() {
+        return stepTime;
+    }
+
+    public void setStepTime(float stepTime) {
+        this.stepTime = stepTime;
+    }
+
+    /**
+     * Moves a part of the players. Reused for every step.
+     */
+    private class StepTask implements Runnable {
+
+        private int from;
+        private int to;
+        private float tpf;
+        private CollisionBuffers buffers = new CollisionBuffers();
+
+        void set(int from, int to, float tpf) {
+            this.from = from;
+            this.to = to;
+            this.tpf = tpf;
+        }
+
+        @Override
+        public void run() {
+            Throwable error = null;
+            try {
+                for (int i = from; i < to; i++) {
+                    simulatePlayer(playerControls.get(i), tpf, buffers);
+                }
+            } catch (Throwable ex) {
+                error = ex;
+            } finally {
+                synchronized (tasks) {
+                    if (error != null && taskError == null) {
+                        taskError = error;
+                    }
+                    runningTasks--;
+                    if (runningTasks == 0) {
+                        tasks.notifyAll();
+                    }
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Collision buffers of one thread.
+     */
+    private static class CollisionBuffers {
+
+        private IdList candidates = new IdList();
+        private Contacts contacts = new Contacts();
+
+    }
+
 }
@@ -11,9 +11,9 @@ import com.jme3.math.Vector3f;
 import com.jme3.renderer.RenderManager;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
-import com.jme3.system.JmeContext;
 import java.util.Random;
 import network.client.GameClient;
+import network.server.GameServer;
 import world.World;
 
 /**
@@ -80,8 +80,7 @@ public class ClientAndServer extends SimpleApplication {
     
     
     public static void main(String[] args) {
-        ServerMain app = new ServerMain();
-        app.start(JmeContext.Type.Headless);
+        ServerMain.startServer(GameServer.DEFAULT_ROOM);
         
         ClientAndServer client = new ClientAndServer();
         client.setPauseOnLostFocus(false);
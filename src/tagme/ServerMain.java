@@ -3,14 +3,20 @@ package tagme;
 import com.jme3.app.SimpleApplication;
 import com.jme3.bullet.BulletAppState;
 import com.jme3.renderer.RenderManager;
+import com.jme3.system.AppSettings;
 import com.jme3.system.JmeContext;
 import java.util.Random;
 import network.server.GameServer;
+import network.server.Room;
+import network.server.ServerTickState;
 import world.World;
 
 /**
  * Main of the Application.
  * 
+ * Every room of the server runs in its own headless ServerMain application so
+ * each room has its own world, physics space and update thread.
+ * 
  * TODO use GameStates instead and add a GUI to different screens (for the future)
  * 
  * @author Marco Klein
@@ -21,11 +27,39 @@ public class ServerMain extends SimpleApplication {
     private World world;
     
     private Random random = new Random();
+    
+    private GameServer gameServer;
+    private String roomName;
+    private int tickRate;
+    private int simulatorThreads;
+
+    public ServerMain(GameServer gameServer, String roomName) {
+        this(gameServer, roomName, ServerTickState.DEFAULT_TICK_RATE);
+    }
+
+    public ServerMain(GameServer gameServer, String roomName, int tickRate) {
+        this(gameServer, roomName, tickRate, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ServerMain(GameServer gameServer, String roomName, int tickRate, int simulatorThreads) {
+        this.gameServer = gameServer;
+        this.roomName = roomName;
+        this.tickRate = tickRate;
+        this.simulatorThreads = simulatorThreads;
+        
+        // let the application sleep between frames instead of spinning - the
+        // room runs its logic with the fixed tick rate anyway
+        AppSettings settings = new AppSettings(true);
+        settings.setFrameRate(tickRate);
+        setSettings(settings);
+    }
 
     @Override
     public void simpleInitApp() {
-        GameServer server = new GameServer(new World(this, rootNode));
-        stateManager.attach(server);
+        world = new World(this, rootNode);
+        Room room = new Room(roomName, gameServer, world, tickRate);
+        room.setSimulatorThreads(simulatorThreads);
+        stateManager.attach(room);
     }
     
     @Override
@@ -38,8 +72,39 @@ public class ServerMain extends SimpleApplication {
     
     
     
+    /**
+     * Starts the network server and one headless application for each room.
+     * 
+     * @param roomNames
+     * @return 
+     */
+    public static GameServer startServer(String... roomNames) {
+        GameServer gameServer = new GameServer();
+        // clients which connect before a room is ready wait for it
+        for (String roomName : roomNames) {
+            gameServer.expectRoom(roomName);
+        }
+        gameServer.start();
+        // the rooms share the processors
+        int simulatorThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / roomNames.length);
+        for (String roomName : roomNames) {
+            ServerMain app = new ServerMain(gameServer, roomName, ServerTickState.DEFAULT_TICK_RATE, simulatorThreads);
+            app.start(JmeContext.Type.Headless);
+        }
+        return gameServer;
+    }
+    
+    /**
+     * Room names can be passed as arguments. Only the default room is hosted if
+     * there are none.
+     * 
+     * @param args 
+     */
     public static void main(String[] args) {
-        ServerMain app = new ServerMain();
-        app.start(JmeContext.Type.Headless);
+        if (args.length == 0) {
+            startServer(GameServer.DEFAULT_ROOM);
+        } else {
+            startServer(args);
+        }
     }
 }
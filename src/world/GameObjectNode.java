@@ -0,0 +1,50 @@
+package world;
+
+import com.jme3.scene.Node;
+
+/**
+ * Node of a Game Object which remembers whether its bounds may have changed.
+ *
+ * The World only re-indexes Game Objects which moved since the last update of
+ * its spatial index. The flag is set as jME marks the transform of the node as
+ * changed (the node or its parent moved) and as the bounds are recomputed (a
+ * child moved). Game Objects which are plain Nodes are re-indexed every frame.
+ *
+ * @author Marco Klein
+ */
+public class GameObjectNode extends Node {
+
+    private boolean moved = true;
+
+    public GameObjectNode() {
+    }
+
+    public GameObjectNode(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setTransformRefresh() {
+        super.setTransformRefresh();
+        moved = true;
+    }
+
+    @Override
+    protected void updateWorldBound() {
+        super.updateWorldBound();
+        moved = true;
+    }
+
+    /**
+     * @return true if the bounds may have changed since clearMoved() was
+     * called
+     */
+    public boolean isMoved() {
+        return moved;
+    }
+
+    void clearMoved() {
+        moved = false;
+    }
+
+}
@@ -0,0 +1,273 @@
+package world;
+
+import com.jme3.scene.Node;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dense slot table which maps Game Object ids to their Nodes.
+ *
+ * An id consists out of a slot index (lower INDEX_BITS bits) and a generation
+ * (upper bits). If a Game Object gets removed its slot is recycled and the
+ * generation of the slot is increased so old ids of removed Game Objects will
+ * not resolve to the new Game Object. Free slots are reused in the order they
+ * were freed (so a slot is not reused right away) and a slot which reached the
+ * last generation is retired instead of being reused, so an id never resolves
+ * to another Game Object than its own.
+ *
+ * All live Game Objects are additionally kept in a dense array so they can be
+ * iterated without creating any objects. Removing swaps the last Game Object into
+ * the removed position, so iterate backwards if Game Objects are removed while
+ * iterating.
+ *
+ * @author Marco Klein
+ */
+class GameObjectRegistry {
+    private static final Logger LOG = Logger.getLogger(GameObjectRegistry.class.getName());
+
+    static final int INDEX_BITS = 20;
+    static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    static final int GENERATION_MASK = (1 << (31 - INDEX_BITS)) - 1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Game Objects by slot index.
+     */
+    private Node[] slots = new Node[INITIAL_CAPACITY];
+    /**
+     * Current generation of each slot.
+     */
+    private int[] generations = new int[INITIAL_CAPACITY];
+    /**
+     * Position of each slot in the dense array or -1 if slot is empty.
+     */
+    private int[] slotToDense = new int[INITIAL_CAPACITY];
+    /**
+     * Slots which have never been used start at this index.
+     */
+    private int highWater;
+
+    /**
+     * Slots whose id has been handed out by generateId() but which have not
+     * been put yet.
+     */
+    private boolean[] reserved = new boolean[INITIAL_CAPACITY];
+
+    /**
+     * Recycled slot indices (ring buffer used as a queue). May contain slots
+     * which have been occupied with put() since, they are skipped.
+     */
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeHead;
+    private int freeCount;
+
+    /**
+     * All live Game Objects packed together.
+     */
+    private Node[] dense = new Node[INITIAL_CAPACITY];
+    private int[] denseIds = new int[INITIAL_CAPACITY];
+    private int size;
+
+    GameObjectRegistry() {
+        Arrays.fill(slotToDense, -1);
+    }
+
+    static int indexOf(int id) {
+        return id & INDEX_MASK;
+    }
+
+    static int generationOf(int id) {
+        return (id >>> INDEX_BITS) & GENERATION_MASK;
+    }
+
+    static int toId(int index, int generation) {
+        return ((generation & GENERATION_MASK) << INDEX_BITS) | index;
+    }
+
+    /**
+     * Returns a free id and reserves it, so it is not returned again before the
+     * Game Object with this id has been put and removed.
+     *
+     * @return
+     */
+    int generateId() {
+        while (freeCount > 0) {
+            int index = pollFree();
+            // skip free slots which got occupied by explicitly put ids
+            if (slots[index] == null && !reserved[index]) {
+                reserved[index] = true;
+                return toId(index, generations[index]);
+            }
+        }
+        if (highWater > INDEX_MASK) {
+            throw new IllegalStateException("No more Game Object ids available.");
+        }
+        int index = highWater++;
+        ensureCapacity(highWater);
+        reserved[index] = true;
+        return toId(index, 0);
+    }
+
+    /**
+     * Returns the first id of a range of ids which have never been used.
+     *
+     * @return
+     */
+    int getUnusedId() {
+        if (highWater > INDEX_MASK) {
+            throw new IllegalStateException("No more Game Object ids available.");
+        }
+        return toId(highWater, 0);
+    }
+
+    /**
+     * Stores the Game Object with the given id.
+     * An existing Game Object in the same slot gets replaced.
+     *
+     * @param id
+     * @param gameObject
+     * @return the replaced Game Object or null
+     */
+    Node put(int id, Node gameObject) {
+        int index = indexOf(id);
+        ensureCapacity(index + 1);
+        if (index >= highWater) {
+            // remember skipped slots so they can be used later
+            for (int i = highWater; i < index; i++) {
+                pushFree(i);
+            }
+            highWater = index + 1;
+        }
+        reserved[index] = false;
+
+        Node replaced = slots[index];
+        generations[index] = generationOf(id);
+        slots[index] = gameObject;
+        if (replaced == null) {
+            // append to dense array
+            if (size == dense.length) {
+                dense = Arrays.copyOf(dense, size * 2);
+                denseIds = Arrays.copyOf(denseIds, size * 2);
+            }
+            slotToDense[index] = size;
+            size++;
+        }
+        dense[slotToDense[index]] = gameObject;
+        denseIds[slotToDense[index]] = id;
+        return replaced;
+    }
+
+    /**
+     * Removes the Game Object with the given id if the id is still valid.
+     *
+     * @param id
+     * @return removed Game Object or null
+     */
+    Node remove(int id) {
+        int index = indexOf(id);
+        if (!contains(id)) {
+            return null;
+        }
+        Node removed = slots[index];
+
+        // move last dense entry into the gap
+        int denseIndex = slotToDense[index];
+        int last = size - 1;
+        if (denseIndex != last) {
+            dense[denseIndex] = dense[last];
+            denseIds[denseIndex] = denseIds[last];
+            slotToDense[indexOf(denseIds[last])] = denseIndex;
+        }
+        dense[last] = null;
+        size--;
+
+        slots[index] = null;
+        slotToDense[index] = -1;
+        // invalidate old ids of this slot
+        if (generations[index] < GENERATION_MASK) {
+            generations[index]++;
+            pushFree(index);
+        } else {
+            // retire the slot - its next generation would repeat old ids
+            LOG.log(Level.FINE, "Retired Game Object slot {0}.", index);
+        }
+        return removed;
+    }
+
+    boolean contains(int id) {
+        int index = indexOf(id);
+        return index < highWater && slots[index] != null && generations[index] == generationOf(id);
+    }
+
+    Node get(int id) {
+        return contains(id) ? slots[indexOf(id)] : null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the Game Object at the given position of the dense array.
+     *
+     * @param i 0 &lt;= i &lt; size()
+     * @return
+     */
+    Node getAt(int i) {
+        return dense[i];
+    }
+
+    int getIdAt(int i) {
+        return denseIds[i];
+    }
+
+    void clear() {
+        Arrays.fill(slots, 0, highWater, null);
+        Arrays.fill(generations, 0, highWater, 0);
+        Arrays.fill(slotToDense, 0, highWater, -1);
+        Arrays.fill(reserved, 0, highWater, false);
+        Arrays.fill(dense, 0, size, null);
+        highWater = 0;
+        freeHead = 0;
+        freeCount = 0;
+        size = 0;
+    }
+
+    private void pushFree(int index) {
+        if (freeCount == freeSlots.length) {
+            int[] grown = new int[freeCount * 2];
+            for (int i = 0; i < freeCount; i++) {
+                grown[i] = freeSlots[(freeHead + i) % freeSlots.length];
+            }
+            freeSlots = grown;
+            freeHead = 0;
+        }
+        freeSlots[(freeHead + freeCount++) % freeSlots.length] = index;
+    }
+
+    private int pollFree() {
+        int index = freeSlots[freeHead];
+        freeHead = (freeHead + 1) % freeSlots.length;
+        freeCount--;
+        return index;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= slots.length) {
+            return;
+        }
+        int newCapacity = slots.length;
+        while (newCapacity < capacity) {
+            newCapacity *= 2;
+        }
+        int oldCapacity = slots.length;
+        slots = Arrays.copyOf(slots, newCapacity);
+        generations = Arrays.copyOf(generations, newCapacity);
+        slotToDense = Arrays.copyOf(slotToDense, newCapacity);
+        Arrays.fill(slotToDense, oldCapacity, newCapacity, -1);
+        reserved = Arrays.copyOf(reserved, newCapacity);
+    }
+
+}
@@ -0,0 +1,97 @@
+package world;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of Game Object ids.
+ * Used to return query results without boxing the ids. Keep an instance and
+ * reuse it for every query to avoid creating new objects.
+ *
+ * @author Marco Klein
+ */
+public class IdList {
+
+    private int[] ids;
+    private int size;
+
+    public IdList() {
+        this(16);
+    }
+
+    public IdList(int initialCapacity) {
+        ids = new int[Math.max(1, initialCapacity)];
+    }
+
+    public void add(int id) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size++] = id;
+    }
+
+    public int get(int index) {
+        return ids[index];
+    }
+
+    public void set(int index, int id) {
+        ids[index] = id;
+    }
+
+    public boolean contains(int id) {
+        return indexOf(id) >= 0;
+    }
+
+    /**
+     * @param id
+     * @return index of the first occurrence of id or -1
+     */
+    public int indexOf(int id) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the id at the given index by moving the last id into its place.
+     *
+     * @param index
+     */
+    public void removeAt(int index) {
+        ids[index] = ids[--size];
+    }
+
+    /**
+     * @return new array with all ids of the list
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    /**
+     * @param store array which is used if it has exactly the size of the list
+     * @return array with all ids of the list
+     */
+    public int[] toArray(int[] store) {
+        if (store == null || store.length != size) {
+            return toArray();
+        }
+        System.arraycopy(ids, 0, store, 0, size);
+        return store;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+}
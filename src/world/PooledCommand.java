@@ -0,0 +1,17 @@
+package world;
+
+/**
+ * A WorldCommand which belongs to a pool (for example a received message).
+ * The WorldCommandQueue releases it right after it has been applied, so it
+ * must not be used afterwards.
+ *
+ * @author Marco Klein
+ */
+public interface PooledCommand extends WorldCommand {
+    
+    /**
+     * Returns the command to its pool.
+     */
+    public void release();
+    
+}
@@ -0,0 +1,499 @@
+package world;
+
+import java.util.Arrays;
+
+/**
+ * Loose uniform grid over all Game Objects of a World.
+ *
+ * Every Game Object is stored as an axis aligned box (center and half extents)
+ * in the cell containing its center. Since a box may reach at most
+ * maxLooseExtent into neighbouring cells, queries only have to look at the cells
+ * around the queried area. Bigger Game Objects (for example the ground) are kept
+ * in a separate list which is tested by every query.
+ *
+ * Cells are linked lists threaded through arrays indexed by the id slot so moving
+ * and querying Game Objects does not create any objects. A cell is removed from
+ * the cell table as its last Game Object leaves it.
+ *
+ * @author Marco Klein
+ */
+class SpatialGrid {
+
+    private static final int NONE = -1;
+    private static final int OVERSIZED = -2;
+    private static final int COORD_BITS = 21;
+    private static final int COORD_OFFSET = 1 << (COORD_BITS - 1);
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+
+    private final float cellSize;
+    private final float invCellSize;
+    /**
+     * Objects with a larger half extent do not fit into the loose cells.
+     */
+    private final float maxLooseExtent;
+
+    // per id slot
+    private int[] ids = new int[0];
+    private float[] centerX = new float[0];
+    private float[] centerY = new float[0];
+    private float[] centerZ = new float[0];
+    private float[] extentX = new float[0];
+    private float[] extentY = new float[0];
+    private float[] extentZ = new float[0];
+    /**
+     * Cell table index of each slot, OVERSIZED or NONE if not in the grid.
+     */
+    private int[] cellOf = new int[0];
+    private int[] next = new int[0];
+    private int[] prev = new int[0];
+    private int count;
+
+    // open addressing hash table of cells
+    private long[] cellKeys;
+    private int[] cellHeads;
+    private boolean[] cellUsed;
+    private int cellCount;
+
+    private int oversizedHead = NONE;
+
+    // scratch buffers for nearest neighbour queries
+    private IdList candidates = new IdList();
+    private float[] candidateDistances = new float[16];
+
+    SpatialGrid(float cellSize) {
+        this.cellSize = cellSize;
+        this.invCellSize = 1f / cellSize;
+        this.maxLooseExtent = cellSize * 0.5f;
+        allocateCells(64);
+    }
+
+    float getCellSize() {
+        return cellSize;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Inserts the Game Object with the given id or moves it to its new bounds.
+     * A Game Object whose center or extents are not finite (NaN or infinite)
+     * can not be stored and is removed from the grid instead.
+     *
+     * @return false if the bounds were not finite
+     */
+    boolean update(int id, float x, float y, float z, float halfX, float halfY, float halfZ) {
+        if (!isFinite(x) || !isFinite(y) || !isFinite(z) || Float.isNaN(halfX) || Float.isNaN(halfY) || Float.isNaN(halfZ)) {
+            remove(id);
+            return false;
+        }
+        int slot = GameObjectRegistry.indexOf(id);
+        ensureCapacity(slot + 1);
+        boolean oversized = halfX > maxLooseExtent || halfY > maxLooseExtent || halfZ > maxLooseExtent;
+        long targetKey = oversized ? 0 : key(cellCoord(x), cellCoord(y), cellCoord(z));
+
+        int currentCell = cellOf[slot];
+        boolean stays = ids[slot] == id && (oversized
+                ? currentCell == OVERSIZED
+                : currentCell >= 0 && cellKeys[currentCell] == targetKey);
+        if (!stays) {
+            if (currentCell != NONE) {
+                // first since removing an empty cell moves other cells
+                unlink(slot);
+            } else {
+                count++;
+            }
+            link(slot, oversized ? OVERSIZED : findOrCreateCell(targetKey));
+        }
+        ids[slot] = id;
+        centerX[slot] = x;
+        centerY[slot] = y;
+        centerZ[slot] = z;
+        extentX[slot] = halfX;
+        extentY[slot] = halfY;
+        extentZ[slot] = halfZ;
+        return true;
+    }
+
+    void remove(int id) {
+        int slot = GameObjectRegistry.indexOf(id);
+        if (slot >= cellOf.length || cellOf[slot] == NONE || ids[slot] != id) {
+            return;
+        }
+        unlink(slot);
+        count--;
+    }
+
+    void clear() {
+        Arrays.fill(cellOf, NONE);
+        allocateCells(64);
+        oversizedHead = NONE;
+        count = 0;
+    }
+
+    /**
+     * Adds the ids of all Game Objects whose box overlaps the given box.
+     *
+     * @return number of found ids
+     */
+    int queryAabb(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, IdList results) {
+        results.clear();
+        int x0 = cellCoord(minX - maxLooseExtent), x1 = cellCoord(maxX + maxLooseExtent);
+        int y0 = cellCoord(minY - maxLooseExtent), y1 = cellCoord(maxY + maxLooseExtent);
+        int z0 = cellCoord(minZ - maxLooseExtent), z1 = cellCoord(maxZ + maxLooseExtent);
+
+        if (cellRangeSize(x0, x1, y0, y1, z0, z1) > cellCount) {
+            // cheaper to look at every used cell
+            for (int c = 0; c < cellKeys.length; c++) {
+                if (cellUsed[c] && cellInRange(cellKeys[c], x0, x1, y0, y1, z0, z1)) {
+                    collectAabb(cellHeads[c], minX, minY, minZ, maxX, maxY, maxZ, results);
+                }
+            }
+        } else {
+            for (int x = x0; x <= x1; x++) {
+                for (int y = y0; y <= y1; y++) {
+                    for (int z = z0; z <= z1; z++) {
+                        int c = findCell(key(x, y, z));
+                        if (c != NONE) {
+                            collectAabb(cellHeads[c], minX, minY, minZ, maxX, maxY, maxZ, results);
+                        }
+                    }
+                }
+            }
+        }
+        collectAabb(oversizedHead, minX, minY, minZ, maxX, maxY, maxZ, results);
+        return results.size();
+    }
+
+    /**
+     * Adds the ids of all Game Objects whose box is closer than radius to the
+     * given point.
+     *
+     * @return number of found ids
+     */
+    int queryRadius(float x, float y, float z, float radius, IdList results) {
+        results.clear();
+        float reach = radius + maxLooseExtent;
+        int x0 = cellCoord(x - reach), x1 = cellCoord(x + reach);
+        int y0 = cellCoord(y - reach), y1 = cellCoord(y + reach);
+        int z0 = cellCoord(z - reach), z1 = cellCoord(z + reach);
+        float radiusSquared = radius * radius;
+
+        if (cellRangeSize(x0, x1, y0, y1, z0, z1) > cellCount) {
+            for (int c = 0; c < cellKeys.length; c++) {
+                if (cellUsed[c] && cellInRange(cellKeys[c], x0, x1, y0, y1, z0, z1)) {
+                    collectRadius(cellHeads[c], x, y, z, radiusSquared, results);
+                }
+            }
+        } else {
+            for (int cx = x0; cx <= x1; cx++) {
+                for (int cy = y0; cy <= y1; cy++) {
+                    for (int cz = z0; cz <= z1; cz++) {
+                        int c = findCell(key(cx, cy, cz));
+                        if (c != NONE) {
+                            collectRadius(cellHeads[c], x, y, z, radiusSquared, results);
+                        }
+                    }
+                }
+            }
+        }
+        collectRadius(oversizedHead, x, y, z, radiusSquared, results);
+        return results.size();
+    }
+
+    /**
+     * Finds the k Game Objects whose centers are closest to the given point.
+     * Results are sorted by distance, closest first.
+     *
+     * @return number of found ids
+     */
+    int queryNearest(float x, float y, float z, int k, IdList results) {
+        results.clear();
+        int wanted = Math.min(k, count);
+        if (wanted <= 0 || !isFinite(x) || !isFinite(y) || !isFinite(z)) {
+            return 0;
+        }
+        // grow search radius until enough Game Objects are inside - once the
+        // radius spans all cell coordinates every Game Object is collected
+        float maxRadius = 2 * COORD_OFFSET * cellSize;
+        float radius = cellSize;
+        int found = collectCenters(x, y, z, radius);
+        while (found < wanted) {
+            radius = radius < maxRadius ? radius * 2 : Float.POSITIVE_INFINITY;
+            found = collectCenters(x, y, z, radius);
+            if (radius == Float.POSITIVE_INFINITY) {
+                break;
+            }
+        }
+
+        // keep the closest ones (insertion sort - k is small)
+        for (int i = 1; i < found; i++) {
+            int id = candidates.get(i);
+            float distance = candidateDistances[i];
+            int j = i - 1;
+            while (j >= 0 && candidateDistances[j] > distance) {
+                candidateDistances[j + 1] = candidateDistances[j];
+                candidates.set(j + 1, candidates.get(j));
+                j--;
+            }
+            candidateDistances[j + 1] = distance;
+            candidates.set(j + 1, id);
+        }
+        for (int i = 0; i < wanted && i < found; i++) {
+            results.add(candidates.get(i));
+        }
+        return results.size();
+    }
+
+    private int collectCenters(float x, float y, float z, float radius) {
+        candidates.clear();
+        int x0 = cellCoord(x - radius), x1 = cellCoord(x + radius);
+        int y0 = cellCoord(y - radius), y1 = cellCoord(y + radius);
+        int z0 = cellCoord(z - radius), z1 = cellCoord(z + radius);
+        float radiusSquared = radius * radius;
+        if (cellRangeSize(x0, x1, y0, y1, z0, z1) > cellCount) {
+            for (int c = 0; c < cellKeys.length; c++) {
+                if (cellUsed[c] && cellInRange(cellKeys[c], x0, x1, y0, y1, z0, z1)) {
+                    collectCenters(cellHeads[c], x, y, z, radiusSquared);
+                }
+            }
+        } else {
+            for (int cx = x0; cx <= x1; cx++) {
+                for (int cy = y0; cy <= y1; cy++) {
+                    for (int cz = z0; cz <= z1; cz++) {
+                        int c = findCell(key(cx, cy, cz));
+                        if (c != NONE) {
+                            collectCenters(cellHeads[c], x, y, z, radiusSquared);
+                        }
+                    }
+                }
+            }
+        }
+        collectCenters(oversizedHead, x, y, z, radiusSquared);
+        return candidates.size();
+    }
+
+    private void collectCenters(int slot, float x, float y, float z, float radiusSquared) {
+        for (; slot != NONE; slot = next[slot]) {
+            float dx = centerX[slot] - x;
+            float dy = centerY[slot] - y;
+            float dz = centerZ[slot] - z;
+            float distance = dx * dx + dy * dy + dz * dz;
+            if (distance <= radiusSquared) {
+                if (candidates.size() == candidateDistances.length) {
+                    candidateDistances = Arrays.copyOf(candidateDistances, candidateDistances.length * 2);
+                }
+                candidateDistances[candidates.size()] = distance;
+                candidates.add(ids[slot]);
+            }
+        }
+    }
+
+    private void collectAabb(int slot, float minX, float minY, float minZ, float maxX, float maxY, float maxZ, IdList results) {
+        for (; slot != NONE; slot = next[slot]) {
+            if (centerX[slot] + extentX[slot] >= minX && centerX[slot] - extentX[slot] <= maxX
+                    && centerY[slot] + extentY[slot] >= minY && centerY[slot] - extentY[slot] <= maxY
+                    && centerZ[slot] + extentZ[slot] >= minZ && centerZ[slot] - extentZ[slot] <= maxZ) {
+                results.add(ids[slot]);
+            }
+        }
+    }
+
+    private void collectRadius(int slot, float x, float y, float z, float radiusSquared, IdList results) {
+        for (; slot != NONE; slot = next[slot]) {
+            // distance from point to box
+            float dx = Math.max(Math.abs(x - centerX[slot]) - extentX[slot], 0);
+            float dy = Math.max(Math.abs(y - centerY[slot]) - extentY[slot], 0);
+            float dz = Math.max(Math.abs(z - centerZ[slot]) - extentZ[slot], 0);
+            if (dx * dx + dy * dy + dz * dz <= radiusSquared) {
+                results.add(ids[slot]);
+            }
+        }
+    }
+
+    private void link(int slot, int cell) {
+        cellOf[slot] = cell;
+        prev[slot] = NONE;
+        if (cell == OVERSIZED) {
+            next[slot] = oversizedHead;
+            if (oversizedHead != NONE) {
+                prev[oversizedHead] = slot;
+            }
+            oversizedHead = slot;
+        } else {
+            next[slot] = cellHeads[cell];
+            if (cellHeads[cell] != NONE) {
+                prev[cellHeads[cell]] = slot;
+            }
+            cellHeads[cell] = slot;
+        }
+    }
+
+    private void unlink(int slot) {
+        int cell = cellOf[slot];
+        if (prev[slot] != NONE) {
+            next[prev[slot]] = next[slot];
+        } else if (cell == OVERSIZED) {
+            oversizedHead = next[slot];
+        } else {
+            cellHeads[cell] = next[slot];
+        }
+        if (next[slot] != NONE) {
+            prev[next[slot]] = prev[slot];
+        }
+        cellOf[slot] = NONE;
+        if (cell != OVERSIZED && cellHeads[cell] == NONE) {
+            removeCell(cell);
+        }
+    }
+
+    /**
+     * @return cell coordinate clamped to the coordinates which fit into a key
+     */
+    private int cellCoord(float value) {
+        int coord = (int) Math.floor(value * invCellSize);
+        return Math.max(-COORD_OFFSET, Math.min(COORD_OFFSET - 1, coord));
+    }
+
+    private static boolean isFinite(float value) {
+        return !Float.isNaN(value) && !Float.isInfinite(value);
+    }
+
+    private static long key(int x, int y, int z) {
+        return ((x + COORD_OFFSET) & COORD_MASK)
+                | (((y + COORD_OFFSET) & COORD_MASK) << COORD_BITS)
+                | (((z + COORD_OFFSET) & COORD_MASK) << (2 * COORD_BITS));
+    }
+
+    private static boolean cellInRange(long key, int x0, int x1, int y0, int y1, int z0, int z1) {
+        int x = (int) (key & COORD_MASK) - COORD_OFFSET;
+        int y = (int) ((key >>> COORD_BITS) & COORD_MASK) - COORD_OFFSET;
+        int z = (int) ((key >>> (2 * COORD_BITS)) & COORD_MASK) - COORD_OFFSET;
+        return x >= x0 && x <= x1 && y >= y0 && y <= y1 && z >= z0 && z <= z1;
+    }
+
+    /**
+     * @return number of cells of the range (as double, the product of the
+     * sides may not fit into a long)
+     */
+    private static double cellRangeSize(int x0, int x1, int y0, int y1, int z0, int z1) {
+        return (double) ((long) x1 - x0 + 1) * ((long) y1 - y0 + 1) * ((long) z1 - z0 + 1);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int findCell(long key) {
+        int mask = cellKeys.length - 1;
+        int i = hash(key) & mask;
+        while (cellUsed[i]) {
+            if (cellKeys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return NONE;
+    }
+
+    private int findOrCreateCell(long key) {
+        int cell = findCell(key);
+        if (cell != NONE) {
+            return cell;
+        }
+        if ((cellCount + 1) * 2 > cellKeys.length) {
+            rehash(cellKeys.length * 2);
+        }
+        int mask = cellKeys.length - 1;
+        int i = hash(key) & mask;
+        while (cellUsed[i]) {
+            i = (i + 1) & mask;
+        }
+        cellUsed[i] = true;
+        cellKeys[i] = key;
+        cellHeads[i] = NONE;
+        cellCount++;
+        return i;
+    }
+
+    /**
+     * Removes the given empty cell. The following cells of its probe sequence
+     * are moved back so they are still found (no tombstones needed).
+     */
+    private void removeCell(int cell) {
+        int mask = cellKeys.length - 1;
+        cellUsed[cell] = false;
+        cellCount--;
+        int free = cell;
+        for (int i = (cell + 1) & mask; cellUsed[i]; i = (i + 1) & mask) {
+            int home = hash(cellKeys[i]) & mask;
+            // move it if the free cell lies between its home and i
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                cellUsed[free] = true;
+                cellKeys[free] = cellKeys[i];
+                cellHeads[free] = cellHeads[i];
+                for (int slot = cellHeads[i]; slot != NONE; slot = next[slot]) {
+                    cellOf[slot] = free;
+                }
+                cellUsed[i] = false;
+                free = i;
+            }
+        }
+    }
+
+    private void allocateCells(int capacity) {
+        cellKeys = new long[capacity];
+        cellHeads = new int[capacity];
+        cellUsed = new boolean[capacity];
+        cellCount = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = cellKeys;
+        int[] oldHeads = cellHeads;
+        boolean[] oldUsed = cellUsed;
+        allocateCells(capacity);
+        int mask = capacity - 1;
+        for (int c = 0; c < oldKeys.length; c++) {
+            if (!oldUsed[c]) {
+                continue;
+            }
+            int i = hash(oldKeys[c]) & mask;
+            while (cellUsed[i]) {
+                i = (i + 1) & mask;
+            }
+            cellUsed[i] = true;
+            cellKeys[i] = oldKeys[c];
+            cellHeads[i] = oldHeads[c];
+            cellCount++;
+            // cell moved - update the cell of its members
+            for (int slot = oldHeads[c]; slot != NONE; slot = next[slot]) {
+                cellOf[slot] = i;
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= cellOf.length) {
+            return;
+        }
+        int oldCapacity = cellOf.length;
+        int newCapacity = Math.max(64, oldCapacity);
+        while (newCapacity < capacity) {
+            newCapacity *= 2;
+        }
+        ids = Arrays.copyOf(ids, newCapacity);
+        centerX = Arrays.copyOf(centerX, newCapacity);
+        centerY = Arrays.copyOf(centerY, newCapacity);
+        centerZ = Arrays.copyOf(centerZ, newCapacity);
+        extentX = Arrays.copyOf(extentX, newCapacity);
+        extentY = Arrays.copyOf(extentY, newCapacity);
+        extentZ = Arrays.copyOf(extentZ, newCapacity);
+        cellOf = Arrays.copyOf(cellOf, newCapacity);
+        next = Arrays.copyOf(next, newCapacity);
+        prev = Arrays.copyOf(prev, newCapacity);
+        Arrays.fill(cellOf, oldCapacity, newCapacity, NONE);
+    }
+
+}
@@ -0,0 +1,243 @@
+package world;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+/**
+ * Packs locations and rotations into a few bytes for the network.
+ *
+ * Locations are stored as fixed point numbers inside the bounds of the world
+ * (world size plus a margin on every side) and packed into a long, so at most
+ * MAX_POSITION_BITS bits per axis are possible. Locations outside of the bounds
+ * are clamped.
+ *
+ * Rotations use the smallest three compression: the largest component of the
+ * (normalized) quaternion is left out and recomputed from the other three, which
+ * lie within +-1/sqrt(2). The index of the largest component and the three
+ * others are packed into an int.
+ *
+ * Client and server must use the same world size and precision - both are sent
+ * with the InitWorldMessage.
+ *
+ * @author Marco Klein
+ */
+public class TransformCodec {
+
+    public static final int MAX_POSITION_BITS = 21;
+    public static final int MAX_ROTATION_BITS = 10;
+    public static final int DEFAULT_POSITION_BITS = 16;
+    /**
+     * A decoded rotation is off by about 0.08 degrees on average and by at most
+     * about 0.25 degrees. Every bit less doubles the error.
+     */
+    public static final int DEFAULT_ROTATION_BITS = 10;
+    /**
+     * Space around the world in which Game Objects may be (players falling down
+     * or spawning above the world).
+     */
+    public static final float DEFAULT_MARGIN = 32;
+
+    private static final float ROTATION_RANGE = (float) (1 / Math.sqrt(2));
+
+    private int positionBits;
+    private int rotationBits;
+    private float margin = DEFAULT_MARGIN;
+    private Vector3f worldSize = new Vector3f();
+
+    private float[] min = new float[3];
+    private float[] scale = new float[3];
+    private float[] invScale = new float[3];
+    private long maxPosition;
+    private int maxRotation;
+    private float rotationScale;
+
+    public TransformCodec() {
+        this(DEFAULT_POSITION_BITS, DEFAULT_ROTATION_BITS);
+    }
+
+    public TransformCodec(int positionBits, int rotationBits) {
+        setPrecision(positionBits, rotationBits);
+        setWorldSize(Vector3f.ZERO);
+    }
+
+    /**
+     * Sets the number of bits per axis of a location and per component of a
+     * rotation.
+     *
+     * @param positionBits 1 to MAX_POSITION_BITS
+     * @param rotationBits 1 to MAX_ROTATION_BITS
+     */
+    public final void setPrecision(int positionBits, int rotationBits) {
+        if (positionBits < 1 || positionBits > MAX_POSITION_BITS) {
+            throw new IllegalArgumentException("Position bits must be between 1 and " + MAX_POSITION_BITS + ".");
+        }
+        if (rotationBits < 1 || rotationBits > MAX_ROTATION_BITS) {
+            throw new IllegalArgumentException("Rotation bits must be between 1 and " + MAX_ROTATION_BITS + ".");
+        }
+        this.positionBits = positionBits;
+        this.rotationBits = rotationBits;
+        maxPosition = (1L << positionBits) - 1;
+        maxRotation = (1 << rotationBits) - 1;
+        rotationScale = maxRotation / (2 * ROTATION_RANGE);
+        updateScale();
+    }
+
+    /**
+     * Sets the bounds of the locations. The world reaches from -worldSize to
+     * worldSize on every axis (plus the margin).
+     *
+     * @param worldSize
+     */
+    public final void setWorldSize(Vector3f worldSize) {
+        min[0] = -worldSize.x - margin;
+        min[1] = -worldSize.y - margin;
+        min[2] = -worldSize.z - margin;
+        this.worldSize.set(worldSize);
+        updateScale();
+    }
+
+    private void updateScale() {
+        for (int axis = 0; axis < 3; axis++) {
+            // the world is centered at the origin
+            float range = -2 * min[axis];
+            scale[axis] = maxPosition / range;
+            invScale[axis] = range / maxPosition;
+        }
+    }
+
+    public long encodeLocation(Vector3f location) {
+        return quantize(location.x, 0)
+                | (quantize(location.y, 1) << positionBits)
+                | (quantize(location.z, 2) << (2 * positionBits));
+    }
+
+    public Vector3f decodeLocation(long location, Vector3f store) {
+        return store.set(
+                dequantize(location, 0),
+                dequantize(location >>> positionBits, 1),
+                dequantize(location >>> (2 * positionBits), 2));
+    }
+
+    private long quantize(float value, int axis) {
+        long q = Math.round((value - min[axis]) * scale[axis]);
+        return Math.max(0, Math.min(maxPosition, q));
+    }
+
+    private float dequantize(long bits, int axis) {
+        return min[axis] + (bits & maxPosition) * invScale[axis];
+    }
+
+    public int encodeRotation(Quaternion rotation) {
+        float x = rotation.getX();
+        float y = rotation.getY();
+        float z = rotation.getZ();
+        float w = rotation.getW();
+        float length = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        if (length == 0) {
+            // identity
+            return 3 << (3 * rotationBits) | packRotation(0, 0, 0);
+        }
+        // find the largest component
+        int largest = 0;
+        float largestValue = Math.abs(x);
+        if (Math.abs(y) > largestValue) {
+            largest = 1;
+            largestValue = Math.abs(y);
+        }
+        if (Math.abs(z) > largestValue) {
+            largest = 2;
+            largestValue = Math.abs(z);
+        }
+        if (Math.abs(w) > largestValue) {
+            largest = 3;
+        }
+        // q and -q are the same rotation, the largest component is made positive
+        float sign = 1 / length;
+        if ((largest == 0 ? x : largest == 1 ? y : largest == 2 ? z : w) < 0) {
+            sign = -sign;
+        }
+        x *= sign;
+        y *= sign;
+        z *= sign;
+        w *= sign;
+        int packed;
+        switch (largest) {
+            case 0:
+                packed = packRotation(y, z, w);
+                break;
+            case 1:
+                packed = packRotation(x, z, w);
+                break;
+            case 2:
+                packed = packRotation(x, y, w);
+                break;
+            default:
+                packed = packRotation(x, y, z);
+                break;
+        }
+        return largest << (3 * rotationBits) | packed;
+    }
+
+    private int packRotation(float a, float b, float c) {
+        return quantizeRotation(a) << (2 * rotationBits)
+                | quantizeRotation(b) << rotationBits
+                | quantizeRotation(c);
+    }
+
+    private int quantizeRotation(float value) {
+        int q = Math.round((value + ROTATION_RANGE) * rotationScale);
+        return Math.max(0, Math.min(maxRotation, q));
+    }
+
+    private float dequantizeRotation(int bits) {
+        return (bits & maxRotation) / rotationScale - ROTATION_RANGE;
+    }
+
+    public Quaternion decodeRotation(int rotation, Quaternion store) {
+        int largest = (rotation >>> (3 * rotationBits)) & 3;
+        float a = dequantizeRotation(rotation >>> (2 * rotationBits));
+        float b = dequantizeRotation(rotation >>> rotationBits);
+        float c = dequantizeRotation(rotation);
+        float d = (float) Math.sqrt(Math.max(0, 1 - a * a - b * b - c * c));
+        switch (largest) {
+            case 0:
+                return store.set(d, a, b, c);
+            case 1:
+                return store.set(a, d, b, c);
+            case 2:
+                return store.set(a, b, d, c);
+            default:
+                return store.set(a, b, c, d);
+        }
+    }
+
+    public int getPositionBits() {
+        return positionBits;
+    }
+
+    public int getRotationBits() {
+        return rotationBits;
+    }
+
+    /**
+     * @return largest distance between two neighbouring encodable locations
+     */
+    public float getPositionPrecision() {
+        return Math.max(invScale[0], Math.max(invScale[1], invScale[2]));
+    }
+
+    public float getMargin() {
+        return margin;
+    }
+
+    /**
+     * Sets the space around the world.
+     *
+     * @param margin
+     */
+    public void setMargin(float margin) {
+        this.margin = margin;
+        setWorldSize(worldSize.clone());
+    }
+
+}
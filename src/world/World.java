@@ -1,14 +1,19 @@
 package world;
 
 import com.jme3.app.Application;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.bounding.BoundingVolume;
 import com.jme3.bullet.BulletAppState;
 import com.jme3.bullet.PhysicsSpace;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Node;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import world.builder.WorldRecipe;
 import world.control.WorldControl;
 
 /**
@@ -35,10 +40,28 @@ public class World {
      * All GameObjects mapped to their id.
      * Get a game object id by calling gameObject.getUserData("Id")
      */
-    private HashMap<Integer, Node> gameObjects;
+    private GameObjectRegistry gameObjects;
     
     private ArrayList<WorldListener> listeners;
     
+    /**
+     * Number of open batches. Events are collected while greater than 0.
+     */
+    private int batchDepth;
+    /**
+     * Additions and removals of the open batch in the order they happened.
+     */
+    private ArrayList<BatchEvent> batchEvents = new ArrayList<>();
+    /**
+     * Additions of the open batch which may still be cancelled by a removal.
+     */
+    private IdentityHashMap<Node, BatchEvent> batchAdditions = new IdentityHashMap<>();
+    
+    /**
+     * Recipes the static part of the world has been generated with.
+     */
+    private ArrayList<WorldRecipe> recipes = new ArrayList<>();
+    
     /**
      * All Game Objects are added to the world node.
      */
@@ -46,60 +69,313 @@ public class World {
     
     private Vector3f worldSize;
     /**
-     * Used to generate new game object ids.
+     * Encodes transforms for the network. Bounded by the world size.
+     */
+    private TransformCodec transformCodec = new TransformCodec();
+    
+    /**
+     * Size of the cells of the spatial index.
+     */
+    public static final float SPATIAL_CELL_SIZE = 8;
+    /**
+     * Spatial index over the bounds of all game objects.
+     * Refreshed once per frame in update() for the game objects which moved.
+     */
+    private SpatialGrid spatialGrid;
+    /**
+     * Updates the world every frame.
+     */
+    private WorldAppState worldAppState;
+    
+    public static final int DEFAULT_COMMAND_QUEUE_CAPACITY = 4096;
+    public static final int DEFAULT_COMMAND_BUDGET = 1024;
+    /**
+     * Changes queued by other threads (network) which are applied in update().
+     * Not cleared on reset since reset may be called by a queued command.
      */
-    private int gameObjectId;
+    private WorldCommandQueue commandQueue;
+    /**
+     * Maximum number of queued commands applied per frame.
+     */
+    private int commandBudget = DEFAULT_COMMAND_BUDGET;
 
     public World(Application app, Node worldNode) {
+        this(app, worldNode, DEFAULT_COMMAND_QUEUE_CAPACITY);
+    }
+
+    public World(Application app, Node worldNode, int commandQueueCapacity) {
         this.app = app;
         this.worldNode = worldNode;
+        this.commandQueue = new WorldCommandQueue(commandQueueCapacity);
         initialize();
     }
     
     private void initialize() {
         worldNode.detachAllChildren();
         listeners = new ArrayList<>();
-        gameObjects = new HashMap<>();
+        batchDepth = 0;
+        batchEvents.clear();
+        batchAdditions.clear();
+        recipes.clear();
+        gameObjects = new GameObjectRegistry();
+        spatialGrid = new SpatialGrid(SPATIAL_CELL_SIZE);
         worldSize = new Vector3f();
+        transformCodec.setWorldSize(worldSize);
                 
         // init physics
         app.getStateManager().detach(bulletAppState);
         bulletAppState = new BulletAppState();
         app.getStateManager().attach(bulletAppState);
         
+        app.getStateManager().detach(worldAppState);
+        worldAppState = new WorldAppState(this);
+        app.getStateManager().attach(worldAppState);
+    }
+    
+    /**
+     * Called once per frame by the WorldAppState.
+     * 
+     * @param tpf 
+     */
+    public void update(float tpf) {
+        commandQueue.drain(this, commandBudget);
+        updateSpatialIndex();
+    }
+    
+    /**
+     * Queues the given command which will be applied on the update thread during
+     * the next update(). May be called by any thread.
+     * 
+     * @param command
+     * @return false if the command queue is full and the command was dropped
+     */
+    public boolean enqueue(WorldCommand command) {
+        return commandQueue.offer(command);
+    }
+    
+    /**
+     * Queues the given command and waits up to the given time if the command
+     * queue is full. For commands which must not be dropped. Must not be
+     * called by the update thread.
+     * 
+     * @param command
+     * @param timeout
+     * @param unit
+     * @return false if the command queue stayed full and the command was
+     * dropped
+     */
+    public boolean enqueue(WorldCommand command, long timeout, TimeUnit unit) {
+        return commandQueue.offer(command, timeout, unit);
+    }
+
+    public WorldCommandQueue getCommandQueue() {
+        return commandQueue;
+    }
+
+    public int getCommandBudget() {
+        return commandBudget;
+    }
+
+    /**
+     * Sets how many queued commands are applied per frame at most.
+     * Remaining commands are applied in the next frames.
+     * 
+     * @param commandBudget 
+     */
+    public void setCommandBudget(int commandBudget) {
+        this.commandBudget = commandBudget;
+    }
+    
+    /**
+     * Moves all game objects which moved since the last call to their new cells
+     * of the spatial index. Game objects which are no GameObjectNode can not
+     * tell and are updated every time.
+     */
+    public void updateSpatialIndex() {
+        for (int i = gameObjects.size() - 1; i >= 0; i--) {
+            Node gameObject = gameObjects.getAt(i);
+            if (!(gameObject instanceof GameObjectNode) || ((GameObjectNode) gameObject).isMoved()) {
+                updateSpatialIndex(gameObjects.getIdAt(i), gameObject);
+            }
+        }
+    }
+    
+    private void updateSpatialIndex(int id, Node gameObject) {
+        BoundingVolume bound = gameObject.getWorldBound();
+        if (gameObject instanceof GameObjectNode) {
+            // after getWorldBound() which sets the flag if the bounds were refreshed
+            ((GameObjectNode) gameObject).clearMoved();
+        }
+        boolean finite;
+        if (bound instanceof BoundingBox) {
+            BoundingBox box = (BoundingBox) bound;
+            Vector3f center = box.getCenter();
+            finite = spatialGrid.update(id, center.x, center.y, center.z, box.getXExtent(), box.getYExtent(), box.getZExtent());
+        } else if (bound instanceof BoundingSphere) {
+            Vector3f center = bound.getCenter();
+            float radius = ((BoundingSphere) bound).getRadius();
+            finite = spatialGrid.update(id, center.x, center.y, center.z, radius, radius, radius);
+        } else {
+            Vector3f location = gameObject.getWorldTranslation();
+            finite = spatialGrid.update(id, location.x, location.y, location.z, 0, 0, 0);
+        }
+        if (!finite) {
+            LOG.log(Level.FINE, "GameObject {0} has no finite bounds and is not found by spatial queries.", id);
+        }
     }
     
     public void reset() {
         initialize();
     }
     
+    /**
+     * Starts a batch.
+     * Until the batch gets committed added and removed Game Objects are not
+     * reported to the listeners one by one but collected and reported at once
+     * with gameObjectsAdded and gameObjectsRemoved. The order of additions and
+     * removals is kept: consecutive additions (or removals) are reported
+     * together. A Game Object which is added and removed again during the
+     * batch is not reported at all.
+     * Batches can be nested - events are fired when the outermost batch gets
+     * committed.
+     */
+    public void beginBatch() {
+        batchDepth++;
+    }
+    
+    /**
+     * Ends the batch started with beginBatch() and informs the listeners about
+     * all changes made during the batch.
+     */
+    public void commitBatch() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("commitBatch() called without beginBatch().");
+        }
+        batchDepth--;
+        if (batchDepth > 0) {
+            return;
+        }
+        ArrayList<Node> run = new ArrayList<>();
+        boolean runAdded = false;
+        for (BatchEvent event : batchEvents) {
+            if (event.cancelled) {
+                continue;
+            }
+            if (event.added != runAdded) {
+                fireBatch(run, runAdded);
+                runAdded = event.added;
+            }
+            run.add(event.gameObject);
+        }
+        fireBatch(run, runAdded);
+        batchEvents.clear();
+        batchAdditions.clear();
+    }
+
+    private void fireBatch(ArrayList<Node> run, boolean added) {
+        if (run.isEmpty()) {
+            return;
+        }
+        Node[] gameObjects = run.toArray(new Node[run.size()]);
+        run.clear();
+        for (WorldListener listener : listeners) {
+            if (added) {
+                listener.gameObjectsAdded(gameObjects);
+            } else {
+                listener.gameObjectsRemoved(gameObjects);
+            }
+        }
+    }
+    
+    public boolean isInBatch() {
+        return batchDepth > 0;
+    }
+    
     /**
      * Adds given constellation by calling addGameObject for each constellation
-     * member.
+     * member. All members are reported to the listeners in one batch.
      * 
      * @param constellation 
      */
     public void addConstellation(Constellation constellation) {
-        for (Node gameObject : constellation.getGameObjects()) {
-            addGameObject(gameObject);
+        beginBatch();
+        try {
+            for (Node gameObject : constellation.getGameObjects()) {
+                addGameObject(gameObject);
+            }
+        } finally {
+            commitBatch();
         }
     }
     
     /**
      * Adds all given Game Objects and returns their associated ids in the same
-     * order.
+     * order. All Game Objects are reported to the listeners in one batch.
      * 
      * @param gameObjects
      * @return 
      */
     public int[] addGameObjects(Node[] gameObjects) {
         int ids[] = new int[gameObjects.length];
-        for (int i = 0; i < gameObjects.length; i++) {
-            ids[i] = addGameObject(gameObjects[i]);
+        beginBatch();
+        try {
+            for (int i = 0; i < gameObjects.length; i++) {
+                ids[i] = addGameObject(gameObjects[i]);
+            }
+        } finally {
+            commitBatch();
         }
         return ids;
     }
     
+    /**
+     * Generates the Game Objects of the given recipe and adds them in one
+     * batch. The Game Objects get consecutive ids which have never been used.
+     * A recipe which has been generated before (received from the server)
+     * keeps its ids, so the same Game Objects get the same ids everywhere.
+     * 
+     * @param recipe 
+     */
+    public void generate(WorldRecipe recipe) {
+        Node[] generated = recipe.build(this);
+        int firstId = recipe.getFirstId() < 0 ? gameObjects.getUnusedId() : recipe.getFirstId();
+        // listeners can tell generated Game Objects apart while they are added
+        recipe.setGenerated(firstId, generated.length);
+        recipes.add(recipe);
+        beginBatch();
+        try {
+            for (int i = 0; i < generated.length; i++) {
+                addGameObject(generated[i], firstId + i);
+            }
+        } finally {
+            commitBatch();
+        }
+        for (WorldListener listener : listeners) {
+            listener.worldGenerated(recipe);
+        }
+    }
+    
+    /**
+     * @return recipes the world has been generated with since the last reset
+     */
+    public ArrayList<WorldRecipe> getRecipes() {
+        return recipes;
+    }
+    
+    /**
+     * @param id
+     * @return true if the Game Object with the given id has been generated by
+     * one of the recipes of the world
+     */
+    public boolean isGenerated(int id) {
+        for (WorldRecipe recipe : recipes) {
+            if (recipe.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
     /**
      * Adds the given game object (in form of a Spatial) to the world.
      * The game object type is determined by the spatial classes.
@@ -121,7 +397,7 @@ public class World {
      * @return 
      */
     public int addGameObject(GameObjectControl gameObjectControl) {
-        Node gameObject = new Node("GameObject");
+        Node gameObject = new GameObjectNode("GameObject");
         gameObject.addControl(gameObjectControl);
         return addGameObject(gameObject);
     }
@@ -144,20 +420,38 @@ public class World {
         // set id of entity
         gameObject.setUserData("Id", id);
         gameObjectControl.setId(id);
-        gameObjects.put(id, gameObject);
+        Node replaced = gameObjects.put(id, gameObject);
+        if (replaced != null && replaced != gameObject) {
+            LOG.log(Level.WARNING, "GameObject with id {0} replaced another GameObject.", id);
+            replaced.removeFromParent();
+        }
         
         worldNode.attachChild(gameObject);
+        updateSpatialIndex(id, gameObject);
         
-        for (WorldListener listener : listeners) {
-            listener.gameObjectAdded(gameObject);
+        if (batchDepth > 0) {
+            BatchEvent event = new BatchEvent(gameObject, true);
+            batchEvents.add(event);
+            batchAdditions.put(gameObject, event);
+        } else {
+            for (WorldListener listener : listeners) {
+                listener.gameObjectAdded(gameObject);
+            }
         }
         
         LOG.info("GameObject added to world.");
         return id;
     }
     
+    /**
+     * Returns a free game object id and reserves it for the caller.
+     * Ids of removed game objects are recycled with a new generation, so an
+     * old id never resolves to a newer game object.
+     * 
+     * @return 
+     */
     public int generateGameObjectId() {
-        return gameObjectId++;
+        return gameObjects.generateId();
     }
     
     /**
@@ -183,12 +477,25 @@ public class World {
             LOG.warning("Tried to remove null GameObject.");
             return;
         }
-        for (WorldListener listener : listeners) {
-            listener.gameObjectRemoved(entity);
+        if (batchDepth > 0) {
+            BatchEvent addition = batchAdditions.remove(entity);
+            if (addition != null) {
+                // the listeners never learn about it
+                addition.cancelled = true;
+            } else {
+                batchEvents.add(new BatchEvent(entity, false));
+            }
+        } else {
+            for (WorldListener listener : listeners) {
+                listener.gameObjectRemoved(entity);
+            }
         }
         
         entity.removeFromParent();
-        gameObjects.remove((int) entity.getUserData("Id"));
+        int id = entity.getUserData("Id");
+        if (gameObjects.remove(id) != null) {
+            spatialGrid.remove(id);
+        }
         bulletAppState.getPhysicsSpace().removeAll(entity);
         entity.getControl(GameObjectControl.class).setLogic(null);
         
@@ -199,14 +506,98 @@ public class World {
     }
     
     public GameObjectControl getGameObjectControl(int id) {
-        return gameObjects.get(id).getControl(GameObjectControl.class);
+        Node gameObject = gameObjects.get(id);
+        return gameObject == null ? null : gameObject.getControl(GameObjectControl.class);
+    }
+    
+    /**
+     * Returns true if a game object with the given id (and generation) exists.
+     * 
+     * @param id
+     * @return 
+     */
+    public boolean containsGameObject(int id) {
+        return gameObjects.contains(id);
     }
     
+    /**
+     * Creates a new array holding all game objects.
+     * Use getGameObjectCount() and getGameObjectAt() to iterate without
+     * creating objects.
+     * 
+     * @return 
+     */
     public Node[] getGameObjects() {
-        Collection<Node> collection = gameObjects.values();
-        Node[] spatials = collection.toArray(new Node[collection.size()]);
+        Node[] spatials = new Node[gameObjects.size()];
+        for (int i = 0; i < spatials.length; i++) {
+            spatials[i] = gameObjects.getAt(i);
+        }
         return spatials;
-        
+    }
+    
+    public int getGameObjectCount() {
+        return gameObjects.size();
+    }
+    
+    /**
+     * Returns the game object at the given index (not id).
+     * Indices are in the range 0 to getGameObjectCount() - 1. Removing a game
+     * object moves the last game object into its index, so iterate backwards
+     * if game objects are removed while iterating.
+     * 
+     * @param index
+     * @return 
+     */
+    public Node getGameObjectAt(int index) {
+        return gameObjects.getAt(index);
+    }
+    
+    /**
+     * Returns the id of the game object at the given index.
+     * 
+     * @param index
+     * @return 
+     * @see #getGameObjectAt(int) 
+     */
+    public int getGameObjectIdAt(int index) {
+        return gameObjects.getIdAt(index);
+    }
+    
+    /**
+     * Finds all game objects whose bounds are closer than radius to the given
+     * location.
+     * 
+     * @param center
+     * @param radius
+     * @param results cleared and filled with the ids of the found game objects
+     * @return number of found game objects
+     */
+    public int queryRadius(Vector3f center, float radius, IdList results) {
+        return spatialGrid.queryRadius(center.x, center.y, center.z, radius, results);
+    }
+    
+    /**
+     * Finds all game objects whose bounds overlap the given box.
+     * 
+     * @param min
+     * @param max
+     * @param results cleared and filled with the ids of the found game objects
+     * @return number of found game objects
+     */
+    public int queryAabb(Vector3f min, Vector3f max, IdList results) {
+        return spatialGrid.queryAabb(min.x, min.y, min.z, max.x, max.y, max.z, results);
+    }
+    
+    /**
+     * Finds the k game objects whose centers are nearest to the given location.
+     * 
+     * @param location
+     * @param k
+     * @param results cleared and filled with the ids sorted by distance (nearest first)
+     * @return number of found game objects
+     */
+    public int queryNearest(Vector3f location, int k, IdList results) {
+        return spatialGrid.queryNearest(location.x, location.y, location.z, k, results);
     }
     
     public void addListener(WorldListener listener) {
@@ -233,10 +624,37 @@ public class World {
         return worldSize;
     }
 
+    /**
+     * Sets the size of the world. The world reaches from -worldSize to worldSize
+     * on every axis.
+     * 
+     * @param worldSize 
+     */
     public void setWorldSize(Vector3f worldSize) {
         this.worldSize = worldSize;
+        transformCodec.setWorldSize(worldSize);
     }
+
+    public TransformCodec getTransformCodec() {
+        return transformCodec;
+    }
+    
     
     
+    /**
+     * Addition or removal of a Game Object during a batch.
+     */
+    private static class BatchEvent {
+
+        private final Node gameObject;
+        private final boolean added;
+        private boolean cancelled;
+
+        private BatchEvent(Node gameObject, boolean added) {
+            this.gameObject = gameObject;
+            this.added = added;
+        }
+
+    }
     
 }
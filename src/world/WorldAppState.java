@@ -0,0 +1,23 @@
+package world;
+
+import com.jme3.app.state.AbstractAppState;
+
+/**
+ * Attached by the World to the application to update the World once per frame.
+ *
+ * @author Marco Klein
+ */
+class WorldAppState extends AbstractAppState {
+    
+    private World world;
+
+    WorldAppState(World world) {
+        this.world = world;
+    }
+
+    @Override
+    public void update(float tpf) {
+        world.update(tpf);
+    }
+    
+}
@@ -0,0 +1,18 @@
+package world;
+
+/**
+ * A change of the world which can be queued by any thread and gets applied on
+ * the update thread.
+ *
+ * @author Marco Klein
+ */
+public interface WorldCommand {
+    
+    /**
+     * Applies the change to the given world. Always called on the update thread.
+     * 
+     * @param world 
+     */
+    public void applyToWorld(World world);
+    
+}
@@ -0,0 +1,206 @@
+package world;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded lock free queue of WorldCommands.
+ * 
+ * Any number of threads (for example network threads) may offer commands while
+ * only the update thread of the world drains them. The ring buffer is allocated
+ * once, so queueing a command does not create any objects.
+ * If the queue is full the command is rejected and counted as overflow.
+ * Commands which must not be dropped can wait for a free slot instead.
+ * PooledCommands are released after they have been applied.
+ *
+ * @author Marco Klein
+ */
+public class WorldCommandQueue {
+    private static final Logger LOG = Logger.getLogger(WorldCommandQueue.class.getName());
+    /**
+     * Time between two attempts of a waiting producer.
+     */
+    private static final long WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    
+    private final int mask;
+    private final AtomicReferenceArray<WorldCommand> buffer;
+    /**
+     * Sequence of each slot. A slot may be written if its sequence equals the
+     * tail and read if it equals head + 1.
+     */
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * Only accessed by the draining thread.
+     */
+    private long head;
+    
+    private final AtomicLong overflowCount = new AtomicLong();
+    private volatile long appliedCount;
+    private volatile int maxDepth;
+    private volatile int lastDrainCount;
+
+    /**
+     * @param capacity rounded up to the next power of two
+     */
+    public WorldCommandQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mask = size - 1;
+        buffer = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+    
+    /**
+     * Queues the given command. May be called by any thread.
+     * 
+     * @param command
+     * @return false if the queue is full and the command was dropped
+     */
+    public boolean offer(WorldCommand command) {
+        if (tryOffer(command)) {
+            return true;
+        }
+        overflowCount.incrementAndGet();
+        return false;
+    }
+    
+    /**
+     * Queues the given command and waits for a free slot if the queue is full.
+     * Must not be called by the update thread of the world, since it drains
+     * the queue.
+     * 
+     * @param command
+     * @param timeout
+     * @param unit
+     * @return false if no slot became free in time and the command was dropped
+     */
+    public boolean offer(WorldCommand command, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!tryOffer(command)) {
+            if (System.nanoTime() - deadline >= 0) {
+                overflowCount.incrementAndGet();
+                return false;
+            }
+            LockSupport.parkNanos(WAIT_NANOS);
+        }
+        return true;
+    }
+    
+    private boolean tryOffer(WorldCommand command) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer.lazySet(index, command);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // slot still holds a command which was not drained - full
+                return false;
+            } else {
+                // another producer took this slot
+                position = tail.get();
+            }
+        }
+    }
+    
+    /**
+     * Applies at most budget commands to the world.
+     * Must only be called by the update thread of the world.
+     * 
+     * @param world
+     * @param budget maximum number of commands to apply
+     * @return number of applied commands
+     */
+    public int drain(World world, int budget) {
+        int depth = size();
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+        int applied = 0;
+        while (applied < budget) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                break; // empty
+            }
+            WorldCommand command = buffer.get(index);
+            buffer.lazySet(index, null);
+            sequences.lazySet(index, head + mask + 1);
+            head++;
+            applied++;
+            try {
+                command.applyToWorld(world);
+            } catch (RuntimeException ex) {
+                LOG.log(Level.SEVERE, "Could not apply " + command.getClass().getSimpleName() + " to world.", ex);
+            }
+            if (command instanceof PooledCommand) {
+                ((PooledCommand) command).release();
+            }
+        }
+        appliedCount += applied;
+        lastDrainCount = applied;
+        return applied;
+    }
+    
+    /**
+     * Number of queued commands (approximation if called while commands are
+     * offered).
+     * 
+     * @return 
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+    
+    public int getCapacity() {
+        return mask + 1;
+    }
+    
+    /**
+     * Number of commands which were dropped since the queue was full.
+     * 
+     * @return 
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+    
+    public long getEnqueuedCount() {
+        return tail.get();
+    }
+
+    public long getAppliedCount() {
+        return appliedCount;
+    }
+
+    /**
+     * Highest number of queued commands seen at the start of a drain.
+     * 
+     * @return 
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Number of commands applied by the last drain.
+     * 
+     * @return 
+     */
+    public int getLastDrainCount() {
+        return lastDrainCount;
+    }
+    
+}
@@ -1,6 +1,7 @@
 package world;
 
 import com.jme3.scene.Node;
+import world.builder.WorldRecipe;
 
 /**
  * Can be added to a World to get notified about everything that happens in the World.
@@ -23,4 +24,31 @@ public interface WorldListener {
      */
     public void gameObjectRemoved(Node gameObject);
     
+    /**
+     * Called once when a batch gets committed with all Game Objects which were
+     * added during the batch (instead of calling gameObjectAdded for each).
+     * 
+     * @param gameObjects 
+     * @see World#beginBatch() 
+     */
+    public void gameObjectsAdded(Node[] gameObjects);
+    
+    /**
+     * Called once when a batch gets committed with all Game Objects which were
+     * removed during the batch (instead of calling gameObjectRemoved for each).
+     * 
+     * @param gameObjects 
+     * @see World#beginBatch() 
+     */
+    public void gameObjectsRemoved(Node[] gameObjects);
+    
+    /**
+     * Called after Game Objects have been generated with the given recipe. The
+     * generated Game Objects have been reported with gameObjectsAdded before.
+     * 
+     * @param recipe 
+     * @see World#generate(world.builder.WorldRecipe) 
+     */
+    public void worldGenerated(WorldRecipe recipe);
+    
 }
@@ -14,11 +14,12 @@ import world.gameobject.logic.ObstacleLogic;
 import world.gameobject.model.ObstacleModel;
 
 /**
+ * Builds a single obstacle. Unset properties are chosen randomly.
  *
  * @author bidlingm
  */
 public class ObstacleBuilder {
-    private Random random = new Random();
+    private Random random;
 
     private Vector3f size;
     private Vector3f minSize, maxSize;
@@ -29,6 +30,17 @@ public class ObstacleBuilder {
     private boolean slideIn;
     
     public ObstacleBuilder(){
+        this(new Random());
+    }
+
+    /**
+     * Uses the given random number generator for unset properties, so the same
+     * seed always results in the same obstacles.
+     * 
+     * @param random 
+     */
+    public ObstacleBuilder(Random random){
+        this.random = random;
     }
 
     public ObstacleBuilder sizeRange(Vector3f minSize, Vector3f maxSize) {
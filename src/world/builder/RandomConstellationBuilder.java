@@ -7,11 +7,13 @@ import world.Constellation;
 import world.World;
 
 /**
+ * Builds a constellation of randomly placed obstacles. The same seed and
+ * options always result in the same constellation.
  *
  * @author Marco Klein
  */
 public class RandomConstellationBuilder {
-    private Random random = new Random();
+    private long seed = new Random().nextLong();
     
     private Vector3f worldSize = null;
     private int obstacles = -1;
@@ -25,6 +27,11 @@ public class RandomConstellationBuilder {
         return this;
     }
     
+    public RandomConstellationBuilder seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+    
     public RandomConstellationBuilder obstacles(int obstacles) {
         this.obstacles = obstacles;
         return this;
@@ -49,9 +56,10 @@ public class RandomConstellationBuilder {
      */
     public Constellation build(World world) {
         Constellation constellation = new Constellation();
+        Random random = new Random(seed);
         
         for (int i = 0; i < obstacles; i++) {
-            constellation.addGameObject(new ObstacleBuilder()
+            constellation.addGameObject(new ObstacleBuilder(random)
                     .locationRange(new Vector3f(-worldSize.x, 0, -worldSize.z), worldSize)
                     .setSlideIn(false)
                     .sizeRange(minObstacleSize, maxObstacleSize)
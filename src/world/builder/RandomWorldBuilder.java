@@ -5,7 +5,9 @@
 package world.builder;
 
 import com.jme3.math.Vector3f;
+import com.jme3.network.serializing.Serializable;
 import com.jme3.scene.Node;
+import java.util.Random;
 import world.Constellation;
 import world.GameObjectControl;
 import world.World;
@@ -13,19 +15,35 @@ import world.gameobject.logic.StaticPhysicsLogic;
 import world.gameobject.model.GroundModel;
 
 /**
+ * Builds a random world out of obstacles and an optional ground.
+ * 
+ * The same seed and options always result in the same Game Objects, so a world
+ * can be shared by sending the builder instead of the Game Objects (see
+ * WorldRecipe).
  *
  * @author Marco Klein
  */
+@Serializable
 public class RandomWorldBuilder {
     
-    private Vector3f worldSize;
-    private boolean createGround;
+    long seed = new Random().nextLong();
+    Vector3f worldSize;
+    boolean createGround;
     /**
      * Number of obstacles
      */
-    private int density;
-    private Vector3f averageObstacleSize = new Vector3f(1.5f, 1.5f, 1.5f);
-    private Vector3f obstacleSizeVariance = new Vector3f(1, 1, 1);
+    int density;
+    Vector3f averageObstacleSize = new Vector3f(1.5f, 1.5f, 1.5f);
+    Vector3f obstacleSizeVariance = new Vector3f(1, 1, 1);
+
+    public RandomWorldBuilder setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
 
     public RandomWorldBuilder setWorldSize(Vector3f worldSize) {
         this.worldSize = worldSize;
@@ -57,6 +75,7 @@ public class RandomWorldBuilder {
         
         constellation.addConstellation(
                 new RandomConstellationBuilder()
+                .seed(seed)
                 .worldSize(worldSize)
                 .obstacleSizeRange(averageObstacleSize.subtract(obstacleSizeVariance), averageObstacleSize.add(obstacleSizeVariance))
                 .obstacles(density)
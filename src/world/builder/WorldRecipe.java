@@ -0,0 +1,98 @@
+package world.builder;
+
+import com.jme3.network.serializing.Serializable;
+import com.jme3.scene.Node;
+import java.util.ArrayList;
+import java.util.Arrays;
+import world.Constellation;
+import world.World;
+
+/**
+ * Describes how the static part of a world is generated: a seed and the
+ * options of the builders. Generating the same recipe always results in the
+ * same Game Objects with the same ids, so clients generate the world themselves
+ * and only the recipe is sent over the network (see World.generate()).
+ *
+ * @author Marco Klein
+ */
+@Serializable
+public class WorldRecipe {
+    
+    long seed;
+    RandomWorldBuilder[] builders = new RandomWorldBuilder[0];
+    /**
+     * Id of the first generated Game Object or -1 if not generated yet. The
+     * Game Objects get consecutive ids.
+     */
+    int firstId = -1;
+    int gameObjectCount;
+
+    public WorldRecipe() {
+    }
+
+    public WorldRecipe(long seed) {
+        this.seed = seed;
+    }
+    
+    /**
+     * Adds a builder. The seed of the builder is derived from the seed of the
+     * recipe.
+     * 
+     * @param builder
+     * @return 
+     */
+    public WorldRecipe add(RandomWorldBuilder builder) {
+        builder.setSeed(seed + builders.length);
+        builders = Arrays.copyOf(builders, builders.length + 1);
+        builders[builders.length - 1] = builder;
+        return this;
+    }
+    
+    /**
+     * Builds all Game Objects of the recipe in a fixed order.
+     * 
+     * @param world
+     * @return 
+     */
+    public Node[] build(World world) {
+        Constellation constellation = new Constellation();
+        for (RandomWorldBuilder builder : builders) {
+            constellation.addConstellation(builder.build(world));
+        }
+        ArrayList<Node> gameObjects = constellation.getGameObjects();
+        return gameObjects.toArray(new Node[gameObjects.size()]);
+    }
+
+    /**
+     * @param id
+     * @return true if the Game Object with the given id has been generated by
+     * this recipe
+     */
+    public boolean contains(int id) {
+        return firstId >= 0 && id >= firstId && id < firstId + gameObjectCount;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getFirstId() {
+        return firstId;
+    }
+
+    public int getGameObjectCount() {
+        return gameObjectCount;
+    }
+
+    /**
+     * Called by the world once the recipe has been generated.
+     * 
+     * @param firstId
+     * @param gameObjectCount 
+     */
+    public void setGenerated(int firstId, int gameObjectCount) {
+        this.firstId = firstId;
+        this.gameObjectCount = gameObjectCount;
+    }
+    
+}
@@ -28,6 +28,10 @@ public class ObstacleControl extends WorldObjectControl {
     private boolean movingToInitialLocation;
     private float movingToInitialLocationSpeed;
     private Vector3f worldLocation;
+    /**
+     * True if the obstacle moved since the Simulator read its box.
+     */
+    private boolean moved;
     
     private Vector3f tempVector = new Vector3f();
     private Vector3f tempVector2 = new Vector3f();
@@ -68,6 +72,7 @@ public class ObstacleControl extends WorldObjectControl {
             } else {
                 movingToInitialLocation = true;
             }
+            moved = true;
         }
         LOG.log(Level.INFO, "Spatial set to {0}", spatial);
     }
@@ -91,9 +96,31 @@ public class ObstacleControl extends WorldObjectControl {
                 // move towards target location
                 spatial.setLocalTranslation(spatial.getLocalTranslation().add(tempVector));
             }
+            moved = true;
         }
     }
 
+    /**
+     * Tells the Simulator to read the bound of the obstacle again. The control
+     * marks its own movements, code which moves, rotates or scales the obstacle
+     * otherwise has to call it.
+     */
+    public void markMoved() {
+        moved = true;
+    }
+
+    /**
+     * Returns true if the obstacle moved since the last call. Called by the
+     * Simulator.
+     *
+     * @return
+     */
+    public boolean consumeMoved() {
+        boolean result = moved;
+        moved = false;
+        return result;
+    }
+
     @Override
     protected void controlRender(RenderManager rm, ViewPort vp) {
     }
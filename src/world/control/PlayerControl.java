@@ -10,6 +10,7 @@ import com.jme3.input.InputManager;
 import com.jme3.input.KeyInput;
 import com.jme3.input.controls.ActionListener;
 import com.jme3.input.controls.KeyTrigger;
+import com.jme3.math.FastMath;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.Camera;
 import com.jme3.renderer.RenderManager;
@@ -18,11 +19,17 @@ import com.jme3.scene.Geometry;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 import java.util.logging.Logger;
+import simulator.PlayerInput;
+import simulator.PlayerSimulationControl;
 import world.World;
 
 /**
- * Controls player movement by using a CharacterControl which has to be added to
- * the player Spatial.
+ * Controls player movement by using a BetterCharacterControl or a
+ * PlayerSimulationControl which has to be added to the player Spatial.
+ *
+ * An input driven PlayerSimulationControl is not moved directly: the pressed
+ * buttons and the yaw of the camera are taken with pollButtons() and getYaw()
+ * and applied as PlayerInput (see PredictionControl).
  *
  * @author Marco Klein
  */
@@ -30,7 +37,12 @@ public class PlayerControl extends WorldControl implements ActionListener {
     private static final Logger LOG = Logger.getLogger(PlayerControl.class.getName());
     
     private BetterCharacterControl characterControl;
+    private PlayerSimulationControl simulationControl;
     private boolean left = false, right = false, up = false, down = false;
+    /**
+     * Jump has been pressed since the last pollButtons().
+     */
+    private boolean jumpPressed;
     private float speed = 3;
 
     /**
@@ -67,8 +79,9 @@ public class PlayerControl extends WorldControl implements ActionListener {
             // initialize
             // get character control
             characterControl = spatial.getControl(BetterCharacterControl.class);
-            if (characterControl == null) {
-                throw new UnsupportedOperationException("Player needs a BetterCharacterControl.class.");
+            simulationControl = spatial.getControl(PlayerSimulationControl.class);
+            if (characterControl == null && simulationControl == null) {
+                throw new UnsupportedOperationException("Player needs a BetterCharacterControl.class or a PlayerSimulationControl.class.");
             }
             Application app = world.getApp();
             
@@ -118,17 +131,21 @@ public class PlayerControl extends WorldControl implements ActionListener {
             tempVector.addLocal(tempVector3.negateLocal());
         }
         
-        if (!characterControl.isOnGround()) {
+        if (!isOnGround()) {
             // TODO set airtime see http://wiki.jmonkeyengine.org/doku.php/jme3:advanced:walking_character
         } else {
             
         }
         
         tempVector.normalizeLocal().multLocal(speed);
-        if (!characterControl.isOnGround()) {
+        if (!isOnGround()) {
             tempVector.multLocal(airSpeedMultiplier);
         }
-        characterControl.getWalkDirection().set(tempVector);
+        if (characterControl != null) {
+            characterControl.getWalkDirection().set(tempVector);
+        } else if (!simulationControl.isInputDriven()) {
+            simulationControl.getWalkDirection().set(tempVector);
+        }
         
         // animate player movement by rotating the player (since its geometry is a sphere)
         // TODO animate the player somewhere else (maybe an extra PlayerAnimationControl) only for better code design
@@ -143,6 +160,45 @@ public class PlayerControl extends WorldControl implements ActionListener {
 //        }
     }
 
+    /**
+     * Returns the pressed buttons as PlayerInput bits. Jump is only contained
+     * once per press.
+     * 
+     * @return 
+     */
+    public byte pollButtons() {
+        int buttons = 0;
+        if (up) {
+            buttons |= PlayerInput.FORWARD;
+        }
+        if (down) {
+            buttons |= PlayerInput.BACKWARD;
+        }
+        if (left) {
+            buttons |= PlayerInput.LEFT;
+        }
+        if (right) {
+            buttons |= PlayerInput.RIGHT;
+        }
+        if (jumpPressed) {
+            buttons |= PlayerInput.JUMP;
+            jumpPressed = false;
+        }
+        return (byte) buttons;
+    }
+    
+    /**
+     * @return angle of the camera around the y axis (0 looks along the z axis)
+     */
+    public float getYaw() {
+        Vector3f direction = cam.getDirection();
+        return FastMath.atan2(direction.x, direction.z);
+    }
+    
+    private boolean isOnGround() {
+        return characterControl != null ? characterControl.isOnGround() : simulationControl.isOnGround();
+    }
+
     @Override
     protected void controlRender(RenderManager rm, ViewPort vp) {
     }
@@ -180,8 +236,14 @@ public class PlayerControl extends WorldControl implements ActionListener {
                 break;
             case "CharJump":
                 if (isPressed) {
-                    characterControl.jump();
-                    if (characterControl.isOnGround()) {
+                    if (characterControl != null) {
+                        characterControl.jump();
+                    } else if (simulationControl.isInputDriven()) {
+                        jumpPressed = true;
+                    } else {
+                        simulationControl.jump();
+                    }
+                    if (isOnGround()) {
                         jumpsInAir = 0;
                     }
                     if (jumpsInAir < maxJumpsInAir) {
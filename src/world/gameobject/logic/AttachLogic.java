@@ -16,7 +16,7 @@ public class AttachLogic extends Logic {
     /**
      * Id of GameObject to attach to.
      */
-    private int targetGameObjectId;
+    int targetGameObjectId;
 
     public AttachLogic() {
     }
@@ -18,9 +18,9 @@ import world.control.ObstacleControl;
 @Serializable
 public class ObstacleLogic extends Logic {
 
-    private Vector3f startLocation;
-    private float initialSpeed;
-    private Vector3f targetLocation;
+    Vector3f startLocation;
+    float initialSpeed;
+    Vector3f targetLocation;
 
     public ObstacleLogic() {
     }
@@ -12,10 +12,16 @@ import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import simulator.PlayerSimulationControl;
 import world.World;
 import world.control.PlayerControl;
 
 /**
+ * Makes a Game Object the controllable player of the client.
+ *
+ * By default the player is moved by a BetterCharacterControl. A predicted
+ * player is moved by its inputs with the Simulator instead (see
+ * PredictionControl), so the server can repeat the movement.
  *
  * @author Marco Klein
  */
@@ -23,13 +29,24 @@ import world.control.PlayerControl;
 public class PlayerLogic extends Logic {
     private static final Logger LOG = Logger.getLogger(PlayerLogic.class.getName());
     
-    private Vector3f startLocation;
+    Vector3f startLocation;
+    boolean predicted;
 
     public PlayerLogic() {
     }
 
     public PlayerLogic(Vector3f startLocation) {
+        this(startLocation, false);
+    }
+
+    /**
+     * @param startLocation
+     * @param predicted true to move the player with an input driven
+     * PlayerSimulationControl instead of a BetterCharacterControl
+     */
+    public PlayerLogic(Vector3f startLocation, boolean predicted) {
         this.startLocation = startLocation;
+        this.predicted = predicted;
     }
     
     @Override
@@ -47,10 +64,15 @@ public class PlayerLogic extends Logic {
         }
         
         // add controls
-        BetterCharacterControl characterControl = new BetterCharacterControl(0.8f, 1.6f, 1f);
-        characterControl.setJumpForce(new Vector3f(0, 8f, 0));
-        characterControl.setGravity(new Vector3f(0, -9.81f, 0));
-        player.addControl(characterControl);
+        BetterCharacterControl characterControl = null;
+        if (predicted) {
+            player.addControl(createSimulationControl());
+        } else {
+            characterControl = new BetterCharacterControl(0.8f, 1.6f, 1f);
+            characterControl.setJumpForce(new Vector3f(0, 8f, 0));
+            characterControl.setGravity(new Vector3f(0, -9.81f, 0));
+            player.addControl(characterControl);
+        }
         player.addControl(new PlayerControl(world, 8));
         
         // attach camera
@@ -60,10 +82,29 @@ public class PlayerLogic extends Logic {
         cam.setDefaultDistance(1);
         
         // add physics
-        world.getBulletAppState().getPhysicsSpace().add(characterControl);
+        if (characterControl != null) {
+            world.getBulletAppState().getPhysicsSpace().add(characterControl);
+        }
         
     }
 
+    /**
+     * Creates the control which moves a predicted player. Client and server
+     * must use the same one so they simulate the same movement.
+     * 
+     * @return input driven PlayerSimulationControl
+     */
+    public static PlayerSimulationControl createSimulationControl() {
+        PlayerSimulationControl simulationControl = new PlayerSimulationControl(0.8f, 1.6f, 8f);
+        simulationControl.setSpeed(8);
+        simulationControl.setInputDriven(true);
+        return simulationControl;
+    }
+
+    public boolean isPredicted() {
+        return predicted;
+    }
+
     @Override
     public void removeLogic(World world, Node gameObject) {
         // TODO remove player logic
@@ -11,7 +11,7 @@ import world.World;
 @Serializable
 public class AssetModel extends Model {
     
-    private String modelName;
+    String modelName;
 
     public AssetModel() {
     }
@@ -15,7 +15,7 @@ import world.World;
 @Serializable
 public class GroundModel extends Model {
     
-    private Vector3f size;
+    Vector3f size;
 
     public GroundModel() {
     }
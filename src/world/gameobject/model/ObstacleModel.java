@@ -18,7 +18,7 @@ import world.World;
 @Serializable
 public class ObstacleModel extends Model<Node> {
 
-    private Vector3f size;
+    Vector3f size;
 
     public ObstacleModel() {
     }